@@ -0,0 +1,177 @@
+package org.entur.basmu.osm.mapper;
+
+import com.google.protobuf.ByteString;
+import crosby.binary.Osmformat;
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.domain.Tag;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.store.HashNodeStore;
+import org.entur.basmu.osm.store.NodeStore;
+
+import java.util.*;
+
+/**
+ * Deterministic fixtures shaped like the Norway extract: most nodes untagged, a few percent named POIs,
+ * small closed ways for buildings and areas, and multipolygon rings split into many fragments.
+ */
+final class BenchmarkFixtures {
+
+    static final int GRANULARITY = 100;
+    static final double ORIGIN_LAT = 59.9;
+    static final double ORIGIN_LON = 10.7;
+    static final double GRID_STEP = 0.0001;
+    static final int GRID_WIDTH = 1000;
+
+    private static final String[] AMENITIES = {"cafe", "restaurant", "school", "bank", "toilets", "bench"};
+    private static final String[] LEISURE = {"park", "pitch", "playground"};
+
+    private BenchmarkFixtures() {
+    }
+
+    static List<PointOfInterestFilter> filters() {
+        return List.of(
+                new PointOfInterestFilter(1L, "amenity", List.of(new Tag("cafe", 2), new Tag("restaurant", 2), new Tag("school", 3), new Tag("bank", 1))),
+                new PointOfInterestFilter(2L, "leisure", List.of(new Tag("park", 1))),
+                new PointOfInterestFilter(3L, "tourism", List.of(new Tag("hotel", 2), new Tag("museum", 3))));
+    }
+
+    static double lat(long id) {
+        return ORIGIN_LAT + (id % GRID_WIDTH) * GRID_STEP;
+    }
+
+    static double lon(long id) {
+        return ORIGIN_LON + (id / GRID_WIDTH) * GRID_STEP;
+    }
+
+    /**
+     * Tags of node or way number {@code id}: 3 % POIs (some with alternative names), 7 % named but not POIs,
+     * the rest untagged or with a non-name tag.
+     */
+    static Map<String, String> tags(long id, Random random) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        int kind = random.nextInt(100);
+        if (kind < 3) {
+            tags.put("name", "Sted " + id);
+            if (random.nextBoolean()) {
+                tags.put("amenity", AMENITIES[random.nextInt(AMENITIES.length)]);
+            } else {
+                tags.put("leisure", LEISURE[random.nextInt(LEISURE.length)]);
+            }
+            if (random.nextInt(3) == 0) {
+                tags.put("name:en", "Place " + id);
+                tags.put("alt_name", "Alt " + id);
+            }
+        } else if (kind < 10) {
+            tags.put("name", "Gate " + id);
+            tags.put("highway", "residential");
+        } else if (kind < 20) {
+            tags.put("source", "survey");
+        }
+        return tags;
+    }
+
+    static List<OSMNode> nodes(int count, long seed) {
+        var random = new Random(seed);
+        List<OSMNode> nodes = new ArrayList<>(count);
+        for (long id = 1; id <= count; id++) {
+            var node = new OSMNode(id, lat(id), lon(id));
+            tags(id, random).forEach(node::addTag);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /**
+     * Closed ways of 4 grid cells, referring to the nodes 1..nodeCount.
+     */
+    static List<OSMWay> ways(int count, int nodeCount, long seed) {
+        var random = new Random(seed);
+        List<OSMWay> ways = new ArrayList<>(count);
+        for (long id = 1; id <= count; id++) {
+            long base = 1 + random.nextInt(nodeCount - 2 * GRID_WIDTH - 2);
+            var way = new OSMWay(id);
+            for (long ref : new long[]{base, base + 1, base + 2, base + 2 + GRID_WIDTH, base + 1 + GRID_WIDTH, base + GRID_WIDTH, base}) {
+                way.addNodeRef(ref);
+            }
+            tags(id, random).forEach(way::addTag);
+            ways.add(way);
+        }
+        return ways;
+    }
+
+    /**
+     * A dense node block as written by osmium, delta coded with a block local string table.
+     */
+    static Osmformat.PrimitiveBlock denseNodeBlock(int count, long seed) {
+        var random = new Random(seed);
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        strings.put("", 0);
+
+        var dense = Osmformat.DenseNodes.newBuilder();
+        long previousId = 0;
+        long previousLat = 0;
+        long previousLon = 0;
+        for (long id = 1; id <= count; id++) {
+            long lat = Math.round(lat(id) * 1e9 / GRANULARITY);
+            long lon = Math.round(lon(id) * 1e9 / GRANULARITY);
+            dense.addId(id - previousId).addLat(lat - previousLat).addLon(lon - previousLon);
+            previousId = id;
+            previousLat = lat;
+            previousLon = lon;
+            tags(id, random).forEach((key, value) -> {
+                dense.addKeysVals(strings.computeIfAbsent(key, k -> strings.size()));
+                dense.addKeysVals(strings.computeIfAbsent(value, v -> strings.size()));
+            });
+            dense.addKeysVals(0);
+        }
+
+        var stringTable = Osmformat.StringTable.newBuilder();
+        strings.keySet().forEach(string -> stringTable.addS(ByteString.copyFromUtf8(string)));
+        return Osmformat.PrimitiveBlock.newBuilder()
+                .setStringtable(stringTable)
+                .setGranularity(GRANULARITY)
+                .addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().setDense(dense))
+                .build();
+    }
+
+    /**
+     * The outer ring of a multipolygon, a circle of {@code fragments} open ways of {@code nodesPerFragment}
+     * nodes each, every other way reversed and the ways shuffled, as in coastline and forest relations.
+     */
+    static List<OSMWay> fragmentedRing(long firstWayId, long firstNodeId, int fragments, int nodesPerFragment, long seed) {
+        int ringNodes = fragments * (nodesPerFragment - 1);
+        List<OSMWay> ways = new ArrayList<>(fragments);
+        for (int fragment = 0; fragment < fragments; fragment++) {
+            var way = new OSMWay(firstWayId + fragment);
+            List<Long> refs = new ArrayList<>(nodesPerFragment);
+            for (int i = 0; i < nodesPerFragment; i++) {
+                refs.add(firstNodeId + (fragment * (nodesPerFragment - 1) + i) % ringNodes);
+            }
+            if (fragment % 2 == 1) {
+                Collections.reverse(refs);
+            }
+            refs.forEach(way::addNodeRef);
+            ways.add(way);
+        }
+        Collections.shuffle(ways, new Random(seed));
+        return ways;
+    }
+
+    /**
+     * Coordinates of the nodes of a ring made by {@link #fragmentedRing}, on a circle around the center.
+     */
+    static NodeStore ringNodes(long firstNodeId, int fragments, int nodesPerFragment,
+                               double centerLat, double centerLon, double radius, NodeStore nodes) {
+        int ringNodes = fragments * (nodesPerFragment - 1);
+        for (int i = 0; i < ringNodes; i++) {
+            double angle = 2 * Math.PI * i / ringNodes;
+            nodes.put(firstNodeId + i, centerLat + radius * Math.sin(angle), centerLon + radius * Math.cos(angle));
+        }
+        return nodes;
+    }
+
+    static NodeStore newNodeStore() {
+        return new HashNodeStore();
+    }
+}
@@ -0,0 +1,70 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.store.MemoryBudget;
+import org.entur.geocoder.model.PeliasDocument;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProtoBufferContentHandler#addNode} and {@link ProtoBufferContentHandler#addWay} in the third pass,
+ * with the node refs of the candidate ways collected, for sorted (array) and unsorted (hash) stores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentHandlerBenchmark {
+
+    private static final int NODES = 200_000;
+    private static final int WAYS = 20_000;
+
+    @Param({"true", "false"})
+    public boolean sortedInput;
+
+    private List<OSMNode> nodes;
+    private List<OSMWay> ways;
+    private ProtoBufferContentHandler handler;
+    private LinkedBlockingDeque<PeliasDocument> queue;
+
+    @Setup
+    public void setUp() {
+        nodes = BenchmarkFixtures.nodes(NODES, 1);
+        ways = BenchmarkFixtures.ways(WAYS, NODES, 2);
+        queue = new LinkedBlockingDeque<>();
+        handler = new ProtoBufferContentHandler(queue::add, BenchmarkFixtures.filters(), 1, List.of(), MemoryBudget.unlimited());
+        handler.setSortedInput(sortedInput);
+
+        ways.forEach(handler::addWay);
+        handler.doneSecondPhaseWays();
+        nodes.forEach(handler::addNode);
+        queue.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public void addNode(Blackhole blackhole) {
+        for (OSMNode node : nodes) {
+            handler.addNode(node);
+        }
+        blackhole.consume(queue.size());
+        queue.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WAYS)
+    public void addWay(Blackhole blackhole) {
+        for (OSMWay way : ways) {
+            handler.addWay(way);
+        }
+        blackhole.consume(queue.size());
+        queue.clear();
+    }
+}
@@ -0,0 +1,65 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.model.Ring;
+import org.entur.basmu.osm.store.NodeStore;
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multipolygon ring assembly and the proximity check of outer polygons, for rings split into
+ * a varying number of fragments.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GeometryBenchmark {
+
+    private static final int NODES_PER_FRAGMENT = 20;
+    private static final int OUTER_RINGS = 4;
+
+    @Param({"2", "16", "128"})
+    public int fragments;
+
+    private List<OSMWay> ringWays;
+    private Ring ring;
+    private List<Polygon> outerPolygons;
+
+    @Setup
+    public void setUp() {
+        ringWays = BenchmarkFixtures.fragmentedRing(1, 1, fragments, NODES_PER_FRAGMENT, 1);
+        ring = MappingUtil.constructRings(ringWays).get(0);
+
+        NodeStore nodes = BenchmarkFixtures.newNodeStore();
+        List<OSMWay> outerWays = new ArrayList<>();
+        for (int i = 0; i < OUTER_RINGS; i++) {
+            long firstId = 1 + (long) i * fragments * NODES_PER_FRAGMENT;
+            outerWays.addAll(BenchmarkFixtures.fragmentedRing(firstId, firstId, fragments, NODES_PER_FRAGMENT, i));
+            BenchmarkFixtures.ringNodes(firstId, fragments, NODES_PER_FRAGMENT,
+                    BenchmarkFixtures.ORIGIN_LAT + i * 0.001, BenchmarkFixtures.ORIGIN_LON, 0.0004, nodes);
+        }
+        outerPolygons = MappingUtil.makeMultiPolygonsForOSMWays(outerWays, nodes);
+    }
+
+    @Benchmark
+    public List<Ring> constructRings() {
+        return MappingUtil.constructRings(ringWays);
+    }
+
+    @Benchmark
+    public List<Long> getClosedRingNodeRefs() {
+        return ring.getClosedRingNodeRefs();
+    }
+
+    @Benchmark
+    public boolean checkPolygonProximity() {
+        return MappingUtil.checkPolygonProximity(outerPolygons);
+    }
+}
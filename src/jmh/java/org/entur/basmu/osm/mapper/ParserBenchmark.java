@@ -0,0 +1,53 @@
+package org.entur.basmu.osm.mapper;
+
+import crosby.binary.Osmformat;
+import org.entur.basmu.osm.store.MemoryBudget;
+import org.entur.geocoder.model.PeliasDocument;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a dense node block into {@link org.entur.basmu.osm.model.OSMNode}s, through
+ * {@link BinaryOpenStreetMapParser#parseDense}, in the third pass where every node reaches the handler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+    private static final int NODES_PER_BLOCK = 8000;
+
+    private Osmformat.PrimitiveBlock block;
+    private BinaryOpenStreetMapParser parser;
+    private LinkedBlockingDeque<PeliasDocument> queue;
+
+    @Setup
+    public void setUp() {
+        block = BenchmarkFixtures.denseNodeBlock(NODES_PER_BLOCK, 1);
+        queue = new LinkedBlockingDeque<>();
+        var handler = new ProtoBufferContentHandler(
+                queue::add, BenchmarkFixtures.filters(), 1, List.of(), MemoryBudget.unlimited());
+        handler.setSortedInput(true);
+        handler.doneSecondPhaseWays();
+
+        parser = new BinaryOpenStreetMapParser(handler);
+        parser.setParseRelations(false);
+        parser.setParseWays(false);
+        parser.setParseNodes(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES_PER_BLOCK)
+    public void parseDense(Blackhole blackhole) {
+        parser.parse(block);
+        blackhole.consume(queue.size());
+        queue.clear();
+    }
+}
@@ -0,0 +1,44 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.geocoder.model.GeoPoint;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PeliasDocumentMapper#map} of matching POIs, a third of them with alternative names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PeliasDocumentMapperBenchmark {
+
+    private static final int POIS = 10_000;
+
+    private List<OSMNode> pointsOfInterest;
+    private PeliasDocumentMapper mapper;
+
+    @Setup
+    public void setUp() {
+        var matcher = new PointOfInterestMatcher(BenchmarkFixtures.filters());
+        pointsOfInterest = BenchmarkFixtures.nodes(POIS * 100, 1).stream()
+                .filter(matcher::matches)
+                .limit(POIS)
+                .toList();
+        mapper = new PeliasDocumentMapper(1, List.of(), BenchmarkFixtures.filters());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POIS)
+    public void map(Blackhole blackhole) {
+        for (OSMNode node : pointsOfInterest) {
+            blackhole.consume(mapper.map(node, new GeoPoint(node.getLat(), node.getLon())));
+        }
+    }
+}
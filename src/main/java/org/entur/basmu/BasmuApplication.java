@@ -1,6 +1,14 @@
 package org.entur.basmu;
 
+import org.entur.basmu.cache.CheckpointService;
+import org.entur.basmu.cache.RunCacheService;
+import org.entur.basmu.csv.PeliasCsvWriter;
+import org.entur.basmu.metrics.RunReportService;
 import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.profile.FilterProfile;
+import org.entur.basmu.profile.FilterProfileService;
+import org.entur.basmu.shard.ShardService;
+import org.entur.geocoder.blobStore.BlobStoreFiles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.ApplicationArguments;
@@ -9,9 +17,17 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.retry.annotation.EnableRetry;
 
+import java.io.File;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 @SpringBootApplication
 @EnableRetry
@@ -20,9 +36,24 @@ public class BasmuApplication implements ApplicationRunner {
     private static final Logger logger = LoggerFactory.getLogger(BasmuApplication.class);
 
     private final BasmuService bs;
+    private final RunCacheService runCache;
+    private final RunReportService runReport;
+    private final CheckpointService checkpoints;
+    private final ShardService shards;
+    private final FilterProfileService profiles;
 
-    public BasmuApplication(BasmuService bs) {
+    public BasmuApplication(BasmuService bs,
+                            RunCacheService runCache,
+                            RunReportService runReport,
+                            CheckpointService checkpoints,
+                            ShardService shards,
+                            FilterProfileService profiles) {
         this.bs = bs;
+        this.runCache = runCache;
+        this.runReport = runReport;
+        this.checkpoints = checkpoints;
+        this.shards = shards;
+        this.profiles = profiles;
     }
 
     public static void main(String[] args) {
@@ -31,25 +62,221 @@ public class BasmuApplication implements ApplicationRunner {
 
     @Override
     public void run(ApplicationArguments args) {
+        String outcome = "failed";
+        try {
+            outcome = export();
+        } finally {
+            runReport.writeRunReport(outcome);
+        }
+    }
+
+    /**
+     * @return the outcome of the run for the run report
+     */
+    private String export() {
+        // The filter service and the blob store are independent, the filters are awaited when they are needed
+        ExecutorService startup = Executors.newSingleThreadExecutor();
+        try {
+            return export(startup.submit(bs::getPoiFilters));
+        } finally {
+            startup.shutdownNow();
+        }
+    }
+
+    private String export(Future<List<PointOfInterestFilter>> poiFiltersFuture) {
+        List<BlobStoreFiles.File> pbfPoiFiles = bs.findPbfPoiFiles();
+
+        if (profiles.isEnabled()) {
+            return exportProfiles(pbfPoiFiles, poiFiltersFuture);
+        }
+
+        List<String> pbfVersions = pbfPoiFiles.stream().map(bs::getPbfVersion).toList();
+
+        // The incremental state is for all entities of one PBF file, sharded runs convert their part of the files
+        if (bs.isIncrementalEnabled() && !shards.isSharded() && pbfPoiFiles.size() == 1) {
+            List<PointOfInterestFilter> poiFilters = awaitPoiFilters(poiFiltersFuture);
+            var changeRun = bs.createPeliasDocumentForChanges(runCache.createSettingsKey(poiFilters), pbfVersions.get(0), poiFilters);
+            if (changeRun.isPresent()) {
+                zipAndUploadCSVFile(changeRun.get().peliasDocuments(), changeRun.get().runKey(), null);
+                bs.storeIncrementalState(changeRun.get().state());
+                return "incremental";
+            }
+        }
+
+        // The run key is of the listed blobs, so that an unchanged run does not download the PBF files
+        String pbfKey = runCache.createPbfKey(pbfVersions);
+        List<PointOfInterestFilter> poiFilters = awaitPoiFilters(poiFiltersFuture);
+        String settingsKey = runCache.createSettingsKey(poiFilters);
+        String runKey = runCache.createRunKey(pbfKey, poiFilters);
+
+        Optional<String> previousOutputFilename = runCache.findOutputFilename(runKey);
+        if (previousOutputFilename.isPresent()) {
+            logger.info("PBF file and filters unchanged since {}, skipping the export", previousOutputFilename.get());
+            bs.copyCSVFileAsLatestToConfiguredBucket(previousOutputFilename.get());
+            return "unchanged";
+        }
+
+        String checkpointKey = shards.getCheckpointKey(runKey);
+        Optional<File> csvCheckpoint = checkpoints.findCSVFile(checkpointKey);
+        if (csvCheckpoint.isPresent()) {
+            logger.info("Resuming from the CSV file of an earlier attempt");
+            publishCSVFile(bs.openFile(csvCheckpoint.get()), runKey);
+            return "resumed";
+        }
+
+        List<File> pbfFiles = pbfPoiFiles.stream().map(bs::loadPbfPoiFile).toList();
+        InputStream csv;
+        if (pbfFiles.size() == 1) {
+            Consumer<PeliasCsvWriter> documents = writer -> bs.createPeliasDocumentForPointOfInterests(
+                    pbfFiles.get(0), pbfKey, pbfVersions.get(0), settingsKey, checkpointKey, poiFilters, writer);
+            if (!checkpoints.isEnabled() && !shards.isSharded()) {
+                zipAndUploadCSVFile(documents, runKey, null);
+                return "exported";
+            }
+            csv = bs.createCSVFile(documents);
+        } else {
+            csv = bs.createCSVFile(pbfFiles, checkpointKey, poiFilters);
+        }
+        if (checkpoints.isEnabled()) {
+            csv = bs.openFile(checkpoints.saveCSVFile(checkpointKey, csv));
+        }
+        publishCSVFile(csv, runKey);
+        return "exported";
+    }
 
-        List<PointOfInterestFilter> poiFilters = bs.getPoiFilters();
+    /**
+     * Parse the PBF file once into a candidate extract and export each filter profile from it, with its own
+     * output, latest copy and run key. Profiles need a single PBF file and an unsharded run.
+     */
+    private String exportProfiles(List<BlobStoreFiles.File> pbfPoiFiles,
+                                  Future<List<PointOfInterestFilter>> poiFiltersFuture) {
+        if (pbfPoiFiles.isEmpty()) {
+            logger.info("No or empty pbf file found.");
+            return "empty";
+        }
+        if (pbfPoiFiles.size() > 1 || shards.isSharded()) {
+            throw new IllegalStateException("Filter profiles need a single PBF file and an unsharded run, found "
+                    + pbfPoiFiles.size() + " PBF files");
+        }
+
+        String pbfKey = runCache.createPbfKey(List.of(bs.getPbfVersion(pbfPoiFiles.get(0))));
+        List<PointOfInterestFilter> poiFilters = awaitPoiFilters(poiFiltersFuture);
+
+        Map<FilterProfile, String> runKeys = new LinkedHashMap<>();
+        for (FilterProfile profile : profiles.getProfiles()) {
+            String runKey = runCache.createRunKey(pbfKey, poiFilters, profile);
+            Optional<String> previousOutputFilename = runCache.findOutputFilename(runKey, profile);
+            if (previousOutputFilename.isPresent()) {
+                logger.info("PBF file and filters of profile {} unchanged since {}, skipping its export",
+                        profile.name(), previousOutputFilename.get());
+                bs.copyCSVFileAsLatestToConfiguredBucket(previousOutputFilename.get(), profile);
+            } else {
+                runKeys.put(profile, runKey);
+            }
+        }
+        if (runKeys.isEmpty()) {
+            return "unchanged";
+        }
+
+        File candidateExtract = bs.findCandidateExtract(pbfKey)
+                .orElseGet(() -> bs.createCandidateExtract(bs.loadPbfPoiFile(pbfPoiFiles.get(0)), pbfKey));
+        try {
+            runKeys.forEach((profile, runKey) -> zipAndUploadCSVFile(
+                    documents -> bs.createPeliasDocumentsForProfile(candidateExtract, profile, poiFilters, documents),
+                    runKey, profile));
+        } finally {
+            bs.releaseCandidateExtract(candidateExtract);
+        }
+        return "exported";
+    }
+
+    private List<PointOfInterestFilter> awaitPoiFilters(Future<List<PointOfInterestFilter>> poiFiltersFuture) {
+        long start = System.currentTimeMillis();
+        try {
+            List<PointOfInterestFilter> poiFilters = poiFiltersFuture.get();
+            logger.info("Waited {} ms for the POI filters", System.currentTimeMillis() - start);
+            return poiFilters;
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof RuntimeException re ? re : new RuntimeException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Upload the CSV file, or when sharded, upload it as the part of this shard and let the first shard
+     * merge the parts of all shards and upload the result.
+     */
+    private void publishCSVFile(InputStream inputStream, String runKey) {
+        if (!shards.isSharded()) {
+            zipAndUploadCSVFile(inputStream, runKey);
+            return;
+        }
+        File partFile = shards.savePart(inputStream);
+        try {
+            shards.uploadPart(runKey, partFile);
+        } finally {
+            partFile.delete();
+        }
+        if (shards.isMerger()) {
+            zipAndUploadCSVFile(shards.mergeParts(runKey), runKey);
+        } else {
+            checkpoints.deleteCheckpoints();
+            logger.info("Uploaded the CSV part, the first shard merges the parts");
+        }
+    }
+
+    private void zipAndUploadCSVFile(InputStream inputStream, String runKey) {
+        zipAndUploadCSVFile(inputStream, runKey, null);
+    }
+
+    /**
+     * Zip the documents while they are written if the export is not sorted and has no delta, parts or bulk files,
+     * otherwise write them to a CSV file first.
+     */
+    private void zipAndUploadCSVFile(Consumer<PeliasCsvWriter> documents, String runKey, FilterProfile profile) {
+        if (!bs.isZippedWhileWritten()) {
+            zipAndUploadCSVFile(bs.createCSVFile(documents), runKey, profile);
+            return;
+        }
+        String outputFilename = profile == null ? bs.getOutputFilename() : bs.getOutputFilename(profile);
+        bs.uploadCSVFile(bs.zipCSVFile(documents, outputFilename), outputFilename);
+        publishLatest(outputFilename, runKey, profile);
+    }
 
-        Stream.of(bs.findPbfPoiFile())
-                .map(bs::loadPbfPoiFile)
-                .map(inputStream -> bs.createPeliasDocumentForPointOfInterests(inputStream, poiFilters))
-                .map(bs::createCSVFile)
-                .findFirst()
-                .ifPresentOrElse(
-                        this::zipAndUploadCSVFile,
-                        () -> logger.info("No or empty pbf file found.")
-                );
+    /**
+     * The export of a filter profile has its own output filename, latest copy and run key, and no delta files,
+     * as those are made against the previous export of the run without profiles.
+     */
+    private void zipAndUploadCSVFile(InputStream inputStream, String runKey, FilterProfile profile) {
+        String outputFilename = profile == null ? bs.getOutputFilename() : bs.getOutputFilename(profile);
+        InputStream sortedInputStream = bs.sortCSVFile(inputStream);
+        File csvFile = bs.saveCSVFile(sortedInputStream, outputFilename);
+        bs.uploadCSVFile(bs.zipCSVFile(csvFile != null ? bs.openFile(csvFile) : sortedInputStream, outputFilename), outputFilename);
+        if (csvFile != null) {
+            try {
+                bs.uploadCSVParts(csvFile, outputFilename);
+                bs.uploadBulkFile(csvFile, outputFilename);
+                if (profile == null) {
+                    bs.uploadDeltaCSVFiles(csvFile, outputFilename);
+                }
+            } finally {
+                csvFile.delete();
+            }
+        }
+        publishLatest(outputFilename, runKey, profile);
     }
 
-    private void zipAndUploadCSVFile(InputStream inputStream) {
-        String outputFilename = bs.getOutputFilename();
-        InputStream csvZipFile = bs.zipCSVFile(inputStream, outputFilename);
-        bs.uploadCSVFile(csvZipFile, outputFilename);
-        bs.copyCSVFileAsLatestToConfiguredBucket(outputFilename);
+    private void publishLatest(String outputFilename, String runKey, FilterProfile profile) {
+        if (profile == null) {
+            bs.copyCSVFileAsLatestToConfiguredBucket(outputFilename);
+            runCache.storeRunKey(runKey, outputFilename);
+        } else {
+            bs.copyCSVFileAsLatestToConfiguredBucket(outputFilename, profile);
+            runCache.storeRunKey(runKey, outputFilename, profile);
+        }
+        checkpoints.deleteCheckpoints();
         logger.info("Uploaded zipped csv files to basmu and haya");
     }
 }
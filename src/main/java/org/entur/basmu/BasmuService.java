@@ -1,13 +1,36 @@
 package org.entur.basmu;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.entur.basmu.area.AreaOfInterest;
 import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.entur.basmu.blobStore.BlobDownloadService;
 import org.entur.basmu.blobStore.KakkaBlobStoreService;
+import org.entur.basmu.bulk.PeliasBulkWriter;
+import org.entur.basmu.cache.CandidateExtractService;
+import org.entur.basmu.cache.CheckpointService;
+import org.entur.basmu.cache.IncrementalStateService;
+import org.entur.basmu.csv.CsvMerger;
+import org.entur.basmu.csv.CsvPartitioner;
+import org.entur.basmu.csv.CsvPartsManifest;
+import org.entur.basmu.csv.CsvSorter;
+import org.entur.basmu.csv.PeliasCsvWriter;
+import org.entur.basmu.csv.SpatialOrder;
+import org.entur.basmu.delta.DeltaExportService;
+import org.entur.basmu.delta.ExportDelta;
+import org.entur.basmu.metrics.RunMetrics;
 import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.extract.CandidateExtractWriter;
+import org.entur.basmu.osm.incremental.*;
+import org.entur.basmu.osm.mapper.CandidateListener;
+import org.entur.basmu.osm.mapper.ParseCheckpoints;
 import org.entur.basmu.osm.mapper.ProtoBufferToPeliasDocument;
 import org.entur.basmu.osm.service.OSMPOIFilterService;
-import org.entur.geocoder.ZipUtilities;
+import org.entur.basmu.osm.service.OsmChangeService;
+import org.entur.basmu.profile.FilterProfile;
+import org.entur.basmu.shard.ShardService;
+import org.entur.basmu.zip.ParallelZipOutputStream;
 import org.entur.geocoder.blobStore.BlobStoreFiles;
-import org.entur.geocoder.csv.CSVCreator;
 import org.entur.geocoder.model.PeliasDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,15 +39,33 @@ import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
 @Service
 public class BasmuService {
@@ -37,20 +78,71 @@ public class BasmuService {
     @Value("${basmu.workdir:/tmp/basmu/geocoder}")
     private String basmuWorkDir;
 
+    @Value("${basmu.pbf.workers:2}")
+    private int pbfWorkers;
+
+    @Value("${basmu.csv.batchSize:10000}")
+    private int csvBatchSize;
+
+    @Value("${basmu.csv.order:parse}")
+    private String csvOrder;
+
+    @Value("${basmu.csv.sortChunkRecords:100000}")
+    private int csvSortChunkRecords;
+
+    @Value("${basmu.csv.parts:1}")
+    private int csvParts;
+
+    @Value("${basmu.bulk.enabled:false}")
+    private boolean bulkEnabled;
+
+    @Value("${basmu.bulk.index:pelias}")
+    private String bulkIndex;
+
+    @Value("${basmu.zip.threads:4}")
+    private int zipThreads;
+
+    @Value("${basmu.zip.chunkSizeKb:1024}")
+    private int zipChunkSizeKb;
+
     private final KakkaBlobStoreService kakkaBlobStoreService;
+    private final BlobDownloadService blobDownloadService;
     private final BasmuBlobStoreService basmuBlobStoreService;
     private final OSMPOIFilterService osmpoiFilterService;
+    private final OsmChangeService osmChangeService;
+    private final CandidateExtractService candidateExtractService;
+    private final IncrementalStateService incrementalStateService;
+    private final DeltaExportService deltaExportService;
+    private final CheckpointService checkpointService;
+    private final ShardService shardService;
+    private final RunMetrics runMetrics;
 
     private final ProtoBufferToPeliasDocument pbfMapper;
 
     public BasmuService(
             KakkaBlobStoreService kakkaBlobStoreService,
+            BlobDownloadService blobDownloadService,
             BasmuBlobStoreService basmuBlobStoreService,
             OSMPOIFilterService osmpoiFilterService,
+            OsmChangeService osmChangeService,
+            CandidateExtractService candidateExtractService,
+            IncrementalStateService incrementalStateService,
+            DeltaExportService deltaExportService,
+            CheckpointService checkpointService,
+            ShardService shardService,
+            RunMetrics runMetrics,
             ProtoBufferToPeliasDocument pbfMapper) {
         this.kakkaBlobStoreService = kakkaBlobStoreService;
+        this.blobDownloadService = blobDownloadService;
         this.basmuBlobStoreService = basmuBlobStoreService;
         this.osmpoiFilterService = osmpoiFilterService;
+        this.osmChangeService = osmChangeService;
+        this.candidateExtractService = candidateExtractService;
+        this.incrementalStateService = incrementalStateService;
+        this.deltaExportService = deltaExportService;
+        this.checkpointService = checkpointService;
+        this.shardService = shardService;
+        this.runMetrics = runMetrics;
         this.pbfMapper = pbfMapper;
     }
 
@@ -71,12 +163,16 @@ public class BasmuService {
             backoff = @Backoff(
                     delayExpression = "${basmu.retry.maxDelay:5000}",
                     multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
-    protected BlobStoreFiles.File findPbfPoiFile() {
-        logger.info("List pbf POI file");
-        return kakkaBlobStoreService.listBlobStoreFiles(osmFolder).getFiles().stream()
+    protected List<BlobStoreFiles.File> findPbfPoiFiles() {
+        logger.info("List pbf POI files");
+        List<BlobStoreFiles.File> files = kakkaBlobStoreService.listBlobStoreFiles(osmFolder).getFiles().stream()
                 .filter(file -> file.getName().endsWith(".pbf"))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("No PBF file found"));
+                .sorted(Comparator.comparing(BlobStoreFiles.File::getName))
+                .toList();
+        if (files.isEmpty()) {
+            throw new RuntimeException("No PBF file found");
+        }
+        return files;
     }
 
     @Retryable(
@@ -85,17 +181,35 @@ public class BasmuService {
             backoff = @Backoff(
                     delayExpression = "${basmu.retry.maxDelay:5000}",
                     multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
-    protected InputStream loadPbfPoiFile(BlobStoreFiles.File file) {
+    protected File loadPbfPoiFile(BlobStoreFiles.File file) {
         createWorkingDirectory();
         logger.info("Loading pbf POI file: " + file.getName());
         File targetFile = new File(basmuWorkDir + "/" + file.getFileNameOnly());
-        try (InputStream blob = kakkaBlobStoreService.getBlob(file.getName())) {
-            Files.copy(
-                    blob,
-                    targetFile.toPath(),
-                    StandardCopyOption.REPLACE_EXISTING);
-            return new FileInputStream(targetFile);
-        } catch (Exception ex) {
+        var phase = runMetrics.startPhase();
+        try {
+            return blobDownloadService.download(file.getName(), targetFile);
+        } finally {
+            runMetrics.endPhase(phase, "download");
+        }
+    }
+
+    /**
+     * Name and generation of the PBF file in the OSM bucket, which changes whenever the file is replaced.
+     */
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${basmu.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${basmu.retry.maxDelay:5000}",
+                    multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
+    protected String getPbfVersion(BlobStoreFiles.File file) {
+        return file.getName() + "@" + blobDownloadService.getVersion(file.getName()).generation();
+    }
+
+    protected InputStream openFile(File file) {
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException ex) {
             throw new RuntimeException(ex);
         }
     }
@@ -113,24 +227,507 @@ public class BasmuService {
         }
     }
 
-    protected Stream<PeliasDocument> createPeliasDocumentForPointOfInterests(InputStream inputStream,
-                                                                             List<PointOfInterestFilter> pointOfInterestFilters) {
+    protected void createPeliasDocumentForPointOfInterests(File pbfFile,
+                                                           List<PointOfInterestFilter> pointOfInterestFilters,
+                                                           Consumer<PeliasDocument> documents) {
         logger.info("Converting to pelias documents");
-        return pbfMapper.transform(inputStream, pointOfInterestFilters);
+        pbfMapper.transform(pbfFile, pointOfInterestFilters, documents);
+    }
+
+    protected boolean isIncrementalEnabled() {
+        return incrementalStateService.isEnabled();
+    }
+
+    /**
+     * Apply the pending OSM change files to the incremental state of the previous run, if enabled.
+     * Empty if there is no state for the settings and the version of the PBF file, no pending change files,
+     * or the changes refer to nodes or ways that are not in the state, in which case the PBF file must be
+     * converted. The updated state is only stored by {@link #storeIncrementalState(IncrementalState)}, once
+     * the export is uploaded, so that a failed run applies the change files again.
+     */
+    protected Optional<ChangeRun> createPeliasDocumentForChanges(String settingsKey,
+                                                                 String pbfVersion,
+                                                                 List<PointOfInterestFilter> pointOfInterestFilters) {
+        if (!incrementalStateService.isEnabled()) {
+            return Optional.empty();
+        }
+        createWorkingDirectory();
+        Optional<IncrementalState> state = incrementalStateService.findState(settingsKey, pbfVersion);
+        if (state.isEmpty()) {
+            logger.info("No incremental state found, converting the PBF file");
+            return Optional.empty();
+        }
+
+        List<BlobStoreFiles.File> pendingChangeFiles = osmChangeService.findOsmChangeFiles().stream()
+                .filter(file -> !state.get().getAppliedChanges().contains(file.getName()))
+                .toList();
+        if (pendingChangeFiles.isEmpty()) {
+            logger.info("No pending OSM change files");
+            return Optional.empty();
+        }
+
+        var phase = runMetrics.startPhase();
+        OsmChange change = osmChangeService.loadOsmChanges(pendingChangeFiles);
+        boolean applied = new IncrementalUpdater(pointOfInterestFilters).apply(state.get(), change);
+        runMetrics.endPhase(phase, "changes");
+        runMetrics.count(RunMetrics.ENTITIES_COUNTER, change.size(), "type", "change", "outcome", "seen");
+        if (!applied) {
+            logger.info("OSM changes can not be applied to the incremental state, converting the PBF file");
+            return Optional.empty();
+        }
+        pendingChangeFiles.forEach(file -> state.get().getAppliedChanges().add(file.getName()));
+
+        logger.info("Converting incremental state to pelias documents");
+        String lastChange = pendingChangeFiles.get(pendingChangeFiles.size() - 1).getName();
+        return Optional.of(new ChangeRun(
+                documents -> pbfMapper.transformIncrementalState(state.get(), pointOfInterestFilters, documents),
+                settingsKey + ":" + lastChange,
+                state.get()));
+    }
+
+    protected void storeIncrementalState(IncrementalState state) {
+        incrementalStateService.storeState(state);
+    }
+
+    /**
+     * Convert the PBF file, or its candidate extract if one exists, to pelias documents passed to the sink.
+     * A new candidate extract is written while converting the PBF file, if enabled, and the
+     * incremental state is built, if enabled. The state is assumed to include the change files
+     * that are already in the changes folder. Otherwise the passes over the PBF file are checkpointed,
+     * if enabled, resuming from the checkpoints of an earlier attempt with the same checkpoint key.
+     * <p>
+     * Sharded runs always convert the PBF file, as extracts and state are for all entities.
+     */
+    protected void createPeliasDocumentForPointOfInterests(File pbfFile,
+                                                           String pbfKey,
+                                                           String pbfVersion,
+                                                           String settingsKey,
+                                                           String checkpointKey,
+                                                           List<PointOfInterestFilter> pointOfInterestFilters,
+                                                           Consumer<PeliasDocument> documents) {
+        String candidateExtractKey = getCandidateExtractKey(pbfKey);
+        if (!incrementalStateService.isEnabled() && !shardService.isSharded()) {
+            var candidateExtract = candidateExtractService.findCandidateExtract(candidateExtractKey);
+            if (candidateExtract.isPresent()) {
+                logger.info("Converting candidate extract to pelias documents");
+                pbfMapper.transformCandidateExtract(candidateExtract.get(), pointOfInterestFilters, documents);
+                return;
+            }
+        }
+
+        boolean collectCandidates = !shardService.isSharded()
+                && (candidateExtractService.isEnabled() || incrementalStateService.isEnabled());
+        if (!collectCandidates) {
+            if (checkpointService.isEnabled()) {
+                logger.info("Converting to pelias documents, checkpointing the passes");
+                pbfMapper.transform(pbfFile, pointOfInterestFilters, checkpointService.getParseCheckpoints(checkpointKey), documents);
+            } else {
+                createPeliasDocumentForPointOfInterests(pbfFile, pointOfInterestFilters, documents);
+            }
+            return;
+        }
+
+        List<CandidateListener> candidateListeners = new ArrayList<>();
+        IncrementalStateBuilder incrementalStateBuilder = null;
+        if (incrementalStateService.isEnabled()) {
+            incrementalStateBuilder = new IncrementalStateBuilder(settingsKey, pbfVersion, pointOfInterestFilters);
+            candidateListeners.add(incrementalStateBuilder);
+        }
+
+        CandidateExtractWriter candidateExtractWriter = null;
+        try {
+            if (candidateExtractService.isEnabled()) {
+                candidateExtractWriter = new CandidateExtractWriter(candidateExtractService.getCandidateExtractFile(candidateExtractKey));
+                candidateListeners.add(candidateExtractWriter);
+            }
+
+            logger.info("Converting to pelias documents, collecting candidates");
+            pbfMapper.transform(pbfFile, pointOfInterestFilters, candidateListeners, documents);
+
+            if (candidateExtractWriter != null) {
+                candidateExtractWriter.complete();
+                logger.info("Wrote {} candidates to the candidate extract", candidateExtractWriter.getCount());
+                candidateExtractService.storeCandidateExtract(candidateExtractKey);
+            }
+            if (incrementalStateBuilder != null) {
+                IncrementalState state = incrementalStateBuilder.getState();
+                osmChangeService.findOsmChangeFiles().forEach(file -> state.getAppliedChanges().add(file.getName()));
+                incrementalStateService.storeState(state);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (candidateExtractWriter != null) {
+                try {
+                    candidateExtractWriter.close();
+                } catch (IOException ex) {
+                    logger.warn("Failed to close candidate extract", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * The kept candidate extract of the PBF file, if any, so that the filter profiles can be applied to it
+     * without downloading the file.
+     */
+    protected Optional<File> findCandidateExtract(String pbfKey) {
+        return candidateExtractService.findCandidateExtract(getCandidateExtractKey(pbfKey));
+    }
+
+    /**
+     * Write the candidate extract of the PBF file, so that the filter profiles can be applied to it one after the
+     * other. The parse does not map any documents itself.
+     */
+    protected File createCandidateExtract(File pbfFile, String pbfKey) {
+        String candidateExtractKey = getCandidateExtractKey(pbfKey);
+        File candidateExtractFile = candidateExtractService.getCandidateExtractFile(candidateExtractKey);
+        try (var candidateExtractWriter = new CandidateExtractWriter(candidateExtractFile)) {
+            logger.info("Writing the candidate extract of {} for the filter profiles", pbfFile.getName());
+            pbfMapper.transform(pbfFile, List.of(), List.of(candidateExtractWriter), document -> {
+            });
+            candidateExtractWriter.complete();
+            logger.info("Wrote {} candidates to the candidate extract", candidateExtractWriter.getCount());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the candidate extract of " + pbfFile, ex);
+        }
+        if (candidateExtractService.isEnabled()) {
+            candidateExtractService.storeCandidateExtract(candidateExtractKey);
+        }
+        return candidateExtractFile;
+    }
+
+    /**
+     * Delete the candidate extract after the filter profiles are exported, unless extracts are kept.
+     */
+    protected void releaseCandidateExtract(File candidateExtract) {
+        if (!candidateExtractService.isEnabled()) {
+            candidateExtract.delete();
+        }
+    }
+
+    protected void createPeliasDocumentsForProfile(File candidateExtract,
+                                                   FilterProfile profile,
+                                                   List<PointOfInterestFilter> pointOfInterestFilters,
+                                                   Consumer<PeliasDocument> documents) {
+        logger.info("Converting the candidate extract to pelias documents for profile {}", profile.name());
+        pbfMapper.transformCandidateExtract(candidateExtract, profile.select(pointOfInterestFilters),
+                profile.poiBoost(), profile.poiFilter(), documents);
+    }
+
+    /**
+     * Extracts only have the candidates inside the area of interest, so they are kept per area.
+     */
+    private String getCandidateExtractKey(String pbfKey) {
+        AreaOfInterest areaOfInterest = pbfMapper.getAreaOfInterest();
+        if (areaOfInterest.isEverywhere()) {
+            return pbfKey;
+        }
+        return pbfKey + "-" + UUID.nameUUIDFromBytes(areaOfInterest.toString().getBytes(StandardCharsets.UTF_8));
     }
 
-    protected InputStream createCSVFile(Stream<PeliasDocument> peliasDocuments) {
-        logger.info("Creating CSV file form PeliasDocuments stream");
-        return CSVCreator.create(peliasDocuments);
+    /**
+     * Convert the PBF files, at most basmu.pbf.workers at the same time, and merge their CSV files in the order
+     * of the files. Records with a key already converted from an earlier file, e.g. in the overlap of two
+     * regional extracts, are dropped. The passes over each file are checkpointed, if enabled.
+     * <p>
+     * Each worker writes the CSV file of its PBF file before it converts the next one, so that only the documents
+     * of the files being converted are kept in memory. The merged file is deleted when the returned stream is closed.
+     */
+    protected InputStream createCSVFile(List<File> pbfFiles,
+                                        String checkpointKey,
+                                        List<PointOfInterestFilter> pointOfInterestFilters) {
+        int workers = Math.max(1, Math.min(pbfWorkers, pbfFiles.size()));
+        logger.info("Converting {} PBF files to pelias documents with {} workers", pbfFiles.size(), workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<InputStream>> csvFiles = new ArrayList<>();
+            for (File pbfFile : pbfFiles) {
+                ParseCheckpoints checkpoints = checkpointService.isEnabled()
+                        ? checkpointService.getParseCheckpoints(checkpointKey, pbfFile.getName())
+                        : null;
+                csvFiles.add(executor.submit(() -> {
+                    logger.info("Converting {} to pelias documents", pbfFile.getName());
+                    return createCSVFile(documents -> pbfMapper.transform(pbfFile, pointOfInterestFilters, checkpoints, workers, documents));
+                }));
+            }
+
+            Path mergedFile = Files.createTempFile(Paths.get(basmuWorkDir), "merged", ".csv");
+            mergedFile.toFile().deleteOnExit();
+            try (var merger = new CsvMerger(mergedFile.toFile())) {
+                for (int i = 0; i < pbfFiles.size(); i++) {
+                    merger.add(pbfFiles.get(i).getName(), csvFiles.get(i).get());
+                }
+                logger.info("Merged {} records from {} PBF files, dropped {} duplicates",
+                        merger.getRecords(), pbfFiles.size(), merger.getDuplicates());
+            }
+            return Files.newInputStream(mergedFile, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Write the documents passed to the writer to a CSV file in the work directory, in batches of
+     * basmu.csv.batchSize documents, while they are being mapped. The file is deleted when the returned stream
+     * is closed.
+     */
+    protected InputStream createCSVFile(Consumer<PeliasCsvWriter> documents) {
+        logger.info("Creating CSV file from pelias documents");
+        var phase = runMetrics.startPhase();
+        try {
+            createWorkingDirectory();
+            Path csvFile = Files.createTempFile(Paths.get(basmuWorkDir), "documents", ".csv");
+            csvFile.toFile().deleteOnExit();
+            try (var out = new BufferedOutputStream(Files.newOutputStream(csvFile), 1 << 16)) {
+                var writer = new PeliasCsvWriter(out, csvBatchSize);
+                documents.accept(writer);
+                logger.info("Wrote {} documents to {}", writer.finish(), csvFile);
+            }
+            return Files.newInputStream(csvFile, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to create the CSV file", ex);
+        } finally {
+            runMetrics.endPhase(phase, "csv");
+        }
+    }
+
+    /**
+     * Whether the export can be zipped while the CSV records are written, as it is not sorted and no delta, parts
+     * or bulk file are to be created from it.
+     */
+    protected boolean isZippedWhileWritten() {
+        return SpatialOrder.of(csvOrder) == SpatialOrder.PARSE && !deltaExportService.isEnabled() && csvParts <= 1
+                && !bulkEnabled;
+    }
+
+    /**
+     * Sort the records of the CSV file along the space-filling curve of basmu.csv.order over their center points,
+     * so that neighbouring places are close in the export, which compresses better and gives Elasticsearch
+     * segments with nearby documents. Returns the stream as is for the default parse order.
+     */
+    protected InputStream sortCSVFile(InputStream inputStream) {
+        SpatialOrder order = SpatialOrder.of(csvOrder);
+        if (order == SpatialOrder.PARSE) {
+            return inputStream;
+        }
+        logger.info("Sorting the CSV file in {} order", order);
+        var phase = runMetrics.startPhase();
+        try {
+            createWorkingDirectory();
+            Path sortedFile = Files.createTempFile(Paths.get(basmuWorkDir), "sorted", ".csv");
+            sortedFile.toFile().deleteOnExit();
+            try (var out = new BufferedOutputStream(Files.newOutputStream(sortedFile), 1 << 16)) {
+                long records = new CsvSorter(order, csvSortChunkRecords, Paths.get(basmuWorkDir)).sort(inputStream, out);
+                logger.info("Sorted {} records", records);
+            }
+            return Files.newInputStream(sortedFile, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to sort the CSV file", ex);
+        } finally {
+            runMetrics.endPhase(phase, "sort");
+        }
+    }
+
+    /**
+     * Save the CSV file in the work directory if a delta, parts or bulk file are to be created from it, null if
+     * they are all disabled.
+     */
+    protected File saveCSVFile(InputStream inputStream, String filename) {
+        if (!deltaExportService.isEnabled() && csvParts <= 1 && !bulkEnabled) {
+            return null;
+        }
+        return deltaExportService.saveCSVFile(inputStream, filename);
+    }
+
+    /**
+     * Upload the records of the CSV file as Elasticsearch {@code _bulk} NDJSON for the basmu.bulk.index index,
+     * zipped as {@code <filename>_bulk.zip}, if enabled, so that they can be loaded with parallel bulk requests.
+     */
+    protected void uploadBulkFile(File csvFile, String filename) {
+        if (!bulkEnabled) {
+            return;
+        }
+        logger.info("Converting the CSV file to bulk NDJSON");
+        var phase = runMetrics.startPhase();
+        String bulkFilename = filename + "_bulk";
+        Path zipFile = Paths.get(basmuWorkDir, bulkFilename + ".zip");
+        try {
+            try (var zip = new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile)),
+                    filename + ".ndjson", zipThreads, zipChunkSizeKb * 1024, Deflater.DEFAULT_COMPRESSION)) {
+                long documents = new PeliasBulkWriter(bulkIndex).write(openFile(csvFile), zip);
+                logger.info("Converted {} documents to bulk NDJSON", documents);
+            }
+            uploadCSVFile(zipFile, bulkFilename);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to convert " + csvFile + " to bulk NDJSON", ex);
+        } finally {
+            zipFile.toFile().delete();
+            runMetrics.endPhase(phase, "bulk");
+        }
+    }
+
+    /**
+     * Upload the CSV file split into basmu.csv.parts parts by a hash of the record key, as
+     * {@code <filename>_part-<i>-of-<n>.zip}, and a manifest {@code <filename>_parts.json} listing the parts and
+     * their number of records, so that the parts can be imported concurrently. The parts are zipped in parallel,
+     * one thread per part. Nothing is uploaded if basmu.csv.parts is 1.
+     */
+    protected void uploadCSVParts(File csvFile, String filename) {
+        if (csvParts <= 1) {
+            return;
+        }
+        logger.info("Splitting the CSV file into {} parts", csvParts);
+        var phase = runMetrics.startPhase();
+        List<String> partFilenames = IntStream.range(0, csvParts)
+                .mapToObj(part -> filename + "_part-" + part + "-of-" + csvParts)
+                .toList();
+        List<Path> zipFiles = partFilenames.stream()
+                .map(partFilename -> Paths.get(basmuWorkDir, partFilename + ".zip"))
+                .toList();
+        try {
+            List<CsvPartsManifest.Part> parts = new ArrayList<>();
+            try (var partitioner = new CsvPartitioner(openPartZipFiles(zipFiles, partFilenames))) {
+                partitioner.add(openFile(csvFile));
+                for (int part = 0; part < csvParts; part++) {
+                    parts.add(new CsvPartsManifest.Part(partFilenames.get(part) + ".zip", partitioner.getRecords(part)));
+                }
+            }
+            for (int part = 0; part < csvParts; part++) {
+                uploadCSVFile(zipFiles.get(part), partFilenames.get(part));
+            }
+            byte[] manifest = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                    .writeValueAsBytes(new CsvPartsManifest(filename + ".zip", parts));
+            basmuBlobStoreService.uploadBlob(filename + "_parts.json", new ByteArrayInputStream(manifest));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to split " + csvFile + " into parts", ex);
+        } finally {
+            zipFiles.forEach(zipFile -> zipFile.toFile().delete());
+            runMetrics.endPhase(phase, "parts");
+        }
+    }
+
+    private List<OutputStream> openPartZipFiles(List<Path> zipFiles, List<String> partFilenames) throws IOException {
+        List<OutputStream> zips = new ArrayList<>();
+        try {
+            for (int part = 0; part < zipFiles.size(); part++) {
+                zips.add(new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFiles.get(part))),
+                        partFilenames.get(part) + ".csv", 1, zipChunkSizeKb * 1024, Deflater.DEFAULT_COMPRESSION));
+            }
+            return zips;
+        } catch (IOException | RuntimeException ex) {
+            for (OutputStream zip : zips) {
+                try {
+                    zip.close();
+                } catch (IOException closeEx) {
+                    ex.addSuppressed(closeEx);
+                }
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Upload the records added, changed and removed since the previous export, as {@code <filename>_added.zip},
+     * {@code <filename>_changed.zip} and {@code <filename>_removed.zip}, and store the manifest of the export.
+     * Only the manifest is stored if there is no previous export.
+     */
+    protected void uploadDeltaCSVFiles(File csvFile, String filename) {
+        if (!deltaExportService.isEnabled()) {
+            return;
+        }
+        var previousManifest = deltaExportService.loadManifest();
+        ExportDelta delta = deltaExportService.createDelta(csvFile, previousManifest.orElse(Map.of()), filename);
+        try {
+            if (previousManifest.isPresent()) {
+                for (File deltaFile : List.of(delta.added(), delta.changed(), delta.removed())) {
+                    String deltaFilename = deltaFile.getName().replaceFirst("\\.csv$", "");
+                    uploadCSVFile(zipCSVFile(openFile(deltaFile), deltaFilename), deltaFilename);
+                }
+            } else {
+                logger.info("No previous export to create a delta from, storing the manifest only");
+            }
+            deltaExportService.storeManifest(delta.manifest());
+        } finally {
+            List.of(delta.added(), delta.changed(), delta.removed()).forEach(File::delete);
+        }
     }
 
     protected String getOutputFilename() {
         return "basmu_export_geocoder_" + System.currentTimeMillis();
     }
 
-    protected InputStream zipCSVFile(InputStream inputStream, String filename) {
+    protected String getOutputFilename(FilterProfile profile) {
+        return "basmu_export_geocoder_" + profile.name() + "_" + System.currentTimeMillis();
+    }
+
+    /**
+     * Zip the CSV file into the work directory, deflating chunks on basmu.zip.threads threads while the CSV
+     * file is read. The zip file is deleted when it is uploaded.
+     */
+    protected Path zipCSVFile(InputStream inputStream, String filename) {
         logger.info("Zipping the created csv file");
-        return ZipUtilities.zipFile(inputStream, filename + ".csv");
+        var phase = runMetrics.startPhase();
+        Path zipFile = Paths.get(basmuWorkDir, filename + ".zip");
+        try (inputStream) {
+            createWorkingDirectory();
+            try (var zip = new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile)),
+                    filename + ".csv", zipThreads, zipChunkSizeKb * 1024, Deflater.DEFAULT_COMPRESSION)) {
+                inputStream.transferTo(zip);
+            }
+            zipFile.toFile().deleteOnExit();
+            return zipFile;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to zip " + filename, ex);
+        } finally {
+            runMetrics.endPhase(phase, "zip");
+        }
+    }
+
+    /**
+     * Zip the documents passed to the writer into the work directory while they are being mapped, without writing
+     * the CSV file, deflating chunks on basmu.zip.threads threads. The zip file is deleted when it is uploaded.
+     */
+    protected Path zipCSVFile(Consumer<PeliasCsvWriter> documents, String filename) {
+        logger.info("Zipping the CSV records while they are written");
+        var phase = runMetrics.startPhase();
+        Path zipFile = Paths.get(basmuWorkDir, filename + ".zip");
+        try {
+            createWorkingDirectory();
+            zipFile.toFile().deleteOnExit();
+            try (var zip = new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile)),
+                    filename + ".csv", zipThreads, zipChunkSizeKb * 1024, Deflater.DEFAULT_COMPRESSION)) {
+                var writer = new PeliasCsvWriter(zip, csvBatchSize);
+                documents.accept(writer);
+                logger.info("Wrote {} documents to {}", writer.finish(), zipFile);
+            }
+            return zipFile;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to zip " + filename, ex);
+        } finally {
+            runMetrics.endPhase(phase, "csv");
+        }
+    }
+
+    /**
+     * Upload the zip file as {@code <filename>.zip}, retried by the blob store service, and delete it.
+     */
+    protected void uploadCSVFile(Path zipFile, String filename) {
+        logger.info("Uploading the CSV file");
+        var phase = runMetrics.startPhase();
+        try {
+            basmuBlobStoreService.uploadFile(filename + ".zip", zipFile);
+        } finally {
+            zipFile.toFile().delete();
+            runMetrics.endPhase(phase, "upload");
+        }
     }
 
     @Retryable(
@@ -139,19 +736,29 @@ public class BasmuService {
             backoff = @Backoff(
                     delayExpression = "${basmu.retry.maxDelay:5000}",
                     multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
-    protected void uploadCSVFile(InputStream inputStream, String filename) {
-        logger.info("Uploading the CSV file");
-        basmuBlobStoreService.uploadBlob(filename + ".zip", inputStream);
+    protected void copyCSVFileAsLatestToConfiguredBucket(String filename) {
+        logger.info("Coping latest file to haya");
+        basmuBlobStoreService.copyBlobAsLatestToTargetBucket(filename + ".zip");
     }
 
+    /**
+     * Copy the export of the profile as the latest of the profile, {@code <latest filename>_<profile>.zip}.
+     */
     @Retryable(
             value = Exception.class,
             maxAttemptsExpression = "${basmu.retry.maxAttempts:3}",
             backoff = @Backoff(
                     delayExpression = "${basmu.retry.maxDelay:5000}",
                     multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
-    protected void copyCSVFileAsLatestToConfiguredBucket(String filename) {
-        logger.info("Coping latest file to haya");
-        basmuBlobStoreService.copyBlobAsLatestToTargetBucket(filename + ".zip");
+    protected void copyCSVFileAsLatestToConfiguredBucket(String filename, FilterProfile profile) {
+        logger.info("Coping latest file of profile {} to haya", profile.name());
+        basmuBlobStoreService.copyBlobAsLatestToTargetBucket(filename + ".zip", profile.name());
+    }
+
+    /**
+     * Pelias documents of the incremental state after applying change files, mapped when they are written to
+     * the CSV writer, the run key of the output, and the updated state to store once the output is uploaded.
+     */
+    protected record ChangeRun(Consumer<PeliasCsvWriter> peliasDocuments, String runKey, IncrementalState state) {
     }
 }
@@ -0,0 +1,45 @@
+package org.entur.basmu.area;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ObjectUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+@Configuration
+public class AreaConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(AreaConfiguration.class);
+
+    /**
+     * The area of interest, a bounding box or the polygons of a GeoJSON file, everywhere if neither is set.
+     */
+    @Bean
+    public AreaOfInterest areaOfInterest(@Value("${basmu.area.bbox:}") String bbox,
+                                         @Value("${basmu.area.geojson:}") String geoJsonFile,
+                                         @Value("${basmu.area.marginMeters:10000}") double marginMeters) {
+        if (!ObjectUtils.isEmpty(bbox) && !ObjectUtils.isEmpty(geoJsonFile)) {
+            throw new IllegalArgumentException("Only one of basmu.area.bbox and basmu.area.geojson can be set");
+        }
+        if (!ObjectUtils.isEmpty(bbox)) {
+            logger.info("Exporting POIs within the bounding box {}", bbox);
+            return AreaOfInterest.ofBoundingBox(bbox, marginMeters);
+        }
+        if (!ObjectUtils.isEmpty(geoJsonFile)) {
+            logger.info("Exporting POIs within the area of {}", geoJsonFile);
+            try {
+                return AreaOfInterest.ofGeoJson(Files.readString(Paths.get(geoJsonFile), StandardCharsets.UTF_8), marginMeters);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to read the area of interest " + geoJsonFile, ex);
+            }
+        }
+        return AreaOfInterest.EVERYWHERE;
+    }
+}
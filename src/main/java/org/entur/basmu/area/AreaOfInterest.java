@@ -0,0 +1,118 @@
+package org.entur.basmu.area;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.wololo.geojson.Feature;
+import org.wololo.geojson.FeatureCollection;
+import org.wololo.geojson.GeoJSON;
+import org.wololo.geojson.GeoJSONFactory;
+import org.wololo.jts2geojson.GeoJSONReader;
+
+import java.util.Arrays;
+
+/**
+ * The area POIs are exported for, everywhere by default. Nodes are kept within a margin around the envelope
+ * of the area, so that ways and relations with their point inside the area, but some of their nodes outside
+ * it, are still resolved.
+ */
+public final class AreaOfInterest {
+
+    public static final AreaOfInterest EVERYWHERE = new AreaOfInterest(null, 0);
+
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private final Geometry area;
+    private final double marginMeters;
+    private final PreparedGeometry preparedArea;
+    private final Envelope envelope;
+    private final Envelope nodeEnvelope;
+
+    private AreaOfInterest(Geometry area, double marginMeters) {
+        this.area = area;
+        this.marginMeters = marginMeters;
+        if (area == null) {
+            this.preparedArea = null;
+            this.envelope = null;
+            this.nodeEnvelope = null;
+            return;
+        }
+        this.preparedArea = PreparedGeometryFactory.prepare(area);
+        this.envelope = area.getEnvelopeInternal();
+        double maxLat = Math.min(89, Math.max(Math.abs(envelope.getMinY()), Math.abs(envelope.getMaxY())));
+        this.nodeEnvelope = new Envelope(envelope);
+        this.nodeEnvelope.expandBy(marginMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLat))),
+                marginMeters / METERS_PER_DEGREE);
+    }
+
+    /**
+     * @param bbox minLon,minLat,maxLon,maxLat
+     */
+    public static AreaOfInterest ofBoundingBox(String bbox, double marginMeters) {
+        double[] values = Arrays.stream(bbox.split(","))
+                .map(String::trim)
+                .mapToDouble(Double::parseDouble)
+                .toArray();
+        if (values.length != 4 || values[0] >= values[2] || values[1] >= values[3]) {
+            throw new IllegalArgumentException("Invalid bounding box, expected minLon,minLat,maxLon,maxLat: " + bbox);
+        }
+        var geometryFactory = new GeometryFactory();
+        return new AreaOfInterest(geometryFactory.toGeometry(new Envelope(values[0], values[2], values[1], values[3])), marginMeters);
+    }
+
+    /**
+     * @param json a GeoJSON polygon or multipolygon, or a feature or feature collection of them
+     */
+    public static AreaOfInterest ofGeoJson(String json, double marginMeters) {
+        GeoJSON geoJson = GeoJSONFactory.create(json);
+        var reader = new GeoJSONReader();
+        Geometry area;
+        if (geoJson instanceof FeatureCollection featureCollection) {
+            area = new GeometryFactory().buildGeometry(Arrays.stream(featureCollection.getFeatures())
+                    .map(feature -> reader.read(feature.getGeometry()))
+                    .toList()).union();
+        } else if (geoJson instanceof Feature feature) {
+            area = reader.read(feature.getGeometry());
+        } else {
+            area = reader.read(geoJson);
+        }
+        if (!(area instanceof Polygonal) || area.isEmpty()) {
+            throw new IllegalArgumentException("The area of interest must be a polygon or multipolygon, was " + area.getGeometryType());
+        }
+        return new AreaOfInterest(area, marginMeters);
+    }
+
+    public boolean isEverywhere() {
+        return area == null;
+    }
+
+    public boolean contains(double lat, double lon) {
+        return area == null
+                || envelope.covers(lon, lat) && preparedArea.covers(geometryFactory.createPoint(new Coordinate(lon, lat)));
+    }
+
+    /**
+     * Whether the node is within the margin around the area, and may be needed for the geometry of a way
+     * or relation in the area.
+     */
+    public boolean keepsNode(double lat, double lon) {
+        return area == null || nodeEnvelope.covers(lon, lat);
+    }
+
+    /**
+     * Whether any node with coordinates within the extent may be kept.
+     */
+    public boolean keepsNodesWithin(Envelope extent) {
+        return area == null || nodeEnvelope.intersects(extent);
+    }
+
+    @Override
+    public String toString() {
+        return area == null ? "everywhere" : area.toText() + " margin " + marginMeters + "m";
+    }
+}
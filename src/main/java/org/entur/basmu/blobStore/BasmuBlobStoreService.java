@@ -4,8 +4,16 @@ import org.entur.geocoder.blobStore.BlobStoreRepository;
 import org.entur.geocoder.blobStore.BlobStoreService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 @Service
 public class BasmuBlobStoreService extends BlobStoreService {
 
@@ -24,7 +32,31 @@ public class BasmuBlobStoreService extends BlobStoreService {
         super(bucketName, repository);
     }
 
+    /**
+     * Upload the file as the blob, opening the file again for each attempt.
+     */
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${basmu.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${basmu.retry.maxDelay:5000}",
+                    multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
+    public void uploadFile(String name, Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            uploadBlob(name, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to upload " + file, e);
+        }
+    }
+
     public void copyBlobAsLatestToTargetBucket(String sourceName) {
         super.copyBlob(sourceName, targetBucketName, targetFolder + "/" + targetFilename + ".zip");
     }
+
+    /**
+     * Copy the blob as the latest of the profile, beside the latest of the run without profiles.
+     */
+    public void copyBlobAsLatestToTargetBucket(String sourceName, String profileName) {
+        super.copyBlob(sourceName, targetBucketName, targetFolder + "/" + targetFilename + "_" + profileName + ".zip");
+    }
 }
\ No newline at end of file
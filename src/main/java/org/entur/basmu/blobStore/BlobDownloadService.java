@@ -0,0 +1,193 @@
+package org.entur.basmu.blobStore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the blobs of the OSM bucket in chunks of basmu.download.chunkSizeMb, fetched in parallel.
+ * <p>
+ * The chunks are written to target.part, and the completed chunks are listed in target.part.chunks,
+ * so that a retry only fetches the missing chunks of the same version of the blob. The version of a
+ * completed download is kept in target.version, and the file is reused as long as the version of the
+ * blob is unchanged, e.g. when the work directory survives between runs.
+ */
+@Service
+public class BlobDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobDownloadService.class);
+
+    private final RangedBlobReader reader;
+    private final int workers;
+    private final long chunkSize;
+
+    public BlobDownloadService(RangedBlobReader reader,
+                               @Value("${basmu.download.workers:4}") int workers,
+                               @Value("${basmu.download.chunkSizeMb:64}") int chunkSizeMb) {
+        this.reader = reader;
+        this.workers = workers;
+        this.chunkSize = chunkSizeMb * 1024L * 1024L;
+    }
+
+    /**
+     * The version of the blob, without downloading it.
+     */
+    public BlobVersion getVersion(String name) {
+        return reader.getVersion(name);
+    }
+
+    /**
+     * Download the blob to the target file, unless it already has the version of the blob.
+     */
+    public File download(String name, File target) {
+        BlobVersion version = reader.getVersion(name);
+        File versionFile = new File(target.getPath() + ".version");
+        if (target.exists() && readVersion(versionFile).filter(version::equals).isPresent()) {
+            logger.info("{} is unchanged since the last download, generation {}", name, version.generation());
+            return target;
+        }
+
+        try {
+            Files.deleteIfExists(versionFile.toPath());
+            File partFile = new File(target.getPath() + ".part");
+            downloadChunks(name, version, partFile, new File(partFile.getPath() + ".chunks"));
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.writeString(versionFile.toPath(), format(version));
+            return target;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void downloadChunks(String name, BlobVersion version, File partFile, File chunksFile) throws IOException {
+        int chunks = (int) ((version.size() + chunkSize - 1) / chunkSize);
+        Set<Integer> completed = readCompletedChunks(chunksFile, version);
+        if (completed.isEmpty() || !partFile.exists()) {
+            completed.clear();
+            Files.deleteIfExists(partFile.toPath());
+            Files.writeString(chunksFile.toPath(), format(version) + "\n");
+        }
+
+        List<Integer> pending = new ArrayList<>();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (!completed.contains(chunk)) {
+                pending.add(chunk);
+            }
+        }
+        logger.info("Downloading {} bytes of {} in {} chunks, {} chunks already downloaded",
+                version.size(), name, pending.size(), completed.size());
+
+        try (FileChannel channel = FileChannel.open(partFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, pending.size())));
+            try {
+                List<Future<?>> downloads = new ArrayList<>();
+                for (int chunk : pending) {
+                    downloads.add(executor.submit(() -> {
+                        downloadChunk(name, version, chunk, channel);
+                        markCompleted(chunksFile, chunk);
+                        return null;
+                    }));
+                }
+                for (Future<?> download : downloads) {
+                    download.get();
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException ioe) {
+                    throw ioe;
+                }
+                throw ex.getCause() instanceof RuntimeException re ? re : new RuntimeException(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } finally {
+                executor.shutdownNow();
+            }
+            channel.truncate(version.size());
+        }
+        Files.delete(chunksFile.toPath());
+    }
+
+    private void downloadChunk(String name, BlobVersion version, int chunk, FileChannel channel) throws IOException {
+        long offset = chunk * chunkSize;
+        long length = Math.min(chunkSize, version.size() - offset);
+        long position = offset;
+        try (InputStream range = reader.getRange(name, version, offset, length)) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = range.read(buffer)) != -1) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+            }
+        }
+        if (position != offset + length) {
+            throw new IOException("Chunk " + chunk + " of " + name + " ended after " + (position - offset)
+                    + " of " + length + " bytes");
+        }
+        channel.force(false);
+    }
+
+    private synchronized void markCompleted(File chunksFile, int chunk) throws IOException {
+        Files.writeString(chunksFile.toPath(), chunk + "\n", StandardOpenOption.APPEND);
+    }
+
+    /**
+     * The chunks completed by an earlier attempt to download the same version of the blob.
+     */
+    private static Set<Integer> readCompletedChunks(File chunksFile, BlobVersion version) throws IOException {
+        Set<Integer> completed = new HashSet<>();
+        if (!chunksFile.exists()) {
+            return completed;
+        }
+        // A line without a line break was cut short by a failure while the chunk was marked
+        String content = Files.readString(chunksFile.toPath(), StandardCharsets.UTF_8);
+        List<String> lines = List.of(content.substring(0, content.lastIndexOf('\n') + 1).split("\n"));
+        if (!lines.get(0).equals(format(version))) {
+            return completed;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            completed.add(Integer.parseInt(line));
+        }
+        return completed;
+    }
+
+    private static Optional<BlobVersion> readVersion(File versionFile) {
+        try {
+            if (!versionFile.exists()) {
+                return Optional.empty();
+            }
+            String[] fields = Files.readString(versionFile.toPath()).trim().split(" ");
+            return Optional.of(new BlobVersion(Long.parseLong(fields[0]), fields[1]));
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Ignoring unreadable download version {}", versionFile, ex);
+            return Optional.empty();
+        }
+    }
+
+    private static String format(BlobVersion version) {
+        return version.size() + " " + version.generation();
+    }
+}
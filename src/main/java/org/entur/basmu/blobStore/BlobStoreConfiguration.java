@@ -24,6 +24,20 @@ public class BlobStoreConfiguration {
         return new GcsBlobStoreRepository(storage);
     }
 
+    @Bean
+    @Profile("gcs-blobstore")
+    public RangedBlobReader getGcsKakkaRangedBlobReader(
+            Storage storage,
+            @Value("${blobstore.gcs.kakka.bucket.name:kakka-dev}") String bucketName) {
+        return new GcsRangedBlobReader(storage, bucketName);
+    }
+
+    @Bean
+    @Profile("!gcs-blobstore")
+    public RangedBlobReader getStreamingKakkaRangedBlobReader(KakkaBlobStoreService kakkaBlobStoreService) {
+        return new StreamingRangedBlobReader(kakkaBlobStoreService);
+    }
+
     @Bean
     @Scope("prototype")
     @Profile("local-disk-blobstore")
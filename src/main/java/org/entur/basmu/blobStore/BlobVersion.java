@@ -0,0 +1,7 @@
+package org.entur.basmu.blobStore;
+
+/**
+ * Size and generation of a blob, the generation changes whenever the content of the blob is replaced.
+ */
+public record BlobVersion(long size, String generation) {
+}
@@ -0,0 +1,47 @@
+package org.entur.basmu.blobStore;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+
+/**
+ * Reads byte ranges of a generation of the blobs in a GCS bucket.
+ */
+public class GcsRangedBlobReader implements RangedBlobReader {
+
+    private final Storage storage;
+    private final String bucketName;
+
+    public GcsRangedBlobReader(Storage storage, String bucketName) {
+        this.storage = storage;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public BlobVersion getVersion(String name) {
+        Blob blob = storage.get(BlobId.of(bucketName, name));
+        if (blob == null) {
+            throw new RuntimeException("Blob " + name + " not found in " + bucketName);
+        }
+        return new BlobVersion(blob.getSize(), String.valueOf(blob.getGeneration()));
+    }
+
+    @Override
+    public InputStream getRange(String name, BlobVersion version, long offset, long length) {
+        ReadChannel channel = storage.reader(BlobId.of(bucketName, name, Long.parseLong(version.generation())));
+        try {
+            channel.seek(offset);
+            channel.limit(offset + length);
+            return Channels.newInputStream(channel);
+        } catch (IOException ex) {
+            channel.close();
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.entur.basmu.blobStore;
+
+import java.io.InputStream;
+
+/**
+ * Reads byte ranges of the blobs in a bucket, for downloading a blob in parallel and resuming
+ * a partial download.
+ */
+public interface RangedBlobReader {
+
+    BlobVersion getVersion(String name);
+
+    /**
+     * The bytes from offset to offset + length of the blob, failing if the blob no longer has the version.
+     */
+    InputStream getRange(String name, BlobVersion version, long offset, long length);
+}
@@ -0,0 +1,68 @@
+package org.entur.basmu.blobStore;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.entur.geocoder.blobStore.BlobStoreService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Reads byte ranges by skipping to the offset of a stream of the whole blob, for the local disk and
+ * in-memory blob stores. The generation is the SHA-256 checksum of the blob, as these stores do not
+ * keep one, and the version of the blob is not checked when reading a range.
+ */
+public class StreamingRangedBlobReader implements RangedBlobReader {
+
+    private final BlobStoreService blobStoreService;
+
+    public StreamingRangedBlobReader(BlobStoreService blobStoreService) {
+        this.blobStoreService = blobStoreService;
+    }
+
+    @Override
+    public BlobVersion getVersion(String name) {
+        try (InputStream blob = getBlob(name)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1 << 16];
+            long size = 0;
+            int read;
+            while ((read = blob.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+            return new BlobVersion(size, HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String name, BlobVersion version, long offset, long length) {
+        InputStream blob = getBlob(name);
+        try {
+            blob.skipNBytes(offset);
+            return new BoundedInputStream(blob, length);
+        } catch (IOException ex) {
+            try {
+                blob.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private InputStream getBlob(String name) {
+        InputStream blob = blobStoreService.getBlob(name);
+        if (blob == null) {
+            throw new RuntimeException("Blob " + name + " not found");
+        }
+        return blob;
+    }
+}
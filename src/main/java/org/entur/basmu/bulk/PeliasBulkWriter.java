@@ -0,0 +1,189 @@
+package org.entur.basmu.bulk;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.entur.basmu.csv.CsvRecordReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Converts the records of a Pelias CSV file to Elasticsearch {@code _bulk} NDJSON, an index action line followed
+ * by the document line for each record, with the documents as the Pelias CSV importer would have indexed them.
+ * <p>
+ * The columns are read by the names the CSV importer uses: id (or source_id), source, layer, name, name_json,
+ * lat, lon, popularity, category, category_json, addendum_json_&lt;namespace&gt; and parent_json. Other columns
+ * are ignored.
+ */
+public class PeliasBulkWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeliasBulkWriter.class);
+
+    private static final String ADDENDUM_PREFIX = "addendum_json_";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String index;
+
+    public PeliasBulkWriter(String index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the number of documents written
+     */
+    public long write(InputStream csv, OutputStream out) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        try (var reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 1 << 16)) {
+            var records = new CsvRecordReader(reader);
+            var header = records.read();
+            if (header == null) {
+                return 0;
+            }
+            logIgnoredColumns(header.fields());
+
+            long documents = 0;
+            CsvRecordReader.CsvRecord record;
+            while ((record = records.read()) != null) {
+                if (record.raw().isEmpty()) {
+                    continue;
+                }
+                ObjectNode document = toDocument(header.fields(), record.fields());
+                writer.write(objectMapper.writeValueAsString(toAction(document)));
+                writer.write('\n');
+                writer.write(objectMapper.writeValueAsString(document));
+                writer.write('\n');
+                documents++;
+            }
+            return documents;
+        } finally {
+            writer.flush();
+        }
+    }
+
+    private ObjectNode toAction(ObjectNode document) {
+        ObjectNode action = objectMapper.createObjectNode();
+        action.putObject("index")
+                .put("_index", index)
+                .put("_id", document.path("source").asText() + ":" + document.path("layer").asText()
+                        + ":" + document.path("source_id").asText());
+        return action;
+    }
+
+    private ObjectNode toDocument(List<String> columns, List<String> values) throws IOException {
+        ObjectNode document = objectMapper.createObjectNode();
+        ObjectNode name = objectMapper.createObjectNode();
+        ObjectNode centerPoint = objectMapper.createObjectNode();
+        ArrayNode category = objectMapper.createArrayNode();
+        ObjectNode addendum = objectMapper.createObjectNode();
+        ObjectNode parent = objectMapper.createObjectNode();
+        document.put("source", "csv");
+        document.put("layer", "venue");
+
+        for (int i = 0; i < columns.size() && i < values.size(); i++) {
+            String column = columns.get(i);
+            String value = values.get(i);
+            if (value.isEmpty()) {
+                continue;
+            }
+            switch (column) {
+                case "id" -> {
+                    if (!document.has("source_id")) {
+                        document.put("source_id", value);
+                    }
+                }
+                case "source_id" -> document.put("source_id", value);
+                case "source", "layer" -> document.put(column, value);
+                case "name" -> addName(name, "default", value);
+                case "name_json" -> addNames(name, objectMapper.readTree(value));
+                case "lat" -> centerPoint.put("lat", Double.parseDouble(value));
+                case "lon" -> centerPoint.put("lon", Double.parseDouble(value));
+                case "popularity" -> document.put("popularity", Long.parseLong(value));
+                case "category" -> category.add(value);
+                case "category_json" -> objectMapper.readTree(value).forEach(category::add);
+                case "parent_json" -> addParents(parent, objectMapper.readTree(value));
+                default -> {
+                    if (column.startsWith(ADDENDUM_PREFIX)) {
+                        // Pelias keeps each addendum namespace as a JSON encoded string
+                        addendum.put(column.substring(ADDENDUM_PREFIX.length()), value);
+                    }
+                }
+            }
+        }
+
+        document.set("name", name);
+        document.set("phrase", name.deepCopy());
+        if (!centerPoint.isEmpty()) {
+            document.set("center_point", centerPoint);
+        }
+        if (!category.isEmpty()) {
+            document.set("category", category);
+        }
+        if (!addendum.isEmpty()) {
+            document.set("addendum", addendum);
+        }
+        if (!parent.isEmpty()) {
+            document.set("parent", parent);
+        }
+        return document;
+    }
+
+    /**
+     * Names are either aliases of the default name, as a JSON array, or names by language, as a JSON object.
+     */
+    private static void addNames(ObjectNode name, JsonNode names) {
+        if (names.isArray()) {
+            names.forEach(alias -> addName(name, "default", alias.asText()));
+        } else {
+            names.fields().forEachRemaining(entry -> {
+                if (entry.getValue().isArray()) {
+                    entry.getValue().forEach(alias -> addName(name, entry.getKey(), alias.asText()));
+                } else {
+                    addName(name, entry.getKey(), entry.getValue().asText());
+                }
+            });
+        }
+    }
+
+    private static void addName(ObjectNode name, String language, String value) {
+        JsonNode existing = name.get(language);
+        if (existing == null) {
+            name.put(language, value);
+        } else if (existing.isArray()) {
+            ((ArrayNode) existing).add(value);
+        } else if (!existing.asText().equals(value)) {
+            name.putArray(language).add(existing.asText()).add(value);
+        }
+    }
+
+    /**
+     * Parents by placetype, each a list of objects with id, name and abbr, as the fields Pelias indexes.
+     */
+    private static void addParents(ObjectNode parent, JsonNode parents) {
+        parents.fields().forEachRemaining(entry -> entry.getValue().forEach(place -> {
+            String placetype = entry.getKey();
+            parent.withArray(placetype).add(place.path("name").asText());
+            parent.withArray(placetype + "_id").add(place.path("id").asText());
+            if (place.hasNonNull("abbr")) {
+                parent.withArray(placetype + "_a").add(place.path("abbr").asText());
+            }
+        }));
+    }
+
+    private static void logIgnoredColumns(List<String> columns) {
+        Set<String> known = new HashSet<>(List.of("id", "source_id", "source", "layer", "name", "name_json", "lat", "lon",
+                "popularity", "category", "category_json", "parent_json"));
+        List<String> ignored = columns.stream()
+                .filter(column -> !known.contains(column) && !column.startsWith(ADDENDUM_PREFIX))
+                .toList();
+        if (!ignored.isEmpty()) {
+            logger.info("Columns not converted to the bulk documents: {}", ignored);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.entur.basmu.cache;
+
+import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Keeps the candidate extracts of PBF files, keyed by the name and generation of the PBF file, in the work directory
+ * and optionally in the basmu bucket. A run with changed filters on an unchanged PBF file applies the
+ * filters to the extract instead of parsing the PBF file.
+ */
+@Service
+public class CandidateExtractService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateExtractService.class);
+
+    private static final String CANDIDATES_FOLDER = "candidates";
+
+    @Value("${basmu.candidateExtract.enabled:false}")
+    private boolean enabled;
+
+    @Value("${basmu.candidateExtract.blobStore:false}")
+    private boolean useBlobStore;
+
+    @Value("${basmu.workdir:/tmp/basmu/geocoder}")
+    private String basmuWorkDir;
+
+    private final BasmuBlobStoreService basmuBlobStoreService;
+
+    public CandidateExtractService(BasmuBlobStoreService basmuBlobStoreService) {
+        this.basmuBlobStoreService = basmuBlobStoreService;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The extract of the PBF file with the given key, from the work directory or the basmu bucket.
+     */
+    public Optional<File> findCandidateExtract(String pbfKey) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        File extract = getCandidateExtractFile(pbfKey);
+        if (extract.exists()) {
+            logger.info("Found candidate extract {}", extract);
+            return Optional.of(extract);
+        }
+
+        if (useBlobStore) {
+            try (InputStream blob = basmuBlobStoreService.getBlob(getBlobName(pbfKey))) {
+                if (blob != null) {
+                    Files.copy(blob, extract.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    logger.info("Downloaded candidate extract {}", getBlobName(pbfKey));
+                    return Optional.of(extract);
+                }
+            } catch (Exception e) {
+                logger.info("No candidate extract found for " + pbfKey + ": " + e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Local file for the extract of the PBF file with the given key.
+     */
+    public File getCandidateExtractFile(String pbfKey) {
+        File folder = new File(basmuWorkDir, CANDIDATES_FOLDER);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new RuntimeException("Failed to create candidate extract folder " + folder);
+        }
+        return new File(folder, pbfKey + ".bin.gz");
+    }
+
+    public void storeCandidateExtract(String pbfKey) {
+        if (!useBlobStore) {
+            return;
+        }
+        try (InputStream extract = new FileInputStream(getCandidateExtractFile(pbfKey))) {
+            basmuBlobStoreService.uploadBlob(getBlobName(pbfKey), extract);
+            logger.info("Uploaded candidate extract {}", getBlobName(pbfKey));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to upload candidate extract", e);
+        }
+    }
+
+    private static String getBlobName(String pbfKey) {
+        return CANDIDATES_FOLDER + "/" + pbfKey + ".bin.gz";
+    }
+}
@@ -0,0 +1,114 @@
+package org.entur.basmu.cache;
+
+import org.entur.basmu.osm.mapper.ParseCheckpoints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Keeps the outputs of the phases of a run in the work directory, keyed by the run key, so that a run
+ * restarted after a failure, e.g. by the restart policy of the job, resumes after the last completed phase
+ * instead of converting the PBF file again. Checkpoints of other run keys are deleted, and the checkpoints
+ * of a run are deleted when it completes.
+ */
+@Service
+public class CheckpointService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointService.class);
+
+    private static final String CHECKPOINTS_FOLDER = "checkpoints";
+    private static final String CSV_FILENAME = "output.csv";
+
+    @Value("${basmu.checkpoint.enabled:false}")
+    private boolean enabled;
+
+    @Value("${basmu.workdir:/tmp/basmu/geocoder}")
+    private String basmuWorkDir;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Checkpoints of the passes over the PBF file.
+     */
+    public ParseCheckpoints getParseCheckpoints(String runKey) {
+        return ParseCheckpoints.in(getCheckpointFolder(runKey));
+    }
+
+    /**
+     * Checkpoints of the passes over one of the PBF files of the run.
+     */
+    public ParseCheckpoints getParseCheckpoints(String runKey, String pbfFilename) {
+        return ParseCheckpoints.in(new File(getCheckpointFolder(runKey), pbfFilename));
+    }
+
+    /**
+     * The finished CSV file of an earlier attempt of the run, if it failed after creating it.
+     */
+    public Optional<File> findCSVFile(String runKey) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        File csvFile = new File(getCheckpointFolder(runKey), CSV_FILENAME);
+        if (csvFile.exists()) {
+            logger.info("Found CSV checkpoint {}", csvFile);
+            return Optional.of(csvFile);
+        }
+        return Optional.empty();
+    }
+
+    public File saveCSVFile(String runKey, InputStream csv) {
+        File csvFile = new File(getCheckpointFolder(runKey), CSV_FILENAME);
+        File partFile = new File(csvFile.getPath() + ".part");
+        try (csv) {
+            Files.copy(csv, partFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(partFile.toPath(), csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return csvFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save " + csvFile, e);
+        }
+    }
+
+    public void deleteCheckpoints() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            FileSystemUtils.deleteRecursively(new File(basmuWorkDir, CHECKPOINTS_FOLDER).toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete checkpoints", e);
+        }
+    }
+
+    /**
+     * Folder for the checkpoints of the run key, deleting the checkpoints of other run keys.
+     */
+    private File getCheckpointFolder(String runKey) {
+        File checkpoints = new File(basmuWorkDir, CHECKPOINTS_FOLDER);
+        File folder = new File(checkpoints, runKey);
+        try {
+            File[] others = checkpoints.listFiles(file -> !file.equals(folder));
+            if (others != null) {
+                for (File other : others) {
+                    logger.info("Deleting checkpoints of another input {}", other.getName());
+                    FileSystemUtils.deleteRecursively(other.toPath());
+                }
+            }
+            Files.createDirectories(folder.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create checkpoint folder " + folder, e);
+        }
+        return folder;
+    }
+}
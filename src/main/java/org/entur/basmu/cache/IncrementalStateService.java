@@ -0,0 +1,117 @@
+package org.entur.basmu.cache;
+
+import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.entur.basmu.osm.incremental.IncrementalState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Keeps the incremental state of the latest run in the work directory and optionally in the basmu bucket,
+ * so that the next run can apply the OSM change files to it instead of converting the PBF file.
+ */
+@Service
+public class IncrementalStateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalStateService.class);
+
+    private static final String STATE_BLOB_NAME = "incremental/state.bin.gz";
+
+    @Value("${basmu.incremental.enabled:false}")
+    private boolean enabled;
+
+    @Value("${basmu.incremental.blobStore:true}")
+    private boolean useBlobStore;
+
+    @Value("${basmu.workdir:/tmp/basmu/geocoder}")
+    private String basmuWorkDir;
+
+    private final BasmuBlobStoreService basmuBlobStoreService;
+
+    public IncrementalStateService(BasmuBlobStoreService basmuBlobStoreService) {
+        this.basmuBlobStoreService = basmuBlobStoreService;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The state of the latest run, if it was built with the same settings from the same version of the PBF file.
+     */
+    public Optional<IncrementalState> findState(String settingsKey, String pbfVersion) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        File stateFile = getStateFile();
+        if (useBlobStore) {
+            try (InputStream blob = basmuBlobStoreService.getBlob(STATE_BLOB_NAME)) {
+                if (blob != null) {
+                    Files.copy(blob, stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    logger.info("Downloaded incremental state {}", STATE_BLOB_NAME);
+                }
+            } catch (Exception e) {
+                logger.info("No incremental state found in the blob store: " + e.getMessage());
+            }
+        }
+        if (!stateFile.exists()) {
+            return Optional.empty();
+        }
+
+        try {
+            IncrementalState state = IncrementalState.read(stateFile);
+            if (!settingsKey.equals(state.getSettingsKey())) {
+                logger.info("Filters or settings changed since the incremental state was built");
+                return Optional.empty();
+            }
+            if (!pbfVersion.equals(state.getPbfVersion())) {
+                logger.info("PBF file changed since the incremental state was built from {}", state.getPbfVersion());
+                return Optional.empty();
+            }
+            return Optional.of(state);
+        } catch (IOException e) {
+            logger.warn("Failed to read incremental state " + stateFile, e);
+            return Optional.empty();
+        }
+    }
+
+    public void storeState(IncrementalState state) {
+        if (!enabled) {
+            return;
+        }
+        File stateFile = getStateFile();
+        try {
+            state.prune();
+            state.write(stateFile);
+            logger.info("Stored incremental state with {} nodes, {} ways and {} relations",
+                    state.getNodes().size(), state.getWays().size(), state.getRelations().size());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write incremental state", e);
+        }
+        if (useBlobStore) {
+            try (InputStream in = new FileInputStream(stateFile)) {
+                basmuBlobStoreService.uploadBlob(STATE_BLOB_NAME, in);
+                logger.info("Uploaded incremental state {}", STATE_BLOB_NAME);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to upload incremental state", e);
+            }
+        }
+    }
+
+    private File getStateFile() {
+        File folder = new File(basmuWorkDir, "incremental");
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new RuntimeException("Failed to create incremental state folder " + folder);
+        }
+        return new File(folder, "state.bin.gz");
+    }
+}
@@ -0,0 +1,225 @@
+package org.entur.basmu.cache;
+
+import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.domain.Tag;
+import org.entur.basmu.osm.mapper.ProtoBufferToPeliasDocument;
+import org.entur.basmu.profile.FilterProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Remembers the input of the last export, so that a run with the same PBF file, POI filters, output settings and
+ * pelias.poi.* settings can reuse the output of the previous run instead of converting the file again.
+ * <p>
+ * The PBF files are identified by the name and generation of their blobs, so that an unchanged run is found before
+ * the files are downloaded. The run key is stored beside the output in the basmu bucket.
+ */
+@Service
+public class RunCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RunCacheService.class);
+
+    private static final String RUN_CACHE_FILENAME = "basmu_run_cache.properties";
+    private static final String RUN_KEY = "runKey";
+    private static final String OUTPUT_FILENAME = "outputFilename";
+
+    /**
+     * Bump when the output for the same input changes, to invalidate the keys of earlier runs.
+     */
+    private static final int RUN_KEY_VERSION = 1;
+
+    private static final Comparator<PointOfInterestFilter> FILTER_ORDER =
+            Comparator.comparing(PointOfInterestFilter::key)
+                    .thenComparing(PointOfInterestFilter::id, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static final Comparator<Tag> TAG_ORDER = Comparator.comparing(Tag::name).thenComparing(Tag::priority);
+
+    @Value("${basmu.runCache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${basmu.csv.order:parse}")
+    private String csvOrder;
+
+    @Value("${basmu.csv.parts:1}")
+    private int csvParts;
+
+    @Value("${basmu.bulk.enabled:false}")
+    private boolean bulkEnabled;
+
+    @Value("${basmu.bulk.index:pelias}")
+    private String bulkIndex;
+
+    @Value("${basmu.delta.enabled:false}")
+    private boolean deltaEnabled;
+
+    private final BasmuBlobStoreService basmuBlobStoreService;
+    private final ProtoBufferToPeliasDocument pbfMapper;
+
+    public RunCacheService(BasmuBlobStoreService basmuBlobStoreService, ProtoBufferToPeliasDocument pbfMapper) {
+        this.basmuBlobStoreService = basmuBlobStoreService;
+        this.pbfMapper = pbfMapper;
+    }
+
+    /**
+     * Key of the versions of the PBF files, as name and generation of their blobs, hex encoded.
+     */
+    public String createPbfKey(List<String> pbfVersions) {
+        MessageDigest digest = sha256();
+        for (String pbfVersion : pbfVersions) {
+            digest.update((pbfVersion + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Key of the PBF files, the POI filters, the pelias.poi.* settings and the settings of the files uploaded
+     * beside the export.
+     */
+    public String createRunKey(String pbfKey, List<PointOfInterestFilter> pointOfInterestFilters) {
+        MessageDigest digest = sha256();
+        digest.update(("version=" + RUN_KEY_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("pbf=" + pbfKey + "\n").getBytes(StandardCharsets.UTF_8));
+        updateSettings(digest, pointOfInterestFilters);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Key of the POI filters, the pelias.poi.* settings and the settings of the files uploaded beside the export only.
+     */
+    public String createSettingsKey(List<PointOfInterestFilter> pointOfInterestFilters) {
+        MessageDigest digest = sha256();
+        digest.update(("version=" + RUN_KEY_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        updateSettings(digest, pointOfInterestFilters);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Key of the PBF file, the filters selected by the profile and its settings.
+     */
+    public String createRunKey(String pbfKey, List<PointOfInterestFilter> pointOfInterestFilters, FilterProfile profile) {
+        MessageDigest digest = sha256();
+        digest.update(("version=" + RUN_KEY_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("pbf=" + pbfKey + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("profile=" + profile.name() + "\n").getBytes(StandardCharsets.UTF_8));
+        updateSettings(digest, profile.select(pointOfInterestFilters), profile.poiBoost(), profile.poiFilter());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void updateSettings(MessageDigest digest, List<PointOfInterestFilter> pointOfInterestFilters) {
+        updateSettings(digest, pointOfInterestFilters, pbfMapper.getPoiBoost(), pbfMapper.getPoiFilter());
+    }
+
+    private void updateSettings(MessageDigest digest,
+                                List<PointOfInterestFilter> pointOfInterestFilters,
+                                long poiBoost,
+                                List<String> poiFilter) {
+        digest.update(("filters=" + sorted(pointOfInterestFilters) + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("pelias.poi.boost=" + poiBoost + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("pelias.poi.filter=" + poiFilter + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("pelias.poi.singleDocumentPerPlace=" + pbfMapper.isSingleDocumentPerPlace() + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("pelias.poi.dedupDistanceMeters=" + pbfMapper.getDedupDistanceMeters() + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("basmu.area=" + pbfMapper.getAreaOfInterest() + "\n").getBytes(StandardCharsets.UTF_8));
+        // An unchanged run only copies the previous export, so turning on parts, bulk or delta files must not match it
+        digest.update(("basmu.csv.order=" + csvOrder + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("basmu.csv.parts=" + csvParts + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("basmu.bulk.enabled=" + bulkEnabled + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("basmu.bulk.index=" + bulkIndex + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(("basmu.delta.enabled=" + deltaEnabled + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The filters sorted by key and id, with their tags sorted by name, so that the key does not depend on the order
+     * the filter service returns them in.
+     */
+    private static List<PointOfInterestFilter> sorted(List<PointOfInterestFilter> pointOfInterestFilters) {
+        return pointOfInterestFilters.stream()
+                .map(filter -> new PointOfInterestFilter(filter.id(), filter.key(),
+                        filter.tags() == null ? null : filter.tags().stream().sorted(TAG_ORDER).toList()))
+                .sorted(FILTER_ORDER)
+                .toList();
+    }
+
+    /**
+     * Name of the output of the previous run, if it was created with the same run key.
+     */
+    public Optional<String> findOutputFilename(String runKey) {
+        return findOutputFilename(runKey, RUN_CACHE_FILENAME);
+    }
+
+    /**
+     * Name of the output of the previous run of the profile, if it was created with the same run key.
+     */
+    public Optional<String> findOutputFilename(String runKey, FilterProfile profile) {
+        return findOutputFilename(runKey, getRunCacheFilename(profile));
+    }
+
+    private Optional<String> findOutputFilename(String runKey, String runCacheFilename) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        try (InputStream blob = basmuBlobStoreService.getBlob(runCacheFilename)) {
+            if (blob == null) {
+                return Optional.empty();
+            }
+            Properties runCache = new Properties();
+            runCache.load(blob);
+            if (runKey.equals(runCache.getProperty(RUN_KEY))) {
+                return Optional.ofNullable(runCache.getProperty(OUTPUT_FILENAME));
+            }
+            logger.info("Run key changed since the previous run, was {}", runCache.getProperty(RUN_KEY));
+        } catch (Exception e) {
+            logger.info("No previous run key found: " + e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    public void storeRunKey(String runKey, String outputFilename) {
+        storeRunKey(runKey, outputFilename, RUN_CACHE_FILENAME);
+    }
+
+    public void storeRunKey(String runKey, String outputFilename, FilterProfile profile) {
+        storeRunKey(runKey, outputFilename, getRunCacheFilename(profile));
+    }
+
+    private void storeRunKey(String runKey, String outputFilename, String runCacheFilename) {
+        if (!enabled) {
+            return;
+        }
+        Properties runCache = new Properties();
+        runCache.setProperty(RUN_KEY, runKey);
+        runCache.setProperty(OUTPUT_FILENAME, outputFilename);
+        try {
+            var out = new ByteArrayOutputStream();
+            runCache.store(out, "Input of the latest basmu export");
+            basmuBlobStoreService.uploadBlob(runCacheFilename, new ByteArrayInputStream(out.toByteArray()));
+            logger.info("Stored run key {} for {}", runKey, outputFilename);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String getRunCacheFilename(FilterProfile profile) {
+        return "basmu_run_cache_" + profile.name() + ".properties";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
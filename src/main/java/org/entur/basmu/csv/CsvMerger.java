@@ -0,0 +1,72 @@
+package org.entur.basmu.csv;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Merges CSV files with the same header into one, keeping the first record of each {@link CsvRecordKey key}.
+ */
+public class CsvMerger implements Closeable {
+
+    private final Writer writer;
+    private final Set<String> keys = new HashSet<>();
+    private String header;
+    private int[] keyColumns;
+    private long duplicates;
+
+    public CsvMerger(File target) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Append the records of the CSV file with keys not seen in the files added before.
+     */
+    public void add(String name, InputStream csv) throws IOException {
+        try (var reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 1 << 16)) {
+            var records = new CsvRecordReader(reader);
+            var fileHeader = records.read();
+            if (fileHeader == null) {
+                return;
+            }
+            if (header == null) {
+                header = fileHeader.raw();
+                keyColumns = CsvRecordKey.keyColumns(fileHeader.fields());
+                writeLine(header);
+            } else if (!header.equals(fileHeader.raw())) {
+                throw new IllegalStateException("CSV header of " + name + " differs from the first file");
+            }
+
+            CsvRecordReader.CsvRecord record;
+            while ((record = records.read()) != null) {
+                if (record.raw().isEmpty()) {
+                    continue;
+                }
+                if (keys.add(CsvRecordKey.key(record, keyColumns))) {
+                    writeLine(record.raw());
+                } else {
+                    duplicates++;
+                }
+            }
+        }
+    }
+
+    public long getRecords() {
+        return keys.size();
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
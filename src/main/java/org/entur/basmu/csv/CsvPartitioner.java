@@ -0,0 +1,78 @@
+package org.entur.basmu.csv;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a CSV file into parts by a hash of the {@link CsvRecordKey key} of each record, each part starting
+ * with the header of the file. The same key always goes to the same part.
+ */
+public class CsvPartitioner implements Closeable {
+
+    private final List<Writer> writers = new ArrayList<>();
+    private final long[] records;
+
+    public CsvPartitioner(List<OutputStream> parts) {
+        for (OutputStream part : parts) {
+            writers.add(new BufferedWriter(new OutputStreamWriter(part, StandardCharsets.UTF_8), 1 << 16));
+        }
+        this.records = new long[parts.size()];
+    }
+
+    public void add(InputStream csv) throws IOException {
+        try (var reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 1 << 16)) {
+            var records = new CsvRecordReader(reader);
+            var header = records.read();
+            if (header == null) {
+                return;
+            }
+            int[] keyColumns = CsvRecordKey.keyColumns(header.fields());
+            for (Writer writer : writers) {
+                writeLine(writer, header.raw());
+            }
+
+            CsvRecordReader.CsvRecord record;
+            while ((record = records.read()) != null) {
+                if (record.raw().isEmpty()) {
+                    continue;
+                }
+                int part = Math.floorMod(CsvRecordKey.key(record, keyColumns).hashCode(), writers.size());
+                writeLine(writers.get(part), record.raw());
+                this.records[part]++;
+            }
+        }
+    }
+
+    /**
+     * The number of records written to the part.
+     */
+    public long getRecords(int part) {
+        return records[part];
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Writer writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,12 @@
+package org.entur.basmu.csv;
+
+import java.util.List;
+
+/**
+ * The parts an export is split into, with the number of records in each part.
+ */
+public record CsvPartsManifest(String export, List<Part> parts) {
+
+    public record Part(String name, long records) {
+    }
+}
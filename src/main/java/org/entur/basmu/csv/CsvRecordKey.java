@@ -0,0 +1,54 @@
+package org.entur.basmu.csv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * The key of a record of the CSV export is made of its id, source and layer columns, or its first column
+ * if the header has no id column.
+ */
+public final class CsvRecordKey {
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvRecordKey.class);
+
+    private static final List<String> KEY_COLUMNS = List.of("id", "source", "layer");
+
+    private CsvRecordKey() {
+    }
+
+    public static int[] keyColumns(List<String> header) {
+        if (!header.contains("id")) {
+            logger.warn("No id column in the CSV header {}, using the first column as key", header);
+            return new int[]{0};
+        }
+        return KEY_COLUMNS.stream()
+                .mapToInt(header::indexOf)
+                .filter(index -> index >= 0)
+                .toArray();
+    }
+
+    /**
+     * The key columns of the record as a CSV line, so that keys can be written as is.
+     */
+    public static String key(CsvRecordReader.CsvRecord record, int[] keyColumns) {
+        StringJoiner key = new StringJoiner(",");
+        for (int keyColumn : keyColumns) {
+            String value = keyColumn < record.fields().size() ? record.fields().get(keyColumn) : "";
+            key.add(needsQuotes(value) ? "\"" + value.replace("\"", "\"\"") + "\"" : value);
+        }
+        return key.toString();
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == ',' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+package org.entur.basmu.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of a CSV file, keeping the raw text of each record so that it can be copied unchanged.
+ * Quoted fields may contain separators, quotes ("") and line breaks.
+ */
+public class CsvRecordReader {
+
+    public record CsvRecord(String raw, List<String> fields) {
+    }
+
+    private final Reader reader;
+    private int next;
+
+    public CsvRecordReader(Reader reader) throws IOException {
+        this.reader = reader;
+        this.next = reader.read();
+    }
+
+    /**
+     * The next record without its line break, or null at the end of the file.
+     */
+    public CsvRecord read() throws IOException {
+        if (next == -1) {
+            return null;
+        }
+        var raw = new StringBuilder();
+        var field = new StringBuilder();
+        List<String> fields = new ArrayList<>();
+        boolean quoted = false;
+
+        while (next != -1) {
+            char c = (char) next;
+            next = reader.read();
+            if (quoted) {
+                if (c == '"' && next == '"') {
+                    raw.append(c);
+                    field.append(c);
+                    c = (char) next;
+                    next = reader.read();
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && next == '\n') {
+                    next = reader.read();
+                }
+                break;
+            } else {
+                field.append(c);
+            }
+            raw.append(c);
+        }
+        fields.add(field.toString());
+        return new CsvRecord(raw.toString(), fields);
+    }
+}
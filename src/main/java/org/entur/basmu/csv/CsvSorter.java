@@ -0,0 +1,173 @@
+package org.entur.basmu.csv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the records of a CSV file by the {@link SpatialOrder} key of their lat and lon columns, keeping the
+ * order of records with the same key. At most chunkRecords records are sorted in memory, larger files are
+ * sorted in runs written to the work directory and merged.
+ */
+public class CsvSorter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvSorter.class);
+
+    private record Entry(long key, String raw) {
+    }
+
+    private final SpatialOrder order;
+    private final int chunkRecords;
+    private final Path workDir;
+
+    public CsvSorter(SpatialOrder order, int chunkRecords, Path workDir) {
+        this.order = order;
+        this.chunkRecords = Math.max(1, chunkRecords);
+        this.workDir = workDir;
+    }
+
+    /**
+     * @return the number of records written
+     */
+    public long sort(InputStream csv, OutputStream out) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        List<Path> runs = new ArrayList<>();
+        try (var reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 1 << 16)) {
+            var records = new CsvRecordReader(reader);
+            var header = records.read();
+            if (header == null) {
+                return 0;
+            }
+            int lat = header.fields().indexOf("lat");
+            int lon = header.fields().indexOf("lon");
+            if (lat < 0 || lon < 0) {
+                throw new IllegalStateException("No lat and lon columns in the CSV header " + header.fields());
+            }
+            writeLine(writer, header.raw());
+
+            long count = 0;
+            List<Entry> chunk = new ArrayList<>();
+            CsvRecordReader.CsvRecord record;
+            while ((record = records.read()) != null) {
+                if (record.raw().isEmpty()) {
+                    continue;
+                }
+                chunk.add(new Entry(key(record, lat, lon), record.raw()));
+                count++;
+                if (chunk.size() == chunkRecords) {
+                    runs.add(writeRun(chunk));
+                    chunk.clear();
+                }
+            }
+
+            if (runs.isEmpty()) {
+                chunk.sort(Comparator.comparingLong(Entry::key));
+                for (Entry entry : chunk) {
+                    writeLine(writer, entry.raw());
+                }
+            } else {
+                if (!chunk.isEmpty()) {
+                    runs.add(writeRun(chunk));
+                }
+                logger.info("Merging {} sorted runs of at most {} records", runs.size(), chunkRecords);
+                merge(runs, writer);
+            }
+            return count;
+        } finally {
+            writer.flush();
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private long key(CsvRecordReader.CsvRecord record, int lat, int lon) {
+        try {
+            return order.key(Double.parseDouble(record.fields().get(lat)), Double.parseDouble(record.fields().get(lon)));
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            // Records without a center point go last
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private Path writeRun(List<Entry> chunk) throws IOException {
+        chunk.sort(Comparator.comparingLong(Entry::key));
+        Path run = Files.createTempFile(workDir, "sort", ".run");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (Entry entry : chunk) {
+                byte[] raw = entry.raw().getBytes(StandardCharsets.UTF_8);
+                out.writeLong(entry.key());
+                out.writeInt(raw.length);
+                out.write(raw);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merge the runs by key, taking records with the same key from the earlier run first, as they were read first.
+     */
+    private static void merge(List<Path> runs, Writer writer) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            var heads = new PriorityQueue<RunReader>(Comparator.<RunReader>comparingLong(r -> r.head.key())
+                    .thenComparingInt(r -> r.index));
+            for (Path run : runs) {
+                var reader = new RunReader(readers.size(), run);
+                readers.add(reader);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunReader reader = heads.poll();
+                writeLine(writer, reader.head.raw());
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    private static final class RunReader {
+        private final int index;
+        private final DataInputStream in;
+        private Entry head;
+
+        private RunReader(int index, Path run) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        private boolean next() throws IOException {
+            long key;
+            try {
+                key = in.readLong();
+            } catch (EOFException ex) {
+                head = null;
+                return false;
+            }
+            byte[] raw = new byte[in.readInt()];
+            in.readFully(raw);
+            head = new Entry(key, new String(raw, StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+}
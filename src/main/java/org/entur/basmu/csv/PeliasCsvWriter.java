@@ -0,0 +1,96 @@
+package org.entur.basmu.csv;
+
+import org.entur.geocoder.csv.CSVCreator;
+import org.entur.geocoder.model.PeliasDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes pelias documents as CSV in batches serialized by {@link CSVCreator}, so that only the documents and
+ * CSV bytes of one batch are kept in memory, and the output is the same as that of CSVCreator for all documents.
+ * The header of each batch after the first is dropped, and must be the same as that of the first batch.
+ * <p>
+ * Documents are written as they are accepted, e.g. from the content handler as they are mapped, and the last
+ * batch by {@link #finish()}.
+ */
+public final class PeliasCsvWriter implements Consumer<PeliasDocument> {
+
+    private final OutputStream out;
+    private final int batchSize;
+    private final List<PeliasDocument> batch;
+    private byte[] header;
+    private long written;
+
+    public PeliasCsvWriter(OutputStream out, int batchSize) {
+        this.out = out;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void accept(PeliasDocument document) {
+        batch.add(document);
+        if (batch.size() >= batchSize) {
+            try {
+                writeBatch();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write a batch of CSV records", e);
+            }
+        }
+    }
+
+    /**
+     * Write the last batch, or only the header if no documents were accepted.
+     *
+     * @return the number of documents written
+     */
+    public long finish() throws IOException {
+        if (!batch.isEmpty() || header == null) {
+            writeBatch();
+        }
+        return written;
+    }
+
+    private void writeBatch() throws IOException {
+        byte[] csv = toCsv(batch);
+        int headerLength = headerLength(csv);
+        if (header == null) {
+            header = Arrays.copyOf(csv, headerLength);
+            out.write(csv);
+        } else if (!Arrays.equals(header, 0, header.length, csv, 0, headerLength)) {
+            throw new IllegalStateException("CSV header of a batch differs from the first batch");
+        } else {
+            out.write(csv, headerLength, csv.length - headerLength);
+        }
+        written += batch.size();
+        batch.clear();
+    }
+
+    private static byte[] toCsv(List<PeliasDocument> batch) throws IOException {
+        try (InputStream csv = CSVCreator.create(batch.stream())) {
+            var bytes = new ByteArrayOutputStream();
+            csv.transferTo(bytes);
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * The length of the first line, including its line break.
+     */
+    private static int headerLength(byte[] csv) {
+        for (int i = 0; i < csv.length; i++) {
+            if (csv[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return csv.length;
+    }
+}
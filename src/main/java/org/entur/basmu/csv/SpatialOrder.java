@@ -0,0 +1,77 @@
+package org.entur.basmu.csv;
+
+import java.util.Locale;
+
+/**
+ * The order of the records of the CSV export: as parsed, or by a space-filling curve over the center point,
+ * so that records close to each other on the map are close in the file.
+ */
+public enum SpatialOrder {
+
+    /**
+     * Nodes, then ways, then relations, in the order of the PBF file.
+     */
+    PARSE,
+
+    /**
+     * The Hilbert curve, keeping neighbouring records closer than the Z-order of {@link #GEOHASH}.
+     */
+    HILBERT,
+
+    /**
+     * Interleaved longitude and latitude bits, the order of geohash strings.
+     */
+    GEOHASH;
+
+    private static final int BITS = 31;
+    private static final long CELLS = 1L << BITS;
+
+    public static SpatialOrder of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * The position of the point along the curve, a non-negative number of at most 62 bits.
+     */
+    public long key(double lat, double lon) {
+        long x = cell(lon, -180, 360);
+        long y = cell(lat, -90, 180);
+        return switch (this) {
+            case PARSE -> 0;
+            case HILBERT -> hilbert(x, y);
+            case GEOHASH -> interleave(x, y);
+        };
+    }
+
+    private static long cell(double value, double min, double range) {
+        long cell = (long) ((value - min) / range * CELLS);
+        return Math.max(0, Math.min(CELLS - 1, cell));
+    }
+
+    private static long hilbert(long x, long y) {
+        long key = 0;
+        for (long s = CELLS / 2; s > 0; s /= 2) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            key += s * s * ((3L * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = CELLS - 1 - x;
+                    y = CELLS - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return key;
+    }
+
+    private static long interleave(long x, long y) {
+        long key = 0;
+        for (int bit = BITS - 1; bit >= 0; bit--) {
+            key = key << 2 | ((x >>> bit) & 1) << 1 | ((y >>> bit) & 1);
+        }
+        return key;
+    }
+}
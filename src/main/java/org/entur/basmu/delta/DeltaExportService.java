@@ -0,0 +1,288 @@
+package org.entur.basmu.delta;
+
+import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.entur.basmu.csv.CsvRecordKey;
+import org.entur.basmu.csv.CsvRecordReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the CSV export with the previous one, using a manifest of record key to content hash that is
+ * kept in the basmu bucket, so that downstream only has to index the added, changed and removed records.
+ * <p>
+ * Records are keyed by {@link CsvRecordKey}. Records with the same key are the same document downstream, e.g. a node
+ * and a way with the same id, so the manifest has one hash of all records of a key, and they are added, changed and
+ * removed together.
+ */
+@Service
+public class DeltaExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaExportService.class);
+
+    private static final String MANIFEST_BLOB_NAME = "delta/manifest.tsv.gz";
+
+    /**
+     * Bytes of the SHA-256 of a record kept in the manifest.
+     */
+    private static final int HASH_BYTES = 12;
+
+    @Value("${basmu.delta.enabled:false}")
+    private boolean enabled;
+
+    @Value("${basmu.workdir:/tmp/basmu/geocoder}")
+    private String basmuWorkDir;
+
+    private final BasmuBlobStoreService basmuBlobStoreService;
+
+    public DeltaExportService(BasmuBlobStoreService basmuBlobStoreService) {
+        this.basmuBlobStoreService = basmuBlobStoreService;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Save the CSV export in the work directory, it is read once for the full export and once for the delta.
+     */
+    public File saveCSVFile(InputStream csv, String outputFilename) {
+        File csvFile = Paths.get(basmuWorkDir, outputFilename + ".csv").toFile();
+        try (csv) {
+            Files.createDirectories(csvFile.getParentFile().toPath());
+            Files.copy(csv, csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return csvFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save " + csvFile, e);
+        }
+    }
+
+    /**
+     * The manifest of the previous export, empty if there is none. Failing to read an existing manifest is an
+     * error, as the delta of this run would be lost if it was overwritten.
+     */
+    public Optional<Map<String, String>> loadManifest() {
+        try (InputStream blob = basmuBlobStoreService.getBlob(MANIFEST_BLOB_NAME)) {
+            if (blob == null) {
+                logger.info("No manifest of a previous export found");
+                return Optional.empty();
+            }
+            Map<String, String> manifest = new HashMap<>();
+            var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(blob), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab < 0) {
+                    throw new IOException("Malformed manifest line " + manifest.size());
+                }
+                manifest.put(unescape(line.substring(0, tab)), line.substring(tab + 1));
+            }
+            logger.info("Loaded manifest of the previous export with {} records", manifest.size());
+            return Optional.of(manifest);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load the manifest of the previous export", e);
+        }
+    }
+
+    /**
+     * Write the delta between the previous manifest and the CSV export to the work directory. The export is read
+     * twice, first for the manifest, as the records of a key need not be next to each other.
+     */
+    public ExportDelta createDelta(File csvFile, Map<String, String> previousManifest, String outputFilename) {
+        File added = Paths.get(basmuWorkDir, outputFilename + "_added.csv").toFile();
+        File changed = Paths.get(basmuWorkDir, outputFilename + "_changed.csv").toFile();
+        File removed = Paths.get(basmuWorkDir, outputFilename + "_removed.csv").toFile();
+
+        int addedCount = 0;
+        int changedCount = 0;
+
+        try (var reader = newReader(csvFile);
+             var addedWriter = newWriter(added);
+             var changedWriter = newWriter(changed)) {
+
+            Manifest manifest = createManifest(csvFile);
+            var records = new CsvRecordReader(reader);
+            var header = records.read();
+            int[] keyColumns = CsvRecordKey.keyColumns(header.fields());
+            writeLine(addedWriter, header.raw());
+            writeLine(changedWriter, header.raw());
+
+            CsvRecordReader.CsvRecord record;
+            while ((record = records.read()) != null) {
+                if (record.raw().isEmpty()) {
+                    continue;
+                }
+                String key = CsvRecordKey.key(record, keyColumns);
+                String previousHash = previousManifest.get(key);
+                if (previousHash == null) {
+                    writeLine(addedWriter, record.raw());
+                    addedCount++;
+                } else if (!previousHash.equals(manifest.hashes().get(key))) {
+                    writeLine(changedWriter, record.raw());
+                    changedCount++;
+                }
+            }
+
+            int removedCount = writeRemoved(removed, header.fields(), keyColumns, previousManifest, manifest.hashes());
+            logger.info("Delta since the previous export: {} added, {} changed, {} removed records",
+                    addedCount, changedCount, removedCount);
+            return new ExportDelta(added, changed, removed, addedCount, changedCount, removedCount,
+                    manifest.duplicates(), manifest.hashes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create delta of " + csvFile, e);
+        }
+    }
+
+    /**
+     * @param duplicates the number of records with the key of an earlier record
+     */
+    private record Manifest(Map<String, String> hashes, int duplicates) {
+    }
+
+    /**
+     * The hash of each key, that of its record, or of the sorted hashes of its records if several records have
+     * the key, so that the hash does not depend on the order of the records.
+     */
+    private static Manifest createManifest(File csvFile) throws IOException {
+        Map<String, String> hashes = new HashMap<>();
+        Map<String, List<String>> duplicateHashes = new HashMap<>();
+        int duplicates = 0;
+        String duplicateKey = null;
+
+        try (var reader = newReader(csvFile)) {
+            var records = new CsvRecordReader(reader);
+            var header = records.read();
+            if (header == null) {
+                throw new IllegalStateException("Empty CSV export " + csvFile);
+            }
+            int[] keyColumns = CsvRecordKey.keyColumns(header.fields());
+
+            MessageDigest digest = sha256();
+            CsvRecordReader.CsvRecord record;
+            while ((record = records.read()) != null) {
+                if (record.raw().isEmpty()) {
+                    continue;
+                }
+                String key = CsvRecordKey.key(record, keyColumns);
+                String hash = hash(digest, record.raw());
+                String otherHash = hashes.put(key, hash);
+                if (otherHash != null) {
+                    duplicateKey = duplicateKey != null ? duplicateKey : key;
+                    duplicates++;
+                    duplicateHashes.computeIfAbsent(key, k -> new ArrayList<>(List.of(otherHash))).add(hash);
+                }
+            }
+
+            duplicateHashes.forEach((key, keyHashes) -> {
+                Collections.sort(keyHashes);
+                hashes.put(key, hash(digest, String.join(",", keyHashes)));
+            });
+        }
+        if (duplicates > 0) {
+            logger.warn("{} records have the key of another record, e.g. {}, the {} keys with several records are "
+                    + "added, changed and removed together", duplicates, duplicateKey, duplicateHashes.size());
+        }
+        return new Manifest(hashes, duplicates);
+    }
+
+    public void storeManifest(Map<String, String> manifest) {
+        try {
+            var out = new ByteArrayOutputStream();
+            try (var writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                    writer.write(escape(entry.getKey()));
+                    writer.write('\t');
+                    writer.write(entry.getValue());
+                    writer.write('\n');
+                }
+            }
+            basmuBlobStoreService.uploadBlob(MANIFEST_BLOB_NAME, new ByteArrayInputStream(out.toByteArray()));
+            logger.info("Stored manifest with {} records", manifest.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store manifest", e);
+        }
+    }
+
+    private static int writeRemoved(File removed,
+                                    List<String> header,
+                                    int[] keyColumns,
+                                    Map<String, String> previousManifest,
+                                    Map<String, String> manifest) throws IOException {
+        List<String> removedKeys = previousManifest.keySet().stream()
+                .filter(key -> !manifest.containsKey(key))
+                .sorted()
+                .toList();
+
+        try (var writer = newWriter(removed)) {
+            StringJoiner removedHeader = new StringJoiner(",");
+            for (int keyColumn : keyColumns) {
+                removedHeader.add(header.get(keyColumn));
+            }
+            writeLine(writer, removedHeader.toString());
+            for (String key : removedKeys) {
+                writeLine(writer, key);
+            }
+        }
+        return removedKeys.size();
+    }
+
+    private static String hash(MessageDigest digest, String value) {
+        return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)), 0, HASH_BYTES);
+    }
+
+    private static BufferedReader newReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static Writer newWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    private static String escape(String key) {
+        return key.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String key) {
+        var unescaped = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '\\' && i + 1 < key.length()) {
+                char next = key.charAt(++i);
+                unescaped.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.entur.basmu.delta;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * CSV files with the records that were added or changed since the previous export, and the keys of the
+ * removed records, with the manifest of the current export.
+ *
+ * @param duplicateCount the number of records with the key of another record, which are in the manifest together
+ */
+public record ExportDelta(File added,
+                          File changed,
+                          File removed,
+                          int addedCount,
+                          int changedCount,
+                          int removedCount,
+                          int duplicateCount,
+                          Map<String, String> manifest) {
+}
@@ -0,0 +1,65 @@
+package org.entur.basmu.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.entur.basmu.metrics.jfr.PhaseEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Phase timers, entity counters and size gauges of a run.
+ * <p>
+ * Gauges hold the last value set, so that they can be read when the run report is written,
+ * after the structures they measure are gone. Phases are also recorded as JFR events, so that they
+ * can be lined up with GC and allocation events when the run is recorded with -XX:StartFlightRecording.
+ */
+@Component
+public class RunMetrics {
+
+    public static final String PHASE_TIMER = "basmu.phase";
+    public static final String ENTITIES_COUNTER = "basmu.entities";
+    public static final String DOCUMENTS_COUNTER = "basmu.documents";
+    public static final String STORE_SIZE_GAUGE = "basmu.handler.size";
+    public static final String READ_AHEAD_STALLS_COUNTER = "basmu.pbf.readAhead.stalls";
+    public static final String READ_AHEAD_STALL_TIME_COUNTER = "basmu.pbf.readAhead.stallMs";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+
+    public RunMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    public Phase startPhase() {
+        var event = new PhaseEvent();
+        event.begin();
+        return new Phase(Timer.start(meterRegistry), event);
+    }
+
+    public void endPhase(Phase started, String phase) {
+        started.sample().stop(meterRegistry.timer(PHASE_TIMER, "phase", phase));
+        started.event().phase = phase;
+        started.event().commit();
+    }
+
+    public void count(String name, long amount, String... tags) {
+        meterRegistry.counter(name, tags).increment(amount);
+    }
+
+    public void gauge(String name, long value, String... tags) {
+        String key = name + Tags.of(tags);
+        gauges.computeIfAbsent(key, k -> meterRegistry.gauge(name, Tags.of(tags), new AtomicLong()))
+                .set(value);
+    }
+
+    public record Phase(Timer.Sample sample, PhaseEvent event) {
+    }
+}
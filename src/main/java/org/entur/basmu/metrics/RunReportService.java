@@ -0,0 +1,134 @@
+package org.entur.basmu.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.*;
+import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Writes the metrics of the run as a JSON report to the work directory and the basmu bucket, so that
+ * throughput and memory can be compared between nightly runs of the cronjob.
+ */
+@Service
+public class RunReportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RunReportService.class);
+
+    private static final String REPORTS_FOLDER = "reports";
+
+    @Value("${basmu.runReport.enabled:true}")
+    private boolean enabled;
+
+    @Value("${basmu.runReport.upload:true}")
+    private boolean upload;
+
+    @Value("${basmu.workdir:/tmp/basmu/geocoder}")
+    private String basmuWorkDir;
+
+    private final RunMetrics runMetrics;
+    private final BasmuBlobStoreService basmuBlobStoreService;
+    private final Instant startedAt = Instant.now();
+
+    public RunReportService(RunMetrics runMetrics, BasmuBlobStoreService basmuBlobStoreService) {
+        this.runMetrics = runMetrics;
+        this.basmuBlobStoreService = basmuBlobStoreService;
+    }
+
+    /**
+     * @param outcome how the run ended, e.g. exported, unchanged or failed
+     */
+    public void writeRunReport(String outcome) {
+        if (!enabled) {
+            return;
+        }
+        Instant finishedAt = Instant.now();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("startedAt", startedAt.toString());
+        report.put("finishedAt", finishedAt.toString());
+        report.put("wallTimeMs", finishedAt.toEpochMilli() - startedAt.toEpochMilli());
+        report.put("outcome", outcome);
+        report.put("phases", phases());
+        report.put("counters", meters(Counter.class, Counter::count));
+        report.put("gauges", meters(Gauge.class, Gauge::value));
+        report.put("memory", memory());
+
+        try {
+            byte[] json = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsBytes(report);
+            File reportFile = new File(basmuWorkDir, "run-report.json");
+            Files.createDirectories(reportFile.getParentFile().toPath());
+            Files.write(reportFile.toPath(), json);
+            logger.info("Wrote run report {}", reportFile);
+            if (upload) {
+                String blobName = REPORTS_FOLDER + "/basmu_run_" + startedAt.toEpochMilli() + ".json";
+                basmuBlobStoreService.uploadBlob(blobName, new ByteArrayInputStream(json));
+                logger.info("Uploaded run report {}", blobName);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The report must not fail the run
+            logger.warn("Failed to write run report", e);
+        }
+    }
+
+    private Map<String, Object> phases() {
+        Map<String, Object> phases = new LinkedHashMap<>();
+        runMetrics.getMeterRegistry().find(RunMetrics.PHASE_TIMER).timers().stream()
+                .sorted(Comparator.comparing(timer -> timer.getId().getTag("phase")))
+                .forEach(timer -> {
+                    Map<String, Object> phase = new LinkedHashMap<>();
+                    phase.put("count", timer.count());
+                    phase.put("totalMs", Math.round(timer.totalTime(TimeUnit.MILLISECONDS)));
+                    phase.put("maxMs", Math.round(timer.max(TimeUnit.MILLISECONDS)));
+                    phases.put(timer.getId().getTag("phase"), phase);
+                });
+        return phases;
+    }
+
+    private <T extends Meter> Map<String, Object> meters(Class<T> type, ToDoubleFunction<T> value) {
+        Map<String, Object> meters = new TreeMap<>();
+        runMetrics.getMeterRegistry().getMeters().stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .forEach(meter -> meters.put(name(meter.getId()), value.applyAsDouble(meter)));
+        return meters;
+    }
+
+    private static String name(Meter.Id id) {
+        if (id.getTags().isEmpty()) {
+            return id.getName();
+        }
+        StringJoiner tags = new StringJoiner(",", id.getName() + "{", "}");
+        id.getTags().forEach(tag -> tags.add(tag.getKey() + "=" + tag.getValue()));
+        return tags.toString();
+    }
+
+    private static Map<String, Object> memory() {
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        memory.put("peakHeapBytes", ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getPeakUsage)
+                .filter(Objects::nonNull)
+                .mapToLong(MemoryUsage::getUsed)
+                .sum());
+        ManagementFactory.getGarbageCollectorMXBeans().forEach(gc ->
+                memory.put("gc." + gc.getName().replace(' ', '_'), Map.of("count", gc.getCollectionCount(), "timeMs", gc.getCollectionTime())));
+        return memory;
+    }
+}
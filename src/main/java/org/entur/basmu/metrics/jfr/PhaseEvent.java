@@ -0,0 +1,20 @@
+package org.entur.basmu.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Start and end of a phase of the run, e.g. one of the passes over the PBF file.
+ */
+@Name("org.entur.basmu.Phase")
+@Label("Phase")
+@Category({"Basmu"})
+@Description("A phase of the run")
+public class PhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+}
@@ -0,0 +1,36 @@
+package org.entur.basmu.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Ways that could not be assembled into rings, or rings that could not be made into a (multi)polygon.
+ */
+@Name("org.entur.basmu.RingAssemblyFailure")
+@Label("Ring Assembly Failure")
+@Category({"Basmu"})
+@Description("Ways that could not be assembled into a multipolygon")
+public class RingAssemblyFailureEvent extends Event {
+
+    @Label("Reason")
+    public String reason;
+
+    @Label("Way Count")
+    public int wayCount;
+
+    @Label("First Way Id")
+    public long firstWayId;
+
+    public static void commit(String reason, int wayCount, long firstWayId) {
+        var event = new RingAssemblyFailureEvent();
+        if (event.isEnabled()) {
+            event.reason = reason;
+            event.wayCount = wayCount;
+            event.firstWayId = firstWayId;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.entur.basmu.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A multipolygon relation that took longer than basmu.jfr.slowRelationThresholdMs to process.
+ */
+@Name("org.entur.basmu.SlowRelation")
+@Label("Slow Multipolygon Relation")
+@Category({"Basmu"})
+@Description("A multipolygon relation that took longer than the configured threshold to process")
+public class SlowRelationEvent extends Event {
+
+    @Label("Relation Id")
+    public long relationId;
+
+    @Label("Member Count")
+    public int memberCount;
+
+    @Label("Ring Count")
+    public int ringCount;
+
+    @Label("Vertex Count")
+    public int vertexCount;
+
+    @Label("Resolved")
+    @Description("Whether a point was found for the relation")
+    public boolean resolved;
+}
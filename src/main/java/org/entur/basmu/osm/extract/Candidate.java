@@ -0,0 +1,11 @@
+package org.entur.basmu.osm.extract;
+
+import org.entur.basmu.osm.model.OSMWithTags;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Named entity with its resolved point (x = lon, y = lat), or a null point if the geometry
+ * could not be resolved. Relations carry their way members, with empty roles.
+ */
+public record Candidate(OSMWithTags entity, Coordinate point) {
+}
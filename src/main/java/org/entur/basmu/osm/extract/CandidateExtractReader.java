@@ -0,0 +1,69 @@
+package org.entur.basmu.osm.extract;
+
+import org.entur.basmu.osm.model.*;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.entur.basmu.osm.extract.CandidateExtractWriter.*;
+
+/**
+ * Reads the candidates written by {@link CandidateExtractWriter}, in the order they were written.
+ */
+public class CandidateExtractReader {
+
+    private CandidateExtractReader() {
+    }
+
+    public static void read(File extract, Consumer<Candidate> consumer) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(extract), 1 << 16), 1 << 16))) {
+
+            if (!MAGIC.equals(in.readUTF())) {
+                throw new IOException("Not a candidate extract: " + extract);
+            }
+
+            List<String> strings = new ArrayList<>();
+            for (byte type = in.readByte(); type != END; type = in.readByte()) {
+                long id = in.readLong();
+                double lat = in.readDouble();
+                double lon = in.readDouble();
+
+                OSMWithTags entity = switch (type) {
+                    case NODE -> new OSMNode(id, lat, lon);
+                    case WAY -> new OSMWay(id);
+                    case RELATION -> new OSMRelation(id);
+                    default -> throw new IOException("Unknown entity type " + type + " in " + extract);
+                };
+
+                int tagCount = in.readInt();
+                for (int i = 0; i < tagCount; i++) {
+                    entity.addTag(readString(in, strings), readString(in, strings));
+                }
+
+                if (entity instanceof OSMRelation relation) {
+                    int wayCount = in.readInt();
+                    for (int i = 0; i < wayCount; i++) {
+                        relation.addMember(new OSMRelationMember("way", in.readLong(), ""));
+                    }
+                }
+
+                consumer.accept(new Candidate(entity, Double.isNaN(lat) ? null : new Coordinate(lon, lat)));
+            }
+        }
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int index = in.readInt();
+        if (index == NEW_STRING) {
+            String value = in.readUTF();
+            strings.add(value);
+            return value;
+        }
+        return strings.get(index);
+    }
+}
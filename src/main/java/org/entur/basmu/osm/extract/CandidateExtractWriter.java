@@ -0,0 +1,125 @@
+package org.entur.basmu.osm.extract;
+
+import org.entur.basmu.osm.mapper.CandidateListener;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMRelation;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.model.OSMWithTags;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the named entities of a PBF file with their resolved points, so that the POI filters
+ * can be applied again later without parsing the PBF file or building geometries.
+ * <p>
+ * The extract is written to a temporary file and moved in place by {@link #complete()},
+ * an extract that is closed without being completed is deleted.
+ * <p>
+ * Format, gzipped: magic, then per entity: type, id, lat, lon, tag count, tags, and for relations
+ * the way member ids. Strings are written once and referred to by index afterwards.
+ */
+public class CandidateExtractWriter implements CandidateListener, Closeable {
+
+    static final String MAGIC = "basmu-candidates-v1";
+    static final byte NODE = 'n';
+    static final byte WAY = 'w';
+    static final byte RELATION = 'r';
+    static final byte END = 0;
+    static final int NEW_STRING = -1;
+
+    private final File target;
+    private final File partFile;
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private long count;
+    private boolean completed;
+
+    public CandidateExtractWriter(File target) throws IOException {
+        this.target = target;
+        this.partFile = new File(target.getPath() + ".part");
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(partFile), 1 << 16), 1 << 16));
+        out.writeUTF(MAGIC);
+    }
+
+    @Override
+    public boolean collectsAllNamedEntities() {
+        return true;
+    }
+
+    @Override
+    public void candidate(OSMWithTags entity, Coordinate point) {
+        try {
+            if (entity instanceof OSMNode) {
+                out.writeByte(NODE);
+            } else if (entity instanceof OSMWay) {
+                out.writeByte(WAY);
+            } else if (entity instanceof OSMRelation) {
+                out.writeByte(RELATION);
+            } else {
+                throw new IllegalArgumentException("Unknown entity: " + entity);
+            }
+
+            out.writeLong(entity.getId());
+            out.writeDouble(point != null ? point.getY() : Double.NaN);
+            out.writeDouble(point != null ? point.getX() : Double.NaN);
+
+            out.writeInt(entity.getTags().size());
+            for (Map.Entry<String, String> tag : entity.getTags().entrySet()) {
+                writeString(tag.getKey());
+                writeString(tag.getValue());
+            }
+
+            if (entity instanceof OSMRelation relation) {
+                List<Long> wayRefs = relation.getMemberRefsOfType("way");
+                out.writeInt(wayRefs.size());
+                for (long wayRef : wayRefs) {
+                    out.writeLong(wayRef);
+                }
+            }
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write candidate extract " + partFile, e);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Finish the extract and move it to the target file.
+     */
+    public void complete() throws IOException {
+        out.writeByte(END);
+        out.close();
+        Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        completed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!completed) {
+            out.close();
+            Files.deleteIfExists(partFile.toPath());
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        Integer index = strings.get(value);
+        if (index != null) {
+            out.writeInt(index);
+        } else {
+            strings.put(value, strings.size());
+            out.writeInt(NEW_STRING);
+            out.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.entur.basmu.osm.incremental;
+
+import org.entur.basmu.osm.extract.Candidate;
+import org.entur.basmu.osm.model.*;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The candidates of the previous run, with their points, and what is needed to recompute the points
+ * when OSM change files are applied: the member ways of the multipolygon relations and the coordinates
+ * of the nodes of the stored ways.
+ * <p>
+ * Nodes and relations are stored if they match the filters, ways if they match the filters or are
+ * members of a stored relation. The points of ways that are members of a stored relation are not used,
+ * such ways are represented by the relation. Node and way refs that could not be resolved in the
+ * previous run are remembered, so that they are not mistaken for unknown entities.
+ */
+public class IncrementalState {
+
+    static final String MAGIC = "basmu-incremental-v2";
+
+    private final String settingsKey;
+    private final String pbfVersion;
+    private final Set<String> appliedChanges = new TreeSet<>();
+
+    private final Map<Long, Candidate> nodes = new TreeMap<>();
+    private final Map<Long, Candidate> ways = new TreeMap<>();
+    private final Map<Long, Candidate> relations = new TreeMap<>();
+
+    private final Map<Long, Coordinate> coordinates = new HashMap<>();
+    private final Set<Long> missingNodes = new HashSet<>();
+    private final Set<Long> missingWays = new HashSet<>();
+
+    public IncrementalState(String settingsKey, String pbfVersion) {
+        this.settingsKey = settingsKey;
+        this.pbfVersion = pbfVersion;
+    }
+
+    /**
+     * Key of the filters and settings the state was built with, a state built with other settings
+     * can not be updated.
+     */
+    public String getSettingsKey() {
+        return settingsKey;
+    }
+
+    /**
+     * Name and generation of the PBF file the state was built from, a newer PBF file is converted instead of
+     * applying change files to the state.
+     */
+    public String getPbfVersion() {
+        return pbfVersion;
+    }
+
+    /**
+     * Names of the change files applied to the state, or included in the PBF file it was built from.
+     */
+    public Set<String> getAppliedChanges() {
+        return appliedChanges;
+    }
+
+    public Map<Long, Candidate> getNodes() {
+        return nodes;
+    }
+
+    public Map<Long, Candidate> getWays() {
+        return ways;
+    }
+
+    public Map<Long, Candidate> getRelations() {
+        return relations;
+    }
+
+    public Map<Long, Coordinate> getCoordinates() {
+        return coordinates;
+    }
+
+    public Set<Long> getMissingNodes() {
+        return missingNodes;
+    }
+
+    public Set<Long> getMissingWays() {
+        return missingWays;
+    }
+
+    /**
+     * Ids of the ways that are members of the stored relations.
+     */
+    public Set<Long> getMemberWayRefs() {
+        Set<Long> memberWayRefs = new HashSet<>();
+        relations.values().forEach(relation ->
+                memberWayRefs.addAll(((OSMRelation) relation.entity()).getMemberRefsOfType("way")));
+        return memberWayRefs;
+    }
+
+    /**
+     * Drop the coordinates and missing refs that are no longer referred to by the stored ways and relations.
+     */
+    public void prune() {
+        Set<Long> nodeRefs = new HashSet<>();
+        ways.values().forEach(way -> nodeRefs.addAll(((OSMWay) way.entity()).getNodeRefs()));
+        coordinates.keySet().retainAll(nodeRefs);
+        missingNodes.retainAll(nodeRefs);
+        missingWays.retainAll(getMemberWayRefs());
+    }
+
+    public void write(File target) throws IOException {
+        File partFile = new File(target.getPath() + ".part");
+        try (var out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(partFile), 1 << 16), 1 << 16))) {
+            out.writeUTF(MAGIC);
+            out.writeUTF(settingsKey);
+            out.writeUTF(pbfVersion);
+            out.writeInt(appliedChanges.size());
+            for (String change : appliedChanges) {
+                out.writeUTF(change);
+            }
+
+            out.writeInt(nodes.size());
+            for (Candidate node : nodes.values()) {
+                writeCandidate(out, node);
+            }
+
+            out.writeInt(ways.size());
+            for (Candidate way : ways.values()) {
+                writeCandidate(out, way);
+                List<Long> nodeRefs = ((OSMWay) way.entity()).getNodeRefs();
+                out.writeInt(nodeRefs.size());
+                for (long nodeRef : nodeRefs) {
+                    out.writeLong(nodeRef);
+                }
+            }
+
+            out.writeInt(relations.size());
+            for (Candidate relation : relations.values()) {
+                writeCandidate(out, relation);
+                List<OSMRelationMember> members = ((OSMRelation) relation.entity()).getMembers();
+                out.writeInt(members.size());
+                for (OSMRelationMember member : members) {
+                    out.writeUTF(member.type());
+                    out.writeLong(member.ref());
+                    out.writeUTF(member.role() != null ? member.role() : "");
+                }
+            }
+
+            out.writeInt(coordinates.size());
+            for (Map.Entry<Long, Coordinate> coordinate : coordinates.entrySet()) {
+                out.writeLong(coordinate.getKey());
+                out.writeDouble(coordinate.getValue().getY());
+                out.writeDouble(coordinate.getValue().getX());
+            }
+
+            writeRefs(out, missingNodes);
+            writeRefs(out, missingWays);
+        }
+        Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static IncrementalState read(File source) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(source), 1 << 16), 1 << 16))) {
+            if (!MAGIC.equals(in.readUTF())) {
+                throw new IOException("Not an incremental state: " + source);
+            }
+            var state = new IncrementalState(in.readUTF(), in.readUTF());
+            for (int i = in.readInt(); i > 0; i--) {
+                state.appliedChanges.add(in.readUTF());
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                long id = in.readLong();
+                Coordinate point = readPoint(in);
+                var node = new OSMNode(id, point.getY(), point.getX());
+                readTags(in, node);
+                state.nodes.put(id, new Candidate(node, point));
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                var way = new OSMWay(in.readLong());
+                Coordinate point = readPoint(in);
+                readTags(in, way);
+                for (int j = in.readInt(); j > 0; j--) {
+                    way.addNodeRef(in.readLong());
+                }
+                state.ways.put(way.getId(), new Candidate(way, point));
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                var relation = new OSMRelation(in.readLong());
+                Coordinate point = readPoint(in);
+                readTags(in, relation);
+                for (int j = in.readInt(); j > 0; j--) {
+                    relation.addMember(new OSMRelationMember(in.readUTF(), in.readLong(), in.readUTF()));
+                }
+                state.relations.put(relation.getId(), new Candidate(relation, point));
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                long id = in.readLong();
+                double lat = in.readDouble();
+                double lon = in.readDouble();
+                state.coordinates.put(id, new Coordinate(lon, lat));
+            }
+
+            readRefs(in, state.missingNodes);
+            readRefs(in, state.missingWays);
+            return state;
+        }
+    }
+
+    private static void writeCandidate(DataOutputStream out, Candidate candidate) throws IOException {
+        out.writeLong(candidate.entity().getId());
+        out.writeDouble(candidate.point() != null ? candidate.point().getY() : Double.NaN);
+        out.writeDouble(candidate.point() != null ? candidate.point().getX() : Double.NaN);
+        out.writeInt(candidate.entity().getTags().size());
+        for (Map.Entry<String, String> tag : candidate.entity().getTags().entrySet()) {
+            out.writeUTF(tag.getKey());
+            out.writeUTF(tag.getValue());
+        }
+    }
+
+    private static Coordinate readPoint(DataInputStream in) throws IOException {
+        double lat = in.readDouble();
+        double lon = in.readDouble();
+        return Double.isNaN(lat) ? null : new Coordinate(lon, lat);
+    }
+
+    private static void readTags(DataInputStream in, OSMWithTags entity) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            entity.addTag(in.readUTF(), in.readUTF());
+        }
+    }
+
+    private static void writeRefs(DataOutputStream out, Set<Long> refs) throws IOException {
+        out.writeInt(refs.size());
+        for (long ref : refs) {
+            out.writeLong(ref);
+        }
+    }
+
+    private static void readRefs(DataInputStream in, Set<Long> refs) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            refs.add(in.readLong());
+        }
+    }
+}
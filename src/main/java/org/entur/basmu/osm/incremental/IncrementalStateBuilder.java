@@ -0,0 +1,76 @@
+package org.entur.basmu.osm.incremental;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.extract.Candidate;
+import org.entur.basmu.osm.mapper.CandidateListener;
+import org.entur.basmu.osm.mapper.PointOfInterestMatcher;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMRelation;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.model.OSMWithTags;
+import org.entur.basmu.osm.store.NodeStore;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the {@link IncrementalState} from the candidates of a full run.
+ */
+public class IncrementalStateBuilder implements CandidateListener {
+
+    private final PointOfInterestMatcher pointOfInterestMatcher;
+    private final IncrementalState state;
+
+    public IncrementalStateBuilder(String settingsKey, String pbfVersion, List<PointOfInterestFilter> pointOfInterestFilters) {
+        this.pointOfInterestMatcher = new PointOfInterestMatcher(pointOfInterestFilters);
+        this.state = new IncrementalState(settingsKey, pbfVersion);
+    }
+
+    public IncrementalState getState() {
+        return state;
+    }
+
+    @Override
+    public void candidate(OSMWithTags entity, Coordinate point) {
+        if (!pointOfInterestMatcher.matches(entity)) {
+            return;
+        }
+        if (entity instanceof OSMNode) {
+            state.getNodes().put(entity.getId(), new Candidate(entity, point));
+        } else if (entity instanceof OSMWay) {
+            state.getWays().put(entity.getId(), new Candidate(entity, point));
+        } else if (entity instanceof OSMRelation) {
+            state.getRelations().put(entity.getId(), new Candidate(entity, point));
+        }
+    }
+
+    @Override
+    public void complete(Map<Long, OSMWay> multipolygonWays,
+                         NodeStore nodesForWays,
+                         NodeStore nodesForMultipolygonRelations) {
+
+        for (long wayRef : state.getMemberWayRefs()) {
+            OSMWay way = multipolygonWays.get(wayRef);
+            if (way != null) {
+                state.getWays().putIfAbsent(wayRef, new Candidate(way, null));
+            } else if (!state.getWays().containsKey(wayRef)) {
+                state.getMissingWays().add(wayRef);
+            }
+        }
+
+        for (Candidate way : state.getWays().values()) {
+            for (long nodeRef : ((OSMWay) way.entity()).getNodeRefs()) {
+                Coordinate coordinate = nodesForWays.get(nodeRef);
+                if (coordinate == null) {
+                    coordinate = nodesForMultipolygonRelations.get(nodeRef);
+                }
+                if (coordinate != null) {
+                    state.getCoordinates().put(nodeRef, coordinate);
+                } else {
+                    state.getMissingNodes().add(nodeRef);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.entur.basmu.osm.incremental;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.extract.Candidate;
+import org.entur.basmu.osm.mapper.MappingUtil;
+import org.entur.basmu.osm.mapper.PointOfInterestMatcher;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMRelation;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.store.HashNodeStore;
+import org.locationtech.jts.geom.Coordinate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Applies an {@link OsmChange} to an {@link IncrementalState}. Only the points of the ways and relations
+ * whose tags, nodes or member ways changed are recomputed.
+ * <p>
+ * The state only holds the coordinates of the nodes of its ways. A change that makes a way or relation
+ * a candidate, while referring to nodes or ways that are neither in the state nor in the change,
+ * can not be applied, and the caller must fall back to a full run.
+ */
+public class IncrementalUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalUpdater.class);
+
+    private final PointOfInterestMatcher pointOfInterestMatcher;
+
+    public IncrementalUpdater(List<PointOfInterestFilter> pointOfInterestFilters) {
+        this.pointOfInterestMatcher = new PointOfInterestMatcher(pointOfInterestFilters);
+    }
+
+    /**
+     * @return false if the change refers to unknown nodes or ways, the state is then partly updated and must be discarded
+     */
+    public boolean apply(IncrementalState state, OsmChange change) {
+        Set<Long> movedNodes = applyNodes(state, change);
+        Set<Long> dirtyRelations = applyRelations(state, change);
+        Set<Long> dirtyWays = applyWays(state, change);
+
+        if (!movedNodes.isEmpty()) {
+            state.getWays().forEach((id, way) -> {
+                if (((OSMWay) way.entity()).getNodeRefs().stream().anyMatch(movedNodes::contains)) {
+                    dirtyWays.add(id);
+                }
+            });
+        }
+
+        for (long wayRef : change.getWays().keySet()) {
+            Candidate way = state.getWays().get(wayRef);
+            if (way != null && !resolveNodes((OSMWay) way.entity(), state, change)) {
+                logger.info("Way {} refers to unknown nodes", wayRef);
+                return false;
+            }
+        }
+
+        state.getRelations().forEach((id, relation) -> {
+            List<Long> wayRefs = ((OSMRelation) relation.entity()).getMemberRefsOfType("way");
+            if (wayRefs.stream().anyMatch(wayRef -> dirtyWays.contains(wayRef) || change.getDeletedWays().contains(wayRef))) {
+                dirtyRelations.add(id);
+            }
+        });
+
+        for (long relationRef : dirtyRelations) {
+            var relation = (OSMRelation) state.getRelations().get(relationRef).entity();
+            for (long wayRef : relation.getMemberRefsOfType("way")) {
+                if (!state.getWays().containsKey(wayRef)
+                        && !state.getMissingWays().contains(wayRef)
+                        && !change.getDeletedWays().contains(wayRef)) {
+                    logger.info("Relation {} refers to unknown way {}", relationRef, wayRef);
+                    return false;
+                }
+            }
+        }
+
+        // Member ways are stored without a point, and need one when they are no longer represented by a relation
+        state.getWays().forEach((id, way) -> {
+            if (way.point() == null && pointOfInterestMatcher.matches(way.entity())) {
+                dirtyWays.add(id);
+            }
+        });
+
+        for (long wayRef : dirtyWays) {
+            Candidate way = state.getWays().get(wayRef);
+            if (pointOfInterestMatcher.matches(way.entity())) {
+                state.getWays().put(wayRef, new Candidate(way.entity(), getCentroid((OSMWay) way.entity(), state)));
+            }
+        }
+
+        for (long relationRef : dirtyRelations) {
+            Candidate relation = state.getRelations().get(relationRef);
+            state.getRelations().put(relationRef,
+                    new Candidate(relation.entity(), getInteriorPoint((OSMRelation) relation.entity(), state)));
+        }
+
+        state.prune();
+        logger.info("Applied {} changes, recomputed {} ways and {} relations",
+                change.size(), dirtyWays.size(), dirtyRelations.size());
+        return true;
+    }
+
+    private Set<Long> applyNodes(IncrementalState state, OsmChange change) {
+        Set<Long> movedNodes = new HashSet<>();
+        for (long nodeRef : change.getDeletedNodes()) {
+            state.getNodes().remove(nodeRef);
+            if (state.getCoordinates().remove(nodeRef) != null) {
+                state.getMissingNodes().add(nodeRef);
+                movedNodes.add(nodeRef);
+            }
+        }
+        for (OSMNode node : change.getNodes().values()) {
+            Coordinate coordinate = new Coordinate(node.getLon(), node.getLat());
+            if (pointOfInterestMatcher.matches(node)) {
+                state.getNodes().put(node.getId(), new Candidate(node, coordinate));
+            } else {
+                state.getNodes().remove(node.getId());
+            }
+            if (state.getCoordinates().containsKey(node.getId()) || state.getMissingNodes().remove(node.getId())) {
+                state.getCoordinates().put(node.getId(), coordinate);
+                movedNodes.add(node.getId());
+            }
+        }
+        return movedNodes;
+    }
+
+    private Set<Long> applyRelations(IncrementalState state, OsmChange change) {
+        Set<Long> dirtyRelations = new HashSet<>();
+        change.getDeletedRelations().forEach(state.getRelations()::remove);
+        for (OSMRelation relation : change.getRelations().values()) {
+            if (relation.isTag("type", "multipolygon") && pointOfInterestMatcher.matches(relation)) {
+                state.getRelations().put(relation.getId(), new Candidate(relation, null));
+                dirtyRelations.add(relation.getId());
+            } else {
+                state.getRelations().remove(relation.getId());
+            }
+        }
+        return dirtyRelations;
+    }
+
+    private Set<Long> applyWays(IncrementalState state, OsmChange change) {
+        Set<Long> dirtyWays = new HashSet<>();
+        change.getDeletedWays().forEach(wayRef -> {
+            state.getWays().remove(wayRef);
+            state.getMissingWays().add(wayRef);
+        });
+
+        Set<Long> memberWayRefs = state.getMemberWayRefs();
+        for (OSMWay way : change.getWays().values()) {
+            if (pointOfInterestMatcher.matches(way) || memberWayRefs.contains(way.getId())) {
+                state.getWays().put(way.getId(), new Candidate(way, null));
+                state.getMissingWays().remove(way.getId());
+                dirtyWays.add(way.getId());
+            } else {
+                state.getWays().remove(way.getId());
+            }
+        }
+        return dirtyWays;
+    }
+
+    /**
+     * Add the coordinates of the nodes of a new or changed way that are only known from the change.
+     */
+    private boolean resolveNodes(OSMWay way, IncrementalState state, OsmChange change) {
+        for (long nodeRef : way.getNodeRefs()) {
+            if (state.getCoordinates().containsKey(nodeRef) || state.getMissingNodes().contains(nodeRef)) {
+                continue;
+            }
+            OSMNode node = change.getNodes().get(nodeRef);
+            if (node != null) {
+                state.getCoordinates().put(nodeRef, new Coordinate(node.getLon(), node.getLat()));
+            } else if (change.getDeletedNodes().contains(nodeRef)) {
+                state.getMissingNodes().add(nodeRef);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Coordinate getCentroid(OSMWay way, IncrementalState state) {
+        List<Coordinate> coordinates = new ArrayList<>();
+        for (long nodeRef : way.getNodeRefs()) {
+            Coordinate coordinate = state.getCoordinates().get(nodeRef);
+            if (coordinate == null) {
+                return null;
+            }
+            coordinates.add(new Coordinate(coordinate));
+        }
+        return MappingUtil.toCentroidCoordinate(coordinates);
+    }
+
+    private static Coordinate getInteriorPoint(OSMRelation relation, IncrementalState state) {
+        var nodes = new HashNodeStore();
+        List<OSMWay> innerWays = new ArrayList<>();
+        List<OSMWay> outerWays = new ArrayList<>();
+        for (long wayRef : relation.getMemberRefsOfType("way")) {
+            Candidate way = state.getWays().get(wayRef);
+            if (way == null) {
+                continue;
+            }
+            for (long nodeRef : ((OSMWay) way.entity()).getNodeRefs()) {
+                Coordinate coordinate = state.getCoordinates().get(nodeRef);
+                if (coordinate != null) {
+                    nodes.put(nodeRef, coordinate.getY(), coordinate.getX());
+                }
+            }
+        }
+        relation.getMemberRefsForRole("inner").stream()
+                .map(state.getWays()::get).filter(Objects::nonNull)
+                .forEach(way -> innerWays.add((OSMWay) way.entity()));
+        relation.getMemberRefsForRole("outer").stream()
+                .map(state.getWays()::get).filter(Objects::nonNull)
+                .forEach(way -> outerWays.add((OSMWay) way.entity()));
+        return MappingUtil.toMultipolygonInteriorPoint(innerWays, outerWays, nodes);
+    }
+}
@@ -0,0 +1,84 @@
+package org.entur.basmu.osm.incremental;
+
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMRelation;
+import org.entur.basmu.osm.model.OSMWay;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The net effect of one or more OSM change files: the latest version of each created or modified
+ * entity, and the ids of the deleted entities. Later changes replace earlier changes to the same entity.
+ */
+public class OsmChange {
+
+    private final Map<Long, OSMNode> nodes = new HashMap<>();
+    private final Map<Long, OSMWay> ways = new HashMap<>();
+    private final Map<Long, OSMRelation> relations = new HashMap<>();
+
+    private final Set<Long> deletedNodes = new HashSet<>();
+    private final Set<Long> deletedWays = new HashSet<>();
+    private final Set<Long> deletedRelations = new HashSet<>();
+
+    public void putNode(OSMNode node) {
+        nodes.put(node.getId(), node);
+        deletedNodes.remove(node.getId());
+    }
+
+    public void putWay(OSMWay way) {
+        ways.put(way.getId(), way);
+        deletedWays.remove(way.getId());
+    }
+
+    public void putRelation(OSMRelation relation) {
+        relations.put(relation.getId(), relation);
+        deletedRelations.remove(relation.getId());
+    }
+
+    public void deleteNode(long id) {
+        nodes.remove(id);
+        deletedNodes.add(id);
+    }
+
+    public void deleteWay(long id) {
+        ways.remove(id);
+        deletedWays.add(id);
+    }
+
+    public void deleteRelation(long id) {
+        relations.remove(id);
+        deletedRelations.add(id);
+    }
+
+    public Map<Long, OSMNode> getNodes() {
+        return nodes;
+    }
+
+    public Map<Long, OSMWay> getWays() {
+        return ways;
+    }
+
+    public Map<Long, OSMRelation> getRelations() {
+        return relations;
+    }
+
+    public Set<Long> getDeletedNodes() {
+        return deletedNodes;
+    }
+
+    public Set<Long> getDeletedWays() {
+        return deletedWays;
+    }
+
+    public Set<Long> getDeletedRelations() {
+        return deletedRelations;
+    }
+
+    public int size() {
+        return nodes.size() + ways.size() + relations.size()
+                + deletedNodes.size() + deletedWays.size() + deletedRelations.size();
+    }
+}
@@ -0,0 +1,127 @@
+package org.entur.basmu.osm.incremental;
+
+import org.entur.basmu.osm.model.*;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming parser for OSM change files (.osc), gzipped (.osc.gz) or not.
+ */
+public class OsmChangeParser {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private OsmChangeParser() {
+    }
+
+    /**
+     * Parse the change file into the change, replacing earlier changes to the same entities.
+     */
+    public static void parse(InputStream inputStream, boolean gzipped, OsmChange change) throws IOException {
+        InputStream in = gzipped
+                ? new GZIPInputStream(inputStream, 1 << 16)
+                : new BufferedInputStream(inputStream, 1 << 16);
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                parse(reader, change);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse OSM change file", e);
+        }
+    }
+
+    private static void parse(XMLStreamReader reader, OsmChange change) throws XMLStreamException {
+        String action = null;
+        OSMWithTags entity = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "create", "modify", "delete" -> action = reader.getLocalName();
+                    case "node" -> entity = new OSMNode(
+                            id(reader),
+                            "delete".equals(action) ? Double.NaN : Double.parseDouble(reader.getAttributeValue(null, "lat")),
+                            "delete".equals(action) ? Double.NaN : Double.parseDouble(reader.getAttributeValue(null, "lon")));
+                    case "way" -> entity = new OSMWay(id(reader));
+                    case "relation" -> entity = new OSMRelation(id(reader));
+                    case "tag" -> {
+                        if (entity != null) {
+                            entity.addTag(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+                        }
+                    }
+                    case "nd" -> {
+                        if (entity instanceof OSMWay way) {
+                            way.addNodeRef(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                        }
+                    }
+                    case "member" -> {
+                        if (entity instanceof OSMRelation relation) {
+                            relation.addMember(new OSMRelationMember(
+                                    reader.getAttributeValue(null, "type"),
+                                    Long.parseLong(reader.getAttributeValue(null, "ref")),
+                                    reader.getAttributeValue(null, "role")));
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "node", "way", "relation" -> {
+                        apply(action, entity, change);
+                        entity = null;
+                    }
+                    case "create", "modify", "delete" -> action = null;
+                    default -> {
+                    }
+                }
+            }
+        }
+    }
+
+    private static void apply(String action, OSMWithTags entity, OsmChange change) {
+        if (action == null || entity == null) {
+            return;
+        }
+        boolean delete = action.equals("delete");
+        if (entity instanceof OSMNode node) {
+            if (delete) {
+                change.deleteNode(node.getId());
+            } else {
+                change.putNode(node);
+            }
+        } else if (entity instanceof OSMWay way) {
+            if (delete) {
+                change.deleteWay(way.getId());
+            } else {
+                change.putWay(way);
+            }
+        } else if (entity instanceof OSMRelation relation) {
+            if (delete) {
+                change.deleteRelation(relation.getId());
+            } else {
+                change.putRelation(relation);
+            }
+        }
+    }
+
+    private static long id(XMLStreamReader reader) {
+        return Long.parseLong(reader.getAttributeValue(null, "id"));
+    }
+}
@@ -3,6 +3,7 @@ package org.entur.basmu.osm.mapper;
 import crosby.binary.BinaryParser;
 import crosby.binary.Osmformat;
 import org.entur.basmu.osm.model.*;
+import org.locationtech.jts.geom.Envelope;
 
 import java.util.HashMap;
 import java.util.List;
@@ -15,6 +16,8 @@ import java.util.stream.Stream;
  * Parser for the OpenStreetMap PBF Format.
  */
 public class BinaryOpenStreetMapParser extends BinaryParser {
+    private static final String SORT_TYPE_THEN_ID = "Sort.Type_then_ID";
+
     private final ProtoBufferContentHandler handler;
     private final Map<String, String> stringTable = new HashMap<>();
     private boolean parseWays = true;
@@ -44,7 +47,7 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseNodes(List<Osmformat.Node> nodes) {
-        if (!parseNodes) {
+        if (!parseNodes || handler.isClipping() && skipNodes(nodes)) {
             return;
         }
 
@@ -60,7 +63,7 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseDense(Osmformat.DenseNodes nodes) {
-        if (!parseNodes) {
+        if (!parseNodes || handler.isClipping() && skipDense(nodes)) {
             return;
         }
 
@@ -92,6 +95,28 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         }
     }
 
+    /**
+     * Skip the nodes of a block entirely outside the area of interest, before their tags are read.
+     */
+    private boolean skipNodes(List<Osmformat.Node> nodes) {
+        var extent = new Envelope();
+        for (Osmformat.Node node : nodes) {
+            extent.expandToInclude(parseLon(node.getLon()), parseLat(node.getLat()));
+        }
+        return handler.skipNodes(extent, nodes.size());
+    }
+
+    private boolean skipDense(Osmformat.DenseNodes nodes) {
+        var extent = new Envelope();
+        long lat = 0, lon = 0;
+        for (int nodeIndex = 0; nodeIndex < nodes.getIdCount(); nodeIndex++) {
+            lat += nodes.getLat(nodeIndex);
+            lon += nodes.getLon(nodeIndex);
+            extent.expandToInclude(parseLon(lon), parseLat(lat));
+        }
+        return handler.skipNodes(extent, nodes.getIdCount());
+    }
+
     @Override
     protected void parseWays(List<Osmformat.Way> ways) {
         if (!parseWays) {
@@ -157,6 +182,8 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
                 .forEach(s -> {
                     throw new IllegalStateException("File requires unknown feature: " + s);
                 });
+
+        handler.setSortedInput(block.getOptionalFeaturesList().contains(SORT_TYPE_THEN_ID));
     }
 
     private Map<String, String> findTags(int keyCount,
@@ -0,0 +1,37 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.model.OSMWithTags;
+import org.entur.basmu.osm.store.NodeStore;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.Map;
+
+/**
+ * Receives the candidates of the {@link ProtoBufferContentHandler} with their resolved points,
+ * whether or not they are mapped to pelias documents.
+ */
+public interface CandidateListener {
+
+    /**
+     * Whether all named entities should be candidates, not only those matching the filters.
+     */
+    default boolean collectsAllNamedEntities() {
+        return false;
+    }
+
+    /**
+     * A candidate with its point (x = lon, y = lat). The point is null for multipolygon relations
+     * whose geometry could not be resolved.
+     */
+    void candidate(OSMWithTags entity, Coordinate point);
+
+    /**
+     * Called after the last candidate, with the ways of the candidate multipolygon relations
+     * and the nodes of the candidate ways and relations.
+     */
+    default void complete(Map<Long, OSMWay> multipolygonWays,
+                          NodeStore nodesForWays,
+                          NodeStore nodesForMultipolygonRelations) {
+    }
+}
@@ -0,0 +1,329 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.model.*;
+import org.entur.basmu.osm.store.LongRefSet;
+import org.entur.basmu.osm.store.NodeStore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the checkpoints of the content handler. Entities are written with all their tags,
+ * way node refs and relation members, coordinates as doubles, so that a resumed run maps them exactly
+ * as the run that wrote them.
+ */
+final class CheckpointIO {
+
+    static final byte NODE = 'n';
+    static final byte WAY = 'w';
+    static final byte RELATION = 'r';
+    static final byte END = 0;
+
+    private static final String REFERENCES_MAGIC = "basmu-references-v1";
+    private static final String NODES_MAGIC = "basmu-nodes-v1";
+    private static final String DOCUMENTS_MAGIC = "basmu-documents-v1";
+
+    /**
+     * The state of the content handler kept in the checkpoints.
+     */
+    interface State {
+
+        boolean isSortedInput();
+
+        long getRelationsSeen();
+
+        /**
+         * Choose the stores for the sort order of the checkpointed file, instead of the headers of the skipped passes.
+         */
+        void restoreReferences(boolean sortedInput, long relationsSeen);
+
+        /**
+         * The reference sets of the first two passes, in a fixed order.
+         */
+        List<LongRefSet> getRefSets();
+
+        Map<Long, OSMRelation> getMultipolygonRelations();
+
+        Map<Long, OSMWay> getMultipolygonWays();
+
+        /**
+         * Output for the nodes and ways mapped from here on, see {@link #writeDocument(DataOutputStream, OSMWithTags, double, double)}.
+         */
+        void setDocumentsCheckpoint(DataOutputStream out);
+
+        DataOutputStream getDocumentsCheckpoint();
+
+        NodeCounts getNodeCounts();
+
+        void restoreNodeCounts(NodeCounts counts);
+
+        Map<String, Long> getDocumentsEmitted();
+
+        NodeStore getNodesForMultipolygonRelations();
+
+        NodeStore createNodesForMultipolygonRelations();
+
+        /**
+         * Map a checkpointed node or way again, passing its documents on as the third pass did.
+         */
+        void mapDocument(OSMWithTags entity, double lat, double lon);
+    }
+
+    record NodeCounts(long nodesSeen, long nodesMatched, long waysSeen, long waysMatched) {
+    }
+
+    private CheckpointIO() {
+    }
+
+    /**
+     * Write the multipolygon relations, their ways and the reference sets collected by the first two passes.
+     * Must be called before the reference sets are handed to the node stores after the second pass.
+     */
+    static void writeReferences(State state, File checkpoint) throws IOException {
+        try (var out = create(checkpoint, REFERENCES_MAGIC)) {
+            out.writeBoolean(state.isSortedInput());
+            out.writeLong(state.getRelationsSeen());
+            for (LongRefSet refs : state.getRefSets()) {
+                writeRefs(out, refs);
+            }
+            for (OSMRelation relation : state.getMultipolygonRelations().values()) {
+                writeEntity(out, relation);
+            }
+            out.writeByte(END);
+            for (OSMWay way : state.getMultipolygonWays().values()) {
+                writeEntity(out, way);
+            }
+            out.writeByte(END);
+            complete(out, checkpoint);
+        }
+    }
+
+    /**
+     * Restore the state written by {@link #writeReferences(State, File)}, instead of the first two passes.
+     */
+    static void readReferences(State state, File checkpoint) throws IOException {
+        try (var in = open(checkpoint, REFERENCES_MAGIC)) {
+            state.restoreReferences(in.readBoolean(), in.readLong());
+            for (LongRefSet refs : state.getRefSets()) {
+                readRefs(in, refs);
+            }
+            for (var entity = readEntity(in); entity != null; entity = readEntity(in)) {
+                state.getMultipolygonRelations().put(entity.getId(), (OSMRelation) entity);
+            }
+            for (var entity = readEntity(in); entity != null; entity = readEntity(in)) {
+                state.getMultipolygonWays().put(entity.getId(), (OSMWay) entity);
+            }
+        }
+    }
+
+    /**
+     * Write the nodes and ways mapped from here on, with their points, to the checkpoint completed
+     * by {@link #writeNodes(State, File, File)}. Called before the third pass.
+     */
+    static void startDocuments(State state, File checkpoint) throws IOException {
+        state.setDocumentsCheckpoint(create(checkpoint, DOCUMENTS_MAGIC));
+    }
+
+    /**
+     * Complete the documents checkpoint, and write the entity counts and the node store for the
+     * multipolygon relations. Called after the third pass.
+     */
+    static void writeNodes(State state, File documents, File checkpoint) throws IOException {
+        DataOutputStream documentsCheckpoint = state.getDocumentsCheckpoint();
+        documentsCheckpoint.writeBoolean(false);
+        complete(documentsCheckpoint, documents);
+        state.setDocumentsCheckpoint(null);
+
+        try (var out = create(checkpoint, NODES_MAGIC)) {
+            NodeCounts counts = state.getNodeCounts();
+            out.writeLong(counts.nodesSeen());
+            out.writeLong(counts.nodesMatched());
+            out.writeLong(counts.waysSeen());
+            out.writeLong(counts.waysMatched());
+            out.writeInt(state.getDocumentsEmitted().size());
+            for (Map.Entry<String, Long> emitted : state.getDocumentsEmitted().entrySet()) {
+                out.writeUTF(emitted.getKey());
+                out.writeLong(emitted.getValue());
+            }
+            writeNodes(out, state.getNodesForMultipolygonRelations());
+            complete(out, checkpoint);
+        }
+    }
+
+    /**
+     * Restore the state written by {@link #writeNodes(State, File, File)} instead of the third pass,
+     * after {@link #readReferences(State, File)}, mapping the checkpointed nodes and ways again.
+     */
+    static void readNodes(State state, File documents, File checkpoint) throws IOException {
+        NodeStore nodes = state.createNodesForMultipolygonRelations();
+        try (var in = open(checkpoint, NODES_MAGIC)) {
+            state.restoreNodeCounts(new NodeCounts(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            for (int i = in.readInt(); i > 0; i--) {
+                state.getDocumentsEmitted().put(in.readUTF(), in.readLong());
+            }
+            readNodes(in, nodes);
+        }
+        try (var in = open(documents, DOCUMENTS_MAGIC)) {
+            while (in.readBoolean()) {
+                double lat = in.readDouble();
+                double lon = in.readDouble();
+                state.mapDocument(readEntity(in), lat, lon);
+            }
+        }
+    }
+
+    /**
+     * A node or way of the documents checkpoint with the point its documents were mapped at.
+     */
+    static void writeDocument(DataOutputStream out, OSMWithTags entity, double lat, double lon) throws IOException {
+        out.writeBoolean(true);
+        out.writeDouble(lat);
+        out.writeDouble(lon);
+        writeEntity(out, entity);
+    }
+
+    /**
+     * Output to a temporary file, moved in place by {@link #complete(DataOutputStream, File)}.
+     */
+    static DataOutputStream create(File target, String magic) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        var out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(partFile(target)), 1 << 16), 1 << 16));
+        out.writeUTF(magic);
+        return out;
+    }
+
+    static void complete(DataOutputStream out, File target) throws IOException {
+        out.close();
+        Files.move(partFile(target).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static DataInputStream open(File source, String magic) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(source), 1 << 16), 1 << 16));
+        if (!magic.equals(in.readUTF())) {
+            in.close();
+            throw new IOException("Not a " + magic + " checkpoint: " + source);
+        }
+        return in;
+    }
+
+    private static File partFile(File target) {
+        return new File(target.getPath() + ".part");
+    }
+
+    static void writeRefs(DataOutputStream out, LongRefSet refs) throws IOException {
+        out.writeLong(refs.size());
+        try {
+            refs.forEach(ref -> {
+                try {
+                    out.writeLong(ref);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void readRefs(DataInputStream in, LongRefSet refs) throws IOException {
+        for (long i = in.readLong(); i > 0; i--) {
+            refs.add(in.readLong());
+        }
+    }
+
+    static void writeNodes(DataOutputStream out, NodeStore nodes) throws IOException {
+        out.writeLong(nodes.size());
+        try {
+            nodes.forEach((id, lat, lon) -> {
+                try {
+                    out.writeLong(id);
+                    out.writeDouble(lat);
+                    out.writeDouble(lon);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void readNodes(DataInputStream in, NodeStore nodes) throws IOException {
+        for (long i = in.readLong(); i > 0; i--) {
+            nodes.put(in.readLong(), in.readDouble(), in.readDouble());
+        }
+    }
+
+    static void writeEntity(DataOutputStream out, OSMWithTags entity) throws IOException {
+        if (entity instanceof OSMNode node) {
+            out.writeByte(NODE);
+            out.writeLong(node.getId());
+            out.writeDouble(node.getLat());
+            out.writeDouble(node.getLon());
+        } else if (entity instanceof OSMWay way) {
+            out.writeByte(WAY);
+            out.writeLong(way.getId());
+            out.writeInt(way.getNodeRefs().size());
+            for (long nodeRef : way.getNodeRefs()) {
+                out.writeLong(nodeRef);
+            }
+        } else if (entity instanceof OSMRelation relation) {
+            out.writeByte(RELATION);
+            out.writeLong(relation.getId());
+            out.writeInt(relation.getMembers().size());
+            for (OSMRelationMember member : relation.getMembers()) {
+                out.writeUTF(member.type());
+                out.writeLong(member.ref());
+                out.writeUTF(member.role() != null ? member.role() : "");
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown entity: " + entity);
+        }
+
+        out.writeInt(entity.getTags().size());
+        for (Map.Entry<String, String> tag : entity.getTags().entrySet()) {
+            out.writeUTF(tag.getKey());
+            out.writeUTF(tag.getValue());
+        }
+    }
+
+    /**
+     * The next entity, or null at the end marker.
+     */
+    static OSMWithTags readEntity(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        OSMWithTags entity = switch (type) {
+            case END -> null;
+            case NODE -> new OSMNode(in.readLong(), in.readDouble(), in.readDouble());
+            case WAY -> {
+                var way = new OSMWay(in.readLong());
+                for (int i = in.readInt(); i > 0; i--) {
+                    way.addNodeRef(in.readLong());
+                }
+                yield way;
+            }
+            case RELATION -> {
+                var relation = new OSMRelation(in.readLong());
+                for (int i = in.readInt(); i > 0; i--) {
+                    relation.addMember(new OSMRelationMember(in.readUTF(), in.readLong(), in.readUTF()));
+                }
+                yield relation;
+            }
+            default -> throw new IOException("Unknown entity type " + type);
+        };
+
+        if (entity != null) {
+            for (int i = in.readInt(); i > 0; i--) {
+                entity.addTag(in.readUTF(), in.readUTF());
+            }
+        }
+        return entity;
+    }
+}
@@ -1,11 +1,14 @@
 package org.entur.basmu.osm.mapper;
 
 import com.google.common.collect.ArrayListMultimap;
-import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.metrics.jfr.RingAssemblyFailureEvent;
 import org.entur.basmu.osm.model.OSMWay;
 import org.entur.basmu.osm.model.Ring;
+import org.entur.basmu.osm.store.NodeStore;
 import org.entur.geocoder.model.GeoPoint;
 import org.locationtech.jts.geom.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.function.*;
@@ -15,6 +18,8 @@ import java.util.stream.Stream;
 
 public class MappingUtil {
 
+    private static final Logger logger = LoggerFactory.getLogger(MappingUtil.class);
+
     /**
      * Minimum distance between outer polygons/rings in a relations, distance unit is min/sec
      */
@@ -27,6 +32,14 @@ public class MappingUtil {
      * If not, the centroid of the corresponding multipoint is used.
      */
     public static GeoPoint toCentroid(List<Coordinate> coordinates) {
+        Coordinate centroid = toCentroidCoordinate(coordinates);
+        return new GeoPoint(centroid.getY(), centroid.getX());
+    }
+
+    /**
+     * Same as {@link #toCentroid(List)}, as a coordinate (x = lon, y = lat).
+     */
+    public static Coordinate toCentroidCoordinate(List<Coordinate> coordinates) {
         Point centroid;
         try {
             centroid = new GeometryFactory()
@@ -35,7 +48,43 @@ public class MappingUtil {
             centroid = new GeometryFactory()
                     .createMultiPointFromCoords(coordinates.toArray(new Coordinate[0])).getCentroid();
         }
-        return new GeoPoint(centroid.getY(), centroid.getX());
+        return centroid.getCoordinate();
+    }
+
+    /**
+     * Interior point (x = lon, y = lat) of the multipolygon made of the rings of the inner and outer ways,
+     * or null if the outer rings can not be built or are too far apart.
+     * <p>
+     * Failures are recorded as {@link RingAssemblyFailureEvent}s.
+     */
+    public static Coordinate toMultipolygonInteriorPoint(List<OSMWay> innerWays,
+                                                         List<OSMWay> outerWays,
+                                                         NodeStore nodes) {
+
+        var outerPolygons = makeMultiPolygonsForOSMWays(outerWays, nodes);
+
+        if (outerPolygons.isEmpty()) {
+            return null;
+        }
+        if (checkPolygonProximity(outerPolygons)) {
+            RingAssemblyFailureEvent.commit("Outer rings too far apart", outerWays.size(), outerWays.get(0).getId());
+            return null;
+        }
+
+        var innerPolygons = makeMultiPolygonsForOSMWays(innerWays, nodes);
+
+        try {
+            var multiPolygon = new GeometryFactory().createMultiPolygon(
+                    Stream.of(outerPolygons, innerPolygons)
+                            .flatMap(Collection::stream)
+                            .toArray(Polygon[]::new)
+            );
+            return multiPolygon.getInteriorPoint().getCoordinate();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to find centroid" + e);
+            RingAssemblyFailureEvent.commit("Invalid multipolygon: " + e.getMessage(), outerWays.size(), outerWays.get(0).getId());
+            return null;
+        }
     }
 
     public static boolean checkPolygonProximity(List<Polygon> outerPolygons) {
@@ -56,16 +105,27 @@ public class MappingUtil {
         return outerIgnorePolygons;
     }
 
-    public static List<Polygon> makeMultiPolygonsForOSMWays(List<OSMWay> osmWays, Map<Long, OSMNode> nodesMap) {
+    public static List<Polygon> makeMultiPolygonsForOSMWays(List<OSMWay> osmWays, NodeStore nodes) {
         final List<Ring> outerRingNodes = MappingUtil.constructRings(osmWays);
 
         return outerRingNodes.stream()
-                .map(ring -> makePolygon(ring, nodesMap))
+                .map(ring -> makePolygon(ring, nodes))
                 .filter(Objects::nonNull)
                 .toList();
     }
 
     public static List<Ring> constructRings(List<OSMWay> ways) {
+        return constructRings(ways, true);
+    }
+
+    /**
+     * Number of rings the ways can be assembled into, without recording failures again.
+     */
+    static int countRings(List<OSMWay> ways) {
+        return constructRings(ways, false).size();
+    }
+
+    private static List<Ring> constructRings(List<OSMWay> ways, boolean recordFailures) {
         if (ways.isEmpty()) {
             return Collections.emptyList();
         }
@@ -85,6 +145,10 @@ public class MappingUtil {
                 .collect(PartialRingsCollector());
 
         if (!isValidPartialRings(partialRings)) {
+            if (recordFailures) {
+                RingAssemblyFailureEvent.commit("Ring endpoints not shared by exactly two ways",
+                        ways.size(), ways.get(0).getId());
+            }
             return Collections.emptyList();
         }
 
@@ -168,16 +232,23 @@ public class MappingUtil {
         );
     }
 
-    private static Polygon makePolygon(Ring ring, Map<Long, OSMNode> nodes) {
+    private static Polygon makePolygon(Ring ring, NodeStore nodes) {
 
         Coordinate[] coordinates = ring.getClosedRingNodeRefs().stream()
                 .map(nodes::get)
-                .map(node -> new Coordinate(node.getLon(), node.getLat()))
                 .toArray(Coordinate[]::new);
 
+        // Nodes outside the file or the area of interest
+        if (Arrays.asList(coordinates).contains(null)) {
+            RingAssemblyFailureEvent.commit("Ring with missing nodes", ring.ways().size(), ring.ways().get(0).getId());
+            return null;
+        }
+
         try {
             return new GeometryFactory().createPolygon(coordinates);
         } catch (IllegalArgumentException illegalArgumentException) {
+            RingAssemblyFailureEvent.commit("Invalid ring: " + illegalArgumentException.getMessage(),
+                    ring.ways().size(), ring.ways().get(0).getId());
             // TODO: Uncomment
 //            logger.debug("Unable to create polygon: " + illegalArgumentException.getMessage());
             return null;
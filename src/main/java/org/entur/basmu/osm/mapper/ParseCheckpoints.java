@@ -0,0 +1,21 @@
+package org.entur.basmu.osm.mapper;
+
+import java.io.File;
+
+/**
+ * Files the content handler state is checkpointed to between the passes over a PBF file, so that a run
+ * restarted with the same input can resume after the last completed pass.
+ * <p>
+ * References: the multipolygon relations, their ways and the reference sets after the first two passes.
+ * Nodes: the node store for the multipolygon relations after the third pass, written after the documents
+ * of the nodes and ways mapped in the third pass. A checkpoint file only exists once it is completely written.
+ */
+public record ParseCheckpoints(File references, File nodes, File documents) {
+
+    public static ParseCheckpoints in(File directory) {
+        return new ParseCheckpoints(
+                new File(directory, "references.bin.gz"),
+                new File(directory, "nodes.bin.gz"),
+                new File(directory, "documents.bin.gz"));
+    }
+}
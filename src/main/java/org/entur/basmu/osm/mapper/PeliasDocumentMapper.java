@@ -21,25 +21,41 @@ public class PeliasDocumentMapper {
     private final long popularity;
     private final List<String> typeFilter;
     private final List<PointOfInterestFilter> pointOfInterestFilters;
+    private final boolean singleDocumentPerPlace;
 
     public PeliasDocumentMapper(long popularity,
                                 List<String> typeFilter,
                                 List<PointOfInterestFilter> pointOfInterestFilters) {
+        this(popularity, typeFilter, pointOfInterestFilters, false);
+    }
+
+    /**
+     * @param singleDocumentPerPlace map each place to a single document with the display name as default name,
+     *                               instead of one document per name
+     */
+    public PeliasDocumentMapper(long popularity,
+                                List<String> typeFilter,
+                                List<PointOfInterestFilter> pointOfInterestFilters,
+                                boolean singleDocumentPerPlace) {
         this.popularity = popularity;
         this.typeFilter = typeFilter;
         this.pointOfInterestFilters = pointOfInterestFilters;
+        this.singleDocumentPerPlace = singleDocumentPerPlace;
     }
 
     /**
-     * TODO: Kan dette gjøres nå ???
-     * Map single place hierarchy to (potentially) multiple pelias documents, one per alias/alternative name.
-     * Pelias does not yet support queries in multiple languages / for aliases.
-     * When support for this is ready this mapping should be refactored to produce a single document per place hierarchy.
+     * Map single place hierarchy to (potentially) multiple pelias documents, one per alias/alternative name,
+     * or to a single document if singleDocumentPerPlace is set. All documents of a place have all names of the
+     * place as alternative names by language, which Pelias can query, so the single document is found by the
+     * same names.
      */
     public List<PeliasDocument> map(OSMWithTags entity, GeoPoint centroid) {
         if (!isFilterMatch(entity)) {
             return Collections.emptyList();
         }
+        if (singleDocumentPerPlace) {
+            return List.of(createPeliasDocument(makeID(0, entity.getId()), getDisplayName(entity), centroid, entity));
+        }
         var count = new AtomicInteger();
         return getNames(entity).stream()
                 .map(entityName -> {
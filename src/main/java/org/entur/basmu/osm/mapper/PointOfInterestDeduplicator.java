@@ -0,0 +1,234 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.model.OSMWithTags;
+import org.entur.geocoder.model.PeliasDocument;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Drops the documents of a point of interest mapped both from a node and from a way or relation, e.g. a shop
+ * tagged on a node and on its building. Entities of different types are duplicates if they have the same
+ * normalized name and the same matching filter tags, and are within the distance of each other. Of duplicates,
+ * the entity with the most tags is kept, or the first one added if they have as many tags.
+ * <p>
+ * Candidates are found in a grid of cells as large as the distance, so only the neighbouring cells are compared.
+ * <p>
+ * The documents of an entity are passed on to the sink as soon as no entity of another type with the same key
+ * can be added later, as known from the keys passed to {@link #expect(OSMWithTags)} for the types marked by
+ * {@link #expectedAll(String)}, and from the types marked by {@link #addedAll(String)}. The documents of the other
+ * entities are kept until {@link #flush()}.
+ */
+class PointOfInterestDeduplicator {
+
+    private static final double METERS_PER_DEGREE = 111_320;
+    private static final int ALL_TYPES = 7;
+
+    private final double distanceMeters;
+    private final double cellDegrees;
+    private final List<PointOfInterestFilter> pointOfInterestFilters;
+    private final Consumer<PeliasDocument> sink;
+
+    private final List<Candidate> candidates = new ArrayList<>();
+    private final Map<Cell, List<Candidate>> grid = new HashMap<>();
+    private final Map<String, Long> duplicates = new LinkedHashMap<>();
+
+    private final Map<String, Integer> expectedTypes = new HashMap<>();
+    private int expectedAllTypes;
+    private int addedAllTypes;
+    private long keptBack;
+
+    PointOfInterestDeduplicator(double distanceMeters,
+                                List<PointOfInterestFilter> pointOfInterestFilters,
+                                Consumer<PeliasDocument> sink) {
+        this.distanceMeters = distanceMeters;
+        this.cellDegrees = distanceMeters / METERS_PER_DEGREE;
+        this.pointOfInterestFilters = pointOfInterestFilters;
+        this.sink = sink;
+    }
+
+    /**
+     * Note the key of an entity that may be added later.
+     */
+    void expect(OSMWithTags entity) {
+        String key = key(entity);
+        if (key != null) {
+            expectedTypes.merge(key, typeBit(entityType(entity)), (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * All entities of the type that may be added have been passed to {@link #expect(OSMWithTags)}.
+     */
+    void expectedAll(String type) {
+        expectedAllTypes |= typeBit(type);
+    }
+
+    /**
+     * No more entities of the type are added.
+     */
+    void addedAll(String type) {
+        addedAllTypes |= typeBit(type);
+    }
+
+    void add(OSMWithTags entity, double lat, double lon, List<PeliasDocument> documents) {
+        String type = entityType(entity);
+        String key = key(entity);
+        if (key == null) {
+            documents.forEach(sink);
+            return;
+        }
+        var candidate = new Candidate(type, entity.getTags().size(), lat, lon, documents);
+        Candidate duplicate = findDuplicate(key, candidate);
+        if (duplicate != null) {
+            if (candidate.tagCount <= duplicate.tagCount) {
+                drop(candidate);
+                return;
+            }
+            drop(duplicate);
+            grid.get(cell(key, duplicate)).remove(duplicate);
+        }
+        // Entities that no entity added later can drop are neither kept back nor compared again
+        if (mayBeAddedLater(key, type)) {
+            candidates.add(candidate);
+            keptBack++;
+            grid.computeIfAbsent(cell(key, candidate), k -> new ArrayList<>()).add(candidate);
+        } else {
+            documents.forEach(sink);
+        }
+    }
+
+    /**
+     * The first entity of another type in the neighbouring cells within the distance, if any.
+     */
+    private Candidate findDuplicate(String key, Candidate candidate) {
+        int x = (int) Math.floor(candidate.lon / cellDegrees);
+        int y = (int) Math.floor(candidate.lat / cellDegrees);
+        // Cells are narrower than the distance away from the equator
+        int dx = (int) Math.ceil(1 / Math.max(Math.cos(Math.toRadians(candidate.lat)), 0.01));
+        for (int i = x - dx; i <= x + dx; i++) {
+            for (int j = y - 1; j <= y + 1; j++) {
+                List<Candidate> cell = grid.get(new Cell(key, i, j));
+                if (cell == null) {
+                    continue;
+                }
+                for (Candidate other : cell) {
+                    if (!other.type.equals(candidate.type) && isWithinDistance(candidate, other)) {
+                        return other;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private Cell cell(String key, Candidate candidate) {
+        return new Cell(key, (int) Math.floor(candidate.lon / cellDegrees), (int) Math.floor(candidate.lat / cellDegrees));
+    }
+
+    /**
+     * Whether an entity of another type with the key may still be added, which could drop the entity.
+     */
+    private boolean mayBeAddedLater(String key, String type) {
+        int otherTypes = ALL_TYPES & ~typeBit(type) & ~addedAllTypes;
+        int unknownTypes = otherTypes & ~expectedAllTypes;
+        return unknownTypes != 0 || (otherTypes & expectedTypes.getOrDefault(key, 0)) != 0;
+    }
+
+    /**
+     * Pass the documents of the entities that were kept back and are not dropped to the sink, in the order the
+     * entities were added. Called when all entities are added.
+     */
+    void flush() {
+        candidates.stream()
+                .filter(candidate -> candidate.documents != null)
+                .forEach(candidate -> candidate.documents.forEach(sink));
+        candidates.clear();
+        grid.clear();
+    }
+
+    /**
+     * Entities kept back until {@link #flush()}, including those dropped later.
+     */
+    long getKeptBack() {
+        return keptBack;
+    }
+
+    /**
+     * Entities dropped as duplicates, per entity type.
+     */
+    Map<String, Long> getDuplicates() {
+        return duplicates;
+    }
+
+    private void drop(Candidate candidate) {
+        candidate.documents = null;
+        duplicates.merge(candidate.type, 1L, Long::sum);
+    }
+
+    private boolean isWithinDistance(Candidate a, Candidate b) {
+        double x = Math.toRadians(b.lon - a.lon) * Math.cos(Math.toRadians((a.lat + b.lat) / 2));
+        double y = Math.toRadians(b.lat - a.lat);
+        return Math.sqrt(x * x + y * y) * 6_371_000 <= distanceMeters;
+    }
+
+    /**
+     * The normalized name and the matching filter tags, or null if the entity has no name.
+     */
+    private String key(OSMWithTags entity) {
+        String name = entity.getAssumedName();
+        if (name == null) {
+            return null;
+        }
+        var key = new StringBuilder(Normalizer.normalize(name, Normalizer.Form.NFKD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .trim());
+        for (PointOfInterestFilter filter : pointOfInterestFilters) {
+            String value = entity.getTags().get(filter.key());
+            if (value != null && filter.getTagWithName(value) != null) {
+                key.append('|').append(filter.key()).append('=').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    private static String entityType(OSMWithTags entity) {
+        if (entity instanceof OSMNode) {
+            return "node";
+        }
+        return entity instanceof OSMWay ? "way" : "relation";
+    }
+
+    private static int typeBit(String type) {
+        return switch (type) {
+            case "node" -> 1;
+            case "way" -> 2;
+            default -> 4;
+        };
+    }
+
+    private record Cell(String key, int x, int y) {
+    }
+
+    private static final class Candidate {
+        private final String type;
+        private final int tagCount;
+        private final double lat;
+        private final double lon;
+        private List<PeliasDocument> documents;
+
+        private Candidate(String type, int tagCount, double lat, double lon, List<PeliasDocument> documents) {
+            this.type = type;
+            this.tagCount = tagCount;
+            this.lat = lat;
+            this.lon = lon;
+            this.documents = documents;
+        }
+    }
+}
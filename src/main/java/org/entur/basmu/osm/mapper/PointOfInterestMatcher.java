@@ -0,0 +1,34 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.model.OSMWithTags;
+
+import java.util.List;
+
+/**
+ * Matches named OSM entities against the POI filters.
+ */
+public class PointOfInterestMatcher {
+
+    private static final String TAG_NAME = "name";
+
+    private final List<PointOfInterestFilter> pointOfInterestFilters;
+
+    public PointOfInterestMatcher(List<PointOfInterestFilter> pointOfInterestFilters) {
+        this.pointOfInterestFilters = pointOfInterestFilters;
+    }
+
+    public static boolean isNamed(OSMWithTags entity) {
+        return entity.hasTag(TAG_NAME);
+    }
+
+    public boolean matches(OSMWithTags entity) {
+        if (!isNamed(entity)) {
+            return false;
+        }
+
+        return pointOfInterestFilters.stream()
+                .filter(poiFilter -> entity.getTags().containsKey(poiFilter.key()))
+                .anyMatch(poiFilter -> poiFilter.getTagWithName(entity.getTags().get(poiFilter.key())) != null);
+    }
+}
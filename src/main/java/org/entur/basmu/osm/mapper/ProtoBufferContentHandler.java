@@ -1,17 +1,27 @@
 package org.entur.basmu.osm.mapper;
 
+import org.entur.basmu.area.AreaOfInterest;
+import org.entur.basmu.metrics.jfr.SlowRelationEvent;
 import org.entur.basmu.osm.domain.PointOfInterestFilter;
 import org.entur.basmu.osm.model.*;
+import org.entur.basmu.osm.store.LongRefSet;
+import org.entur.basmu.osm.store.MemoryBudget;
+import org.entur.basmu.osm.store.NodeStore;
+import org.entur.basmu.osm.store.OSMStoreFactory;
+import org.entur.basmu.shard.Shard;
 import org.entur.geocoder.model.GeoPoint;
 import org.entur.geocoder.model.PeliasDocument;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Envelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -22,82 +32,264 @@ import java.util.stream.Stream;
  */
 public class ProtoBufferContentHandler {
     private static final Logger logger = LoggerFactory.getLogger(ProtoBufferContentHandler.class);
-    private static final String TAG_NAME = "name";
 
-    private final BlockingQueue<PeliasDocument> peliasDocumentQueue;
+    public static final long DEFAULT_SLOW_RELATION_THRESHOLD_MS = 100;
+
+    private final Consumer<PeliasDocument> documentSink;
+    private final PointOfInterestMatcher pointOfInterestMatcher;
     private final List<PointOfInterestFilter> pointOfInterestFilters;
-    private final Map<Long, OSMNode> nodesMapForWays = new HashMap<>();
+    private final MemoryBudget memoryBudget;
+
+    private final List<CandidateListener> candidateListeners = new ArrayList<>();
+    private boolean collectAllNamedEntities;
+
+    private OSMStoreFactory storeFactory;
+
+    private LongRefSet nodeRefsForWays;
+    private LongRefSet nodeRefsForMultipolygonRelations;
+    private LongRefSet wayRefsForMultipolygonRelations;
+    private LongRefSet wayRefsForMatchingMultipolygonRelations;
 
-    private final Set<Long> nodeRefsForWays = new HashSet<>();
-    private final Set<Long> nodeRefsForMultipolygonRelations = new HashSet<>();
-    private final Set<Long> wayRefsForMultipolygonRelations = new HashSet<>();
+    private NodeStore nodesForWays;
+    private NodeStore nodesForMultipolygonRelations;
 
     private final Map<Long, OSMRelation> multiPolygonRelationsMap = new HashMap<>();
     private final Map<Long, OSMWay> waysMapForMultipolygonRelations = new HashMap<>();
-    private final Map<Long, OSMNode> nodesMapForMultipolygonRelations = new HashMap<>();
 
     private final PeliasDocumentMapper peliasDocumentMapper;
 
     private boolean gatherNodesUsedInWaysPhase = true;
 
-    public ProtoBufferContentHandler(BlockingQueue<PeliasDocument> peliasDocumentQueue,
+    private boolean referencesFromCheckpoint;
+
+    private Shard shard = Shard.SINGLE;
+
+    private DataOutputStream documentsCheckpoint;
+
+    private PointOfInterestDeduplicator deduplicator;
+
+    private AreaOfInterest areaOfInterest = AreaOfInterest.EVERYWHERE;
+
+    private long slowRelationThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_RELATION_THRESHOLD_MS);
+
+    private long nodesSeen;
+    private long nodesMatched;
+    private long waysSeen;
+    private long waysMatched;
+    private long relationsSeen;
+    private long relationsMatched;
+    private long waysLostToMargin;
+    private final Map<String, Long> documentsEmitted = new HashMap<>();
+    private final Map<String, Long> clipped = new HashMap<>();
+
+    public ProtoBufferContentHandler(Consumer<PeliasDocument> documentSink,
+                                     List<PointOfInterestFilter> pointOfInterestFilters,
+                                     long poiBoost,
+                                     List<String> poiFilter,
+                                     MemoryBudget memoryBudget) {
+        this(documentSink, pointOfInterestFilters, poiBoost, poiFilter, false, memoryBudget);
+    }
+
+    /**
+     * @param documentSink receives the documents of nodes and ways as they are mapped in the third pass, and
+     *                     those of relations when the third pass is done
+     */
+    public ProtoBufferContentHandler(Consumer<PeliasDocument> documentSink,
                                      List<PointOfInterestFilter> pointOfInterestFilters,
                                      long poiBoost,
-                                     List<String> poiFilter) {
-        this.peliasDocumentQueue = peliasDocumentQueue;
+                                     List<String> poiFilter,
+                                     boolean singleDocumentPerPlace,
+                                     MemoryBudget memoryBudget) {
+        this.documentSink = documentSink;
+        this.pointOfInterestMatcher = new PointOfInterestMatcher(pointOfInterestFilters);
         this.pointOfInterestFilters = pointOfInterestFilters;
-        this.peliasDocumentMapper = new PeliasDocumentMapper(poiBoost, poiFilter, pointOfInterestFilters);
+        this.memoryBudget = memoryBudget;
+        this.peliasDocumentMapper = new PeliasDocumentMapper(poiBoost, poiFilter, pointOfInterestFilters, singleDocumentPerPlace);
+    }
+
+    /**
+     * Must be added before parsing.
+     */
+    public void addCandidateListener(CandidateListener candidateListener) {
+        candidateListeners.add(candidateListener);
+        collectAllNamedEntities |= candidateListener.collectsAllNamedEntities();
+    }
+
+    /**
+     * Called with the header of each pass. The stores are chosen on the first pass, sorted primitive arrays
+     * if the file declares Sort.Type_then_ID, hash based collections otherwise.
+     */
+    public void setSortedInput(boolean sortedInput) {
+        if (storeFactory != null) {
+            return;
+        }
+        logger.info(sortedInput
+                ? "Input is sorted by type and id, using sorted arrays for node and way lookups"
+                : "Input is not sorted by type and id, using hash maps for node and way lookups");
+
+        storeFactory = new OSMStoreFactory(sortedInput, memoryBudget);
+        nodeRefsForWays = storeFactory.newRefSet("nodeRefsForWays");
+        nodeRefsForMultipolygonRelations = storeFactory.newRefSet("nodeRefsForMultipolygonRelations");
+        wayRefsForMultipolygonRelations = storeFactory.newRefSet("wayRefsForMultipolygonRelations");
+        wayRefsForMatchingMultipolygonRelations = collectAllNamedEntities || !shard.isSingle()
+                ? storeFactory.newRefSet("wayRefsForMatchingMultipolygonRelations")
+                : wayRefsForMultipolygonRelations;
+    }
+
+    /**
+     * Only map the nodes, ways and relations owned by the shard. Ways of matching multipolygon relations
+     * owned by other shards are still left to those relations. Must be set before parsing.
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Only map the entities with their point inside the area, and only keep the nodes within its margin.
+     * Must be set before parsing.
+     */
+    public void setAreaOfInterest(AreaOfInterest areaOfInterest) {
+        this.areaOfInterest = areaOfInterest;
+    }
+
+    public boolean isClipping() {
+        return !areaOfInterest.isEverywhere();
+    }
+
+    /**
+     * Skip a block of nodes if none of them can be kept for the area of interest, counting them as clipped.
+     *
+     * @return true if the block is skipped
+     */
+    public boolean skipNodes(Envelope extent, int nodeCount) {
+        if (areaOfInterest.keepsNodesWithin(extent)) {
+            return false;
+        }
+        nodesSeen += nodeCount;
+        clipped.merge("node", (long) nodeCount, Long::sum);
+        return true;
+    }
+
+    /**
+     * Drop the documents of nodes and ways or relations with the same name and filter tags within the distance,
+     * see {@link PointOfInterestDeduplicator}. Disabled if the distance is not positive.
+     */
+    public void setDedupDistanceMeters(double dedupDistanceMeters) {
+        deduplicator = dedupDistanceMeters > 0
+                ? new PointOfInterestDeduplicator(dedupDistanceMeters, pointOfInterestFilters, documentSink)
+                : null;
+    }
+
+    /**
+     * Multipolygon relations taking longer than this to process are recorded as {@link SlowRelationEvent}s.
+     */
+    public void setSlowRelationThresholdMs(long slowRelationThresholdMs) {
+        this.slowRelationThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowRelationThresholdMs);
     }
 
     public void doneSecondPhaseWays() {
         gatherNodesUsedInWaysPhase = false;
+        if (deduplicator != null) {
+            // The ways are only known if the second pass was not skipped
+            multiPolygonRelationsMap.values().forEach(deduplicator::expect);
+            deduplicator.expectedAll("relation");
+            if (!referencesFromCheckpoint) {
+                deduplicator.expectedAll("way");
+            }
+        }
+        nodesForWays = storeFactory.newNodeStore("nodesForWays", nodeRefsForWays);
+        nodesForMultipolygonRelations = storeFactory.newNodeStore("nodesForMultipolygonRelations", nodeRefsForMultipolygonRelations);
     }
 
     public void doneThirdPhaseNodes() {
+        if (deduplicator != null) {
+            deduplicator.addedAll("node");
+            deduplicator.addedAll("way");
+        }
         processMultipolygonRelations();
+        if (deduplicator != null) {
+            deduplicator.flush();
+        }
+    }
+
+    /**
+     * The state kept in the checkpoints, see {@link CheckpointIO}. Checkpoints are not supported with candidate
+     * listeners, which would miss the candidates of the skipped passes.
+     */
+    CheckpointIO.State checkpointState() {
+        if (!candidateListeners.isEmpty()) {
+            throw new IllegalStateException("Checkpoints are not supported with candidate listeners");
+        }
+        return new CheckpointState();
     }
 
     public void addNode(OSMNode osmNode) {
-        if (matchesFilter(osmNode)) {
-            peliasDocumentQueue.addAll(peliasDocumentMapper.map(osmNode, new GeoPoint(osmNode.getLat(), osmNode.getLon())));
+        nodesSeen++;
+        if (!areaOfInterest.keepsNode(osmNode.getLat(), osmNode.getLon())) {
+            clipped.merge("node", 1L, Long::sum);
+            return;
+        }
+        if (isCandidate(osmNode) && shard.owns(osmNode.getId())) {
+            addPointOfInterest(osmNode, new Coordinate(osmNode.getLon(), osmNode.getLat()), true);
         }
 
         if (nodeRefsForWays.contains(osmNode.getId())) {
-            nodesMapForWays.put(osmNode.getId(), osmNode);
+            nodesForWays.put(osmNode.getId(), osmNode.getLat(), osmNode.getLon());
         }
 
-        if (nodesMapForMultipolygonRelations.containsKey(osmNode.getId())) {
+        if (nodesForMultipolygonRelations.contains(osmNode.getId())) {
             return;
         }
 
         if (nodeRefsForMultipolygonRelations.contains(osmNode.getId())) {
-            nodesMapForMultipolygonRelations.put(osmNode.getId(), osmNode);
+            nodesForMultipolygonRelations.put(osmNode.getId(), osmNode.getLat(), osmNode.getLon());
         }
     }
 
     public void addWay(OSMWay osmWay) {
+        if (!gatherNodesUsedInWaysPhase) {
+            waysSeen++;
+        }
         var wayId = osmWay.getId();
-        if (waysMapForMultipolygonRelations.containsKey(wayId)) {
+        var memberOfMultipolygonRelation = waysMapForMultipolygonRelations.containsKey(wayId);
+        if (memberOfMultipolygonRelation && !collectAllNamedEntities) {
             return;
         }
 
         // TODO: I think, this needs to be done only when gatherNodesUsedInWaysPhase = true
-        if (wayRefsForMultipolygonRelations.contains(wayId)) {
-            if (!gatherNodesUsedInWaysPhase) {
-                logger.debug("waysById = " + waysMapForMultipolygonRelations.containsKey(wayId) + " nodeRefsUsedInRel = " + nodeRefsForMultipolygonRelations.containsAll(osmWay.getNodeRefs()));
+        if (!memberOfMultipolygonRelation && wayRefsForMultipolygonRelations.contains(wayId)) {
+            if (!gatherNodesUsedInWaysPhase && logger.isDebugEnabled()) {
+                logger.debug("waysById = {} nodeRefsUsedInRel = {}", waysMapForMultipolygonRelations.containsKey(wayId),
+                        osmWay.getNodeRefs().stream().allMatch(nodeRefsForMultipolygonRelations::contains));
             }
             waysMapForMultipolygonRelations.put(wayId, osmWay);
             nodeRefsForMultipolygonRelations.addAll(osmWay.getNodeRefs());
         }
 
-        if (matchesFilter(osmWay)) {
+        if (isCandidate(osmWay) && shard.owns(wayId)) {
             if (gatherNodesUsedInWaysPhase) {
                 nodeRefsForWays.addAll(osmWay.getNodeRefs());
+                if (deduplicator != null) {
+                    deduplicator.expect(osmWay);
+                }
             } else {
-                GeoPoint centroid = getCentroid(osmWay);
+                if (deduplicator != null && storeFactory.isSortedInput()) {
+                    // Sorted files have all nodes before the ways
+                    deduplicator.addedAll("node");
+                }
+                Coordinate centroid = getCentroid(osmWay);
                 if (centroid != null) {
-                    List<PeliasDocument> peliasDocuments = peliasDocumentMapper.map(osmWay, centroid);
-                    peliasDocumentQueue.addAll(peliasDocuments);
+                    // Ways of matching multipolygon relations are represented by the relation
+                    addPointOfInterest(osmWay, centroid, !wayRefsForMatchingMultipolygonRelations.contains(wayId));
+                } else if (!areaOfInterest.isEverywhere()) {
+                    // Nodes beyond the margin of the area are not kept
+                    clipped.merge("way", 1L, Long::sum);
+                    if (hasNodeInArea(osmWay)) {
+                        waysLostToMargin++;
+                        logger.debug("Ignoring osmWay {} in the area with nodes beyond the margin", osmWay.getId());
+                    } else {
+                        logger.debug("Ignoring osmWay {} outside the area", osmWay.getId());
+                    }
                 } else {
                     logger.info("Ignoring osmWay with missing nodes: " + osmWay.getAssumedName());
                 }
@@ -106,18 +298,28 @@ public class ProtoBufferContentHandler {
     }
 
     public void addRelation(OSMRelation osmRelation) {
+        relationsSeen++;
         if (!multiPolygonRelationsMap.containsKey(osmRelation.getId())
                 && osmRelation.isTag("type", "multipolygon")
-                && matchesFilter(osmRelation)) {
+                && isCandidate(osmRelation)) {
 
-            wayRefsForMultipolygonRelations.addAll(osmRelation.getMemberRefsOfType("way"));
-            multiPolygonRelationsMap.put(osmRelation.getId(), osmRelation);
+            if (wayRefsForMatchingMultipolygonRelations != wayRefsForMultipolygonRelations
+                    && pointOfInterestMatcher.matches(osmRelation)) {
+                wayRefsForMatchingMultipolygonRelations.addAll(osmRelation.getMemberRefsOfType("way"));
+            }
+            if (shard.owns(osmRelation.getId())) {
+                wayRefsForMultipolygonRelations.addAll(osmRelation.getMemberRefsOfType("way"));
+                multiPolygonRelationsMap.put(osmRelation.getId(), osmRelation);
+            }
         }
     }
 
     private void processMultipolygonRelations() {
         var counter = 0;
         for (OSMRelation relation : multiPolygonRelationsMap.values()) {
+            var slowRelationEvent = new SlowRelationEvent();
+            slowRelationEvent.begin();
+            long startNanos = System.nanoTime();
 
             var innerWaysOfMultipolygonRelation = relation.getMemberRefsForRole("inner").stream()
                     .map(waysMapForMultipolygonRelations::get)
@@ -129,64 +331,286 @@ public class ProtoBufferContentHandler {
                     .filter(Objects::nonNull)
                     .toList();
 
-            GeoPoint centroid = getCentroid(innerWaysOfMultipolygonRelation, outerWaysOfMultipolygonRelation);
+            Coordinate centroid = getCentroid(innerWaysOfMultipolygonRelation, outerWaysOfMultipolygonRelation);
             if (centroid != null) {
-                peliasDocumentQueue.addAll(peliasDocumentMapper.map(relation, centroid));
-                counter++;
+                if (addPointOfInterest(relation, centroid, true)) {
+                    counter++;
+                }
+            } else {
+                // Unresolved relations still shadow their ways when the candidates are mapped later
+                candidateListeners.forEach(listener -> listener.candidate(relation, null));
+            }
+
+            if (System.nanoTime() - startNanos > slowRelationThresholdNanos) {
+                commitSlowRelationEvent(slowRelationEvent, relation,
+                        innerWaysOfMultipolygonRelation, outerWaysOfMultipolygonRelation, centroid != null);
             }
         }
         logger.info("Total {} multipolygon POIs added.", counter);
+
+        candidateListeners.forEach(listener -> listener.complete(
+                waysMapForMultipolygonRelations, nodesForWays, nodesForMultipolygonRelations));
     }
 
-    private GeoPoint getCentroid(List<OSMWay> innerWaysOfMultipolygonRelation,
-                                 List<OSMWay> outerWaysOfMultipolygonRelation) {
+    /**
+     * Rings are only counted for slow relations when the event is enabled, as that means assembling them again.
+     */
+    private static void commitSlowRelationEvent(SlowRelationEvent event,
+                                                OSMRelation relation,
+                                                List<OSMWay> innerWays,
+                                                List<OSMWay> outerWays,
+                                                boolean resolved) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.relationId = relation.getId();
+            event.memberCount = relation.getMembers().size();
+            event.ringCount = MappingUtil.countRings(outerWays) + MappingUtil.countRings(innerWays);
+            event.vertexCount = Stream.of(outerWays, innerWays)
+                    .flatMap(List::stream)
+                    .mapToInt(way -> way.getNodeRefs().size())
+                    .sum();
+            event.resolved = resolved;
+            event.commit();
+        }
+    }
 
-        var outerPolygons =
-                MappingUtil.makeMultiPolygonsForOSMWays(outerWaysOfMultipolygonRelation, nodesMapForMultipolygonRelations);
+    /**
+     * Pass the candidate to the listeners, and map it to pelias documents if it matches the filters.
+     *
+     * @return true if the candidate was mapped
+     */
+    private boolean addPointOfInterest(OSMWithTags entity, Coordinate point, boolean map) {
+        if (!areaOfInterest.contains(point.getY(), point.getX())) {
+            clipped.merge(entityType(entity), 1L, Long::sum);
+            if (entity instanceof OSMRelation) {
+                // Relations outside the area still shadow their ways, as unresolved relations do
+                candidateListeners.forEach(listener -> listener.candidate(entity, null));
+            }
+            return false;
+        }
+        candidateListeners.forEach(listener -> listener.candidate(entity, point));
+        if (collectAllNamedEntities && !pointOfInterestMatcher.matches(entity)) {
+            return false;
+        }
+        countMatched(entity);
+        if (map) {
+            var documents = peliasDocumentMapper.map(entity, new GeoPoint(point.getY(), point.getX()));
+            if (documentsCheckpoint != null) {
+                writeDocumentsCheckpoint(entity, point);
+            }
+            documentsEmitted.merge(entityType(entity), (long) documents.size(), Long::sum);
+            emit(entity, point.getY(), point.getX(), documents);
+        }
+        return map;
+    }
 
-        if (!outerPolygons.isEmpty() && !MappingUtil.checkPolygonProximity(outerPolygons)) {
+    /**
+     * Pass the documents to the sink, through the deduplicator if duplicates are dropped.
+     */
+    private void emit(OSMWithTags entity, double lat, double lon, List<PeliasDocument> documents) {
+        if (deduplicator != null) {
+            deduplicator.add(entity, lat, lon, documents);
+        } else {
+            documents.forEach(documentSink);
+        }
+    }
 
-            var innerPolygons =
-                    MappingUtil.makeMultiPolygonsForOSMWays(innerWaysOfMultipolygonRelation, nodesMapForMultipolygonRelations);
+    private void writeDocumentsCheckpoint(OSMWithTags entity, Coordinate point) {
+        try {
+            CheckpointIO.writeDocument(documentsCheckpoint, entity, point.getY(), point.getX());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write documents checkpoint", e);
+        }
+    }
 
-            try {
-                var multiPolygon = new GeometryFactory().createMultiPolygon(
-                        Stream.of(outerPolygons, innerPolygons)
-                                .flatMap(Collection::stream)
-                                .toArray(Polygon[]::new)
-                );
-                var interiorPoint = multiPolygon.getInteriorPoint();
-                return new GeoPoint(interiorPoint.getY(), interiorPoint.getX());
-            } catch (RuntimeException e) {
-                logger.warn("Unable to find centroid" + e);
-                return null;
-            }
+    private void countMatched(OSMWithTags entity) {
+        if (entity instanceof OSMNode) {
+            nodesMatched++;
+        } else if (entity instanceof OSMWay) {
+            waysMatched++;
+        } else {
+            relationsMatched++;
         }
-        return null;
     }
 
-    private boolean matchesFilter(OSMWithTags entity) {
-        if (!entity.hasTag(TAG_NAME)) {
-            return false;
+    private static String entityType(OSMWithTags entity) {
+        if (entity instanceof OSMNode) {
+            return "node";
+        }
+        return entity instanceof OSMWay ? "way" : "relation";
+    }
+
+    /**
+     * Entities seen in the last pass over them, and matching the filters with a resolved point. Ways with nodes
+     * inside the area that are clipped, as some of their nodes are beyond the margin, are also counted as lost
+     * to the margin.
+     */
+    public Map<String, Long> getEntityCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("node.seen", nodesSeen);
+        counts.put("node.matched", nodesMatched);
+        counts.put("way.seen", waysSeen);
+        counts.put("way.matched", waysMatched);
+        counts.put("relation.seen", relationsSeen);
+        counts.put("relation.matched", relationsMatched);
+        clipped.forEach((type, count) -> counts.put(type + ".clipped", count));
+        if (waysLostToMargin > 0) {
+            counts.put("way.lostToMargin", waysLostToMargin);
+        }
+        if (deduplicator != null) {
+            deduplicator.getDuplicates().forEach((type, count) -> counts.put(type + ".duplicate", count));
+        }
+        return counts;
+    }
+
+    /**
+     * Pelias documents emitted per entity type, alternative names give more than one document per entity.
+     */
+    public Map<String, Long> getDocumentsEmitted() {
+        return documentsEmitted;
+    }
+
+    /**
+     * Sizes of the reference sets, node stores and maps, for the structures created so far.
+     */
+    public Map<String, Long> getStoreSizes() {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        if (storeFactory != null) {
+            sizes.put("nodeRefsForWays", nodeRefsForWays.size());
+            sizes.put("nodeRefsForMultipolygonRelations", nodeRefsForMultipolygonRelations.size());
+            sizes.put("wayRefsForMultipolygonRelations", wayRefsForMultipolygonRelations.size());
         }
+        if (nodesForWays != null) {
+            sizes.put("nodesForWays", nodesForWays.size());
+            sizes.put("nodesForMultipolygonRelations", nodesForMultipolygonRelations.size());
+        }
+        sizes.put("multiPolygonRelationsMap", (long) multiPolygonRelationsMap.size());
+        sizes.put("waysMapForMultipolygonRelations", (long) waysMapForMultipolygonRelations.size());
+        if (deduplicator != null) {
+            sizes.put("deduplicatorKeptBack", deduplicator.getKeptBack());
+        }
+        return sizes;
+    }
 
-        return pointOfInterestFilters.stream()
-                .filter(poiFilter -> entity.getTags().containsKey(poiFilter.key()))
-                .anyMatch(poiFilter -> poiFilter.getTagWithName(entity.getTags().get(poiFilter.key())) != null);
+    /**
+     * Entities that need geometry: those matching the filters, or all named entities if a listener collects them.
+     */
+    private boolean isCandidate(OSMWithTags entity) {
+        return collectAllNamedEntities
+                ? PointOfInterestMatcher.isNamed(entity)
+                : pointOfInterestMatcher.matches(entity);
     }
 
-    private GeoPoint getCentroid(OSMWay osmWay) {
+    private Coordinate getCentroid(List<OSMWay> innerWaysOfMultipolygonRelation,
+                                   List<OSMWay> outerWaysOfMultipolygonRelation) {
+        return MappingUtil.toMultipolygonInteriorPoint(
+                innerWaysOfMultipolygonRelation, outerWaysOfMultipolygonRelation, nodesForMultipolygonRelations);
+    }
+
+    private boolean hasNodeInArea(OSMWay osmWay) {
+        for (Long nodeRef : osmWay.getNodeRefs()) {
+            Coordinate coordinate = nodesForWays.get(nodeRef);
+            if (coordinate != null && areaOfInterest.contains(coordinate.getY(), coordinate.getX())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Coordinate getCentroid(OSMWay osmWay) {
         List<Coordinate> coordinates = new ArrayList<>();
         for (Long nodeRef : osmWay.getNodeRefs()) {
-            OSMNode node = nodesMapForWays.get(nodeRef);
-            if (node != null) {
-                coordinates.add(new Coordinate(node.getLon(), node.getLat()));
+            Coordinate coordinate = nodesForWays.get(nodeRef);
+            if (coordinate != null) {
+                coordinates.add(coordinate);
             }
         }
 
         if (coordinates.size() != osmWay.getNodeRefs().size()) {
             return null;
         }
-        return MappingUtil.toCentroid(coordinates);
+        return MappingUtil.toCentroidCoordinate(coordinates);
+    }
+
+    private final class CheckpointState implements CheckpointIO.State {
+
+        @Override
+        public boolean isSortedInput() {
+            return storeFactory.isSortedInput();
+        }
+
+        @Override
+        public long getRelationsSeen() {
+            return relationsSeen;
+        }
+
+        @Override
+        public void restoreReferences(boolean sortedInput, long relationsSeen) {
+            referencesFromCheckpoint = true;
+            setSortedInput(sortedInput);
+            ProtoBufferContentHandler.this.relationsSeen = relationsSeen;
+        }
+
+        @Override
+        public List<LongRefSet> getRefSets() {
+            return wayRefsForMatchingMultipolygonRelations != wayRefsForMultipolygonRelations
+                    ? List.of(nodeRefsForWays, nodeRefsForMultipolygonRelations, wayRefsForMultipolygonRelations,
+                    wayRefsForMatchingMultipolygonRelations)
+                    : List.of(nodeRefsForWays, nodeRefsForMultipolygonRelations, wayRefsForMultipolygonRelations);
+        }
+
+        @Override
+        public Map<Long, OSMRelation> getMultipolygonRelations() {
+            return multiPolygonRelationsMap;
+        }
+
+        @Override
+        public Map<Long, OSMWay> getMultipolygonWays() {
+            return waysMapForMultipolygonRelations;
+        }
+
+        @Override
+        public void setDocumentsCheckpoint(DataOutputStream out) {
+            documentsCheckpoint = out;
+        }
+
+        @Override
+        public DataOutputStream getDocumentsCheckpoint() {
+            return documentsCheckpoint;
+        }
+
+        @Override
+        public CheckpointIO.NodeCounts getNodeCounts() {
+            return new CheckpointIO.NodeCounts(nodesSeen, nodesMatched, waysSeen, waysMatched);
+        }
+
+        @Override
+        public void restoreNodeCounts(CheckpointIO.NodeCounts counts) {
+            nodesSeen = counts.nodesSeen();
+            nodesMatched = counts.nodesMatched();
+            waysSeen = counts.waysSeen();
+            waysMatched = counts.waysMatched();
+        }
+
+        @Override
+        public Map<String, Long> getDocumentsEmitted() {
+            return documentsEmitted;
+        }
+
+        @Override
+        public NodeStore getNodesForMultipolygonRelations() {
+            return nodesForMultipolygonRelations;
+        }
+
+        @Override
+        public NodeStore createNodesForMultipolygonRelations() {
+            nodesForMultipolygonRelations = storeFactory.newNodeStore("nodesForMultipolygonRelations", nodeRefsForMultipolygonRelations);
+            return nodesForMultipolygonRelations;
+        }
+
+        @Override
+        public void mapDocument(OSMWithTags entity, double lat, double lon) {
+            emit(entity, lat, lon, peliasDocumentMapper.map(entity, new GeoPoint(lat, lon)));
+        }
     }
 }
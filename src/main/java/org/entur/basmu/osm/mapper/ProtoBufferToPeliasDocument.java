@@ -1,8 +1,17 @@
 package org.entur.basmu.osm.mapper;
 
 import crosby.binary.file.BlockInputStream;
-import org.apache.commons.io.IOUtils;
+import org.entur.basmu.area.AreaOfInterest;
 import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.extract.Candidate;
+import org.entur.basmu.osm.extract.CandidateExtractReader;
+import org.entur.basmu.metrics.RunMetrics;
+import org.entur.basmu.osm.incremental.IncrementalState;
+import org.entur.basmu.osm.model.OSMRelation;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.store.MemoryBudget;
+import org.entur.basmu.shard.Shard;
+import org.entur.geocoder.model.GeoPoint;
 import org.entur.geocoder.model.PeliasDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,9 +20,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.ObjectUtils;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -26,9 +36,45 @@ public class ProtoBufferToPeliasDocument {
 
     private final List<String> poiFilter;
 
+    private final boolean singleDocumentPerPlace;
+
+    private final double dedupDistanceMeters;
+
+    private final long memoryBudgetMb;
+
+    private final String basmuWorkDir;
+
+    private final long slowRelationThresholdMs;
+
+    private final int prefetchDepth;
+
+    private final Shard shard;
+
+    private final AreaOfInterest areaOfInterest;
+
+    private final RunMetrics runMetrics;
+
     public ProtoBufferToPeliasDocument(@Value("${pelias.poi.boost:1}") long poiBoost,
-                                       @Value("#{'${pelias.poi.filter:}'.split(',')}") List<String> poiFilter) {
+                                       @Value("#{'${pelias.poi.filter:}'.split(',')}") List<String> poiFilter,
+                                       @Value("${pelias.poi.singleDocumentPerPlace:false}") boolean singleDocumentPerPlace,
+                                       @Value("${pelias.poi.dedupDistanceMeters:0}") double dedupDistanceMeters,
+                                       @Value("${basmu.memory.budget.mb:0}") long memoryBudgetMb,
+                                       @Value("${basmu.workdir:/tmp/basmu/geocoder}") String basmuWorkDir,
+                                       @Value("${basmu.jfr.slowRelationThresholdMs:100}") long slowRelationThresholdMs,
+                                       @Value("${basmu.pbf.prefetchDepth:4}") int prefetchDepth,
+                                       Shard shard,
+                                       AreaOfInterest areaOfInterest,
+                                       RunMetrics runMetrics) {
         this.poiBoost = poiBoost;
+        this.singleDocumentPerPlace = singleDocumentPerPlace;
+        this.dedupDistanceMeters = dedupDistanceMeters;
+        this.runMetrics = runMetrics;
+        this.memoryBudgetMb = memoryBudgetMb;
+        this.basmuWorkDir = basmuWorkDir;
+        this.slowRelationThresholdMs = slowRelationThresholdMs;
+        this.prefetchDepth = prefetchDepth;
+        this.shard = shard;
+        this.areaOfInterest = areaOfInterest;
         if (poiFilter != null) {
             this.poiFilter = poiFilter.stream()
                     .filter(filter -> !ObjectUtils.isEmpty(filter))
@@ -40,45 +86,318 @@ public class ProtoBufferToPeliasDocument {
         }
     }
 
-    public Stream<PeliasDocument> transform(InputStream poiStream, List<PointOfInterestFilter> pointOfInterestFilters) {
+    public long getPoiBoost() {
+        return poiBoost;
+    }
+
+    public List<String> getPoiFilter() {
+        return poiFilter;
+    }
+
+    public boolean isSingleDocumentPerPlace() {
+        return singleDocumentPerPlace;
+    }
+
+    public double getDedupDistanceMeters() {
+        return dedupDistanceMeters;
+    }
+
+    public AreaOfInterest getAreaOfInterest() {
+        return areaOfInterest;
+    }
+
+    /**
+     * Map the points of interest of the PBF file, passing the documents of nodes and ways to the sink as they are
+     * mapped in the last pass over the file, and those of relations after it, so that no document is kept once it
+     * is written. If duplicates are dropped, the documents that may still be dropped are passed on last.
+     */
+    public void transform(File pbfFile,
+                          List<PointOfInterestFilter> pointOfInterestFilters,
+                          Consumer<PeliasDocument> documents) {
+        transform(pbfFile, pointOfInterestFilters, List.of(), null, 1, documents);
+    }
+
+    /**
+     * Same as {@link #transform(File, List, Consumer)}, checkpointing the state between the passes, and
+     * resuming after the last pass with a complete checkpoint. The checkpoints must be from the same input.
+     */
+    public void transform(File pbfFile,
+                          List<PointOfInterestFilter> pointOfInterestFilters,
+                          ParseCheckpoints checkpoints,
+                          Consumer<PeliasDocument> documents) {
+        transform(pbfFile, pointOfInterestFilters, checkpoints, 1, documents);
+    }
+
+    /**
+     * Same as {@link #transform(File, List, ParseCheckpoints, Consumer)}, for one of parallelism files
+     * transformed at the same time, each with an equal share of the memory budget. The checkpoints may be null.
+     */
+    public void transform(File pbfFile,
+                          List<PointOfInterestFilter> pointOfInterestFilters,
+                          ParseCheckpoints checkpoints,
+                          int parallelism,
+                          Consumer<PeliasDocument> documents) {
+        transform(pbfFile, pointOfInterestFilters, List.of(), checkpoints, parallelism, documents);
+    }
+
+    /**
+     * Same as {@link #transform(File, List, Consumer)}, also passing the candidates to the listeners,
+     * e.g. to write a candidate extract that can be transformed with other filters by
+     * {@link #transformCandidateExtract(File, List, Consumer)}.
+     */
+    public void transform(File pbfFile,
+                          List<PointOfInterestFilter> pointOfInterestFilters,
+                          List<CandidateListener> candidateListeners,
+                          Consumer<PeliasDocument> documents) {
+        transform(pbfFile, pointOfInterestFilters, candidateListeners, null, 1, documents);
+    }
+
+    private void transform(File pbfFile,
+                           List<PointOfInterestFilter> pointOfInterestFilters,
+                           List<CandidateListener> candidateListeners,
+                           ParseCheckpoints checkpoints,
+                           int parallelism,
+                           Consumer<PeliasDocument> documents) {
         try {
-            File tmpPoiFile = getFile(poiStream);
-            BlockingQueue<PeliasDocument> queue = new LinkedBlockingDeque<>();
-            addToQueue(queue, tmpPoiFile, pointOfInterestFilters);
-            return queue.stream();
+            parse(pbfFile, pointOfInterestFilters, candidateListeners, checkpoints, parallelism, documents);
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    public void addToQueue(BlockingQueue<PeliasDocument> queue, File file, List<PointOfInterestFilter> pointOfInterestFilters) throws IOException {
-        ProtoBufferContentHandler contentHandler = new ProtoBufferContentHandler(queue, pointOfInterestFilters, poiBoost, poiFilter);
+    /**
+     * Apply the filters to the candidates of an extract, without parsing the PBF file it was written from.
+     */
+    public void transformCandidateExtract(File candidateExtract,
+                                          List<PointOfInterestFilter> pointOfInterestFilters,
+                                          Consumer<PeliasDocument> documents) {
+        transformCandidateExtract(candidateExtract, pointOfInterestFilters, poiBoost, poiFilter, documents);
+    }
+
+    /**
+     * Apply the filters to the candidates of an extract with other pelias.poi.boost and pelias.poi.filter settings,
+     * e.g. those of a filter profile.
+     */
+    public void transformCandidateExtract(File candidateExtract,
+                                          List<PointOfInterestFilter> pointOfInterestFilters,
+                                          long poiBoost,
+                                          List<String> poiFilter,
+                                          Consumer<PeliasDocument> documents) {
+        try {
+            var matcher = new PointOfInterestMatcher(pointOfInterestFilters);
+            var peliasDocumentMapper = new PeliasDocumentMapper(poiBoost, poiFilter, pointOfInterestFilters, singleDocumentPerPlace);
+            var deduplicator = createDeduplicator(pointOfInterestFilters, documents);
+
+            // Ways of matching multipolygon relations are represented by the relation
+            Set<Long> wayRefsForMatchingMultipolygonRelations = new HashSet<>();
+            CandidateExtractReader.read(candidateExtract, candidate -> {
+                if (candidate.entity() instanceof OSMRelation relation && matcher.matches(relation)) {
+                    wayRefsForMatchingMultipolygonRelations.addAll(relation.getMemberRefsOfType("way"));
+                }
+                if (deduplicator != null && isMapped(candidate, matcher)) {
+                    deduplicator.expect(candidate.entity());
+                }
+            });
+            expectedAll(deduplicator);
+
+            CandidateExtractReader.read(candidateExtract, candidate -> {
+                var entity = candidate.entity();
+                if (isMapped(candidate, matcher)
+                        && !(entity instanceof OSMWay && wayRefsForMatchingMultipolygonRelations.contains(entity.getId()))) {
+                    emit(documents, deduplicator, candidate, peliasDocumentMapper.map(entity, toGeoPoint(candidate)));
+                }
+            });
+            if (deduplicator != null) {
+                deduplicator.flush();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Map the candidates of an incremental state, ways of stored multipolygon relations are represented by the relation.
+     */
+    public void transformIncrementalState(IncrementalState state,
+                                          List<PointOfInterestFilter> pointOfInterestFilters,
+                                          Consumer<PeliasDocument> documents) {
+        var matcher = new PointOfInterestMatcher(pointOfInterestFilters);
+        var peliasDocumentMapper = new PeliasDocumentMapper(poiBoost, poiFilter, pointOfInterestFilters, singleDocumentPerPlace);
+        Set<Long> memberWayRefs = state.getMemberWayRefs();
+
+        var deduplicator = createDeduplicator(pointOfInterestFilters, documents);
+        if (deduplicator != null) {
+            candidates(state).filter(candidate -> isMapped(candidate, matcher))
+                    .forEach(candidate -> deduplicator.expect(candidate.entity()));
+            expectedAll(deduplicator);
+        }
+        candidates(state)
+                .filter(candidate -> isMapped(candidate, matcher))
+                .filter(candidate -> !(candidate.entity() instanceof OSMWay && memberWayRefs.contains(candidate.entity().getId())))
+                .forEach(candidate -> emit(documents, deduplicator, candidate, peliasDocumentMapper.map(candidate.entity(), toGeoPoint(candidate))));
+        if (deduplicator != null) {
+            deduplicator.flush();
+        }
+    }
+
+    private static Stream<Candidate> candidates(IncrementalState state) {
+        return Stream.of(state.getNodes(), state.getWays(), state.getRelations())
+                .flatMap(candidates -> candidates.values().stream());
+    }
+
+    /**
+     * Whether the candidate is mapped to documents, unless it is a way represented by its relation.
+     */
+    private boolean isMapped(Candidate candidate, PointOfInterestMatcher matcher) {
+        return candidate.point() != null
+                && areaOfInterest.contains(candidate.point().getY(), candidate.point().getX())
+                && matcher.matches(candidate.entity());
+    }
+
+    private PointOfInterestDeduplicator createDeduplicator(List<PointOfInterestFilter> pointOfInterestFilters,
+                                                           Consumer<PeliasDocument> documents) {
+        return dedupDistanceMeters > 0 ? new PointOfInterestDeduplicator(dedupDistanceMeters, pointOfInterestFilters, documents) : null;
+    }
+
+    /**
+     * The keys of all candidates are known before they are added, so only duplicates are kept back.
+     */
+    private static void expectedAll(PointOfInterestDeduplicator deduplicator) {
+        if (deduplicator != null) {
+            deduplicator.expectedAll("node");
+            deduplicator.expectedAll("way");
+            deduplicator.expectedAll("relation");
+        }
+    }
+
+    private static void emit(Consumer<PeliasDocument> documents,
+                             PointOfInterestDeduplicator deduplicator,
+                             Candidate candidate,
+                             List<PeliasDocument> mapped) {
+        if (deduplicator != null) {
+            deduplicator.add(candidate.entity(), candidate.point().getY(), candidate.point().getX(), mapped);
+        } else {
+            mapped.forEach(documents);
+        }
+    }
+
+    private static GeoPoint toGeoPoint(Candidate candidate) {
+        return new GeoPoint(candidate.point().getY(), candidate.point().getX());
+    }
+
+    private void parse(File file,
+                       List<PointOfInterestFilter> pointOfInterestFilters,
+                       List<CandidateListener> candidateListeners,
+                       ParseCheckpoints checkpoints,
+                       int parallelism,
+                       Consumer<PeliasDocument> documents) throws IOException {
+        ProtoBufferContentHandler contentHandler =
+                new ProtoBufferContentHandler(documents, pointOfInterestFilters, poiBoost, poiFilter, singleDocumentPerPlace, createMemoryBudget(parallelism));
+        contentHandler.setSlowRelationThresholdMs(slowRelationThresholdMs);
+        contentHandler.setShard(shard);
+        contentHandler.setAreaOfInterest(areaOfInterest);
+        contentHandler.setDedupDistanceMeters(dedupDistanceMeters);
+        candidateListeners.forEach(contentHandler::addCandidateListener);
         BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(contentHandler);
 
+        if (checkpoints != null && checkpoints.nodes().exists()) {
+            logger.info("Resuming after the third pass from {}", checkpoints.nodes().getParentFile());
+            CheckpointIO.readReferences(contentHandler.checkpointState(), checkpoints.references());
+            CheckpointIO.readNodes(contentHandler.checkpointState(), checkpoints.documents(), checkpoints.nodes());
+        } else {
+            if (checkpoints != null && checkpoints.references().exists()) {
+                logger.info("Resuming after the second pass from {}", checkpoints.references().getParentFile());
+                CheckpointIO.readReferences(contentHandler.checkpointState(), checkpoints.references());
+            } else {
+                parseRelationsAndWays(parser, file);
+                if (checkpoints != null) {
+                    CheckpointIO.writeReferences(contentHandler.checkpointState(), checkpoints.references());
+                }
+            }
+            contentHandler.doneSecondPhaseWays();
+            recordStoreSizes(contentHandler);
+
+            // Parse nodes and ways
+            if (checkpoints != null) {
+                CheckpointIO.startDocuments(contentHandler.checkpointState(), checkpoints.documents());
+            }
+            var phase = runMetrics.startPhase();
+            parser.setParseRelations(false);
+            parser.setParseWays(true);
+            parser.setParseNodes(true);
+            process(file, parser, "nodes");
+            runMetrics.endPhase(phase, "parse.nodes");
+            if (checkpoints != null) {
+                CheckpointIO.writeNodes(contentHandler.checkpointState(), checkpoints.documents(), checkpoints.nodes());
+            }
+        }
+        recordStoreSizes(contentHandler);
+
+        var phase = runMetrics.startPhase();
+        contentHandler.doneThirdPhaseNodes();
+        runMetrics.endPhase(phase, "multipolygons");
+        recordStoreSizes(contentHandler);
+
+        contentHandler.getEntityCounts().forEach((key, count) -> {
+            String[] typeAndOutcome = key.split("\\.");
+            runMetrics.count(RunMetrics.ENTITIES_COUNTER, count, "type", typeAndOutcome[0], "outcome", typeAndOutcome[1]);
+        });
+        contentHandler.getDocumentsEmitted().forEach((type, count) ->
+                runMetrics.count(RunMetrics.DOCUMENTS_COUNTER, count, "type", type));
+    }
+
+    private void parseRelationsAndWays(BinaryOpenStreetMapParser parser, File file) throws IOException {
         //Parse relations to collect ways first
         parser.setParseWays(false);
         parser.setParseNodes(false);
 
-        new BlockInputStream(new FileInputStream(file), parser).process();
+        var phase = runMetrics.startPhase();
+        process(file, parser, "relations");
         parser.setParseRelations(false);
+        runMetrics.endPhase(phase, "parse.relations");
 
         // Parse ways to collect nodes first
+        phase = runMetrics.startPhase();
         parser.setParseWays(true);
-        new BlockInputStream(new FileInputStream(file), parser).process();
-        contentHandler.doneSecondPhaseWays();
+        process(file, parser, "ways");
+        runMetrics.endPhase(phase, "parse.ways");
+    }
 
-        // Parse nodes and ways
-        parser.setParseNodes(true);
-        new BlockInputStream(new FileInputStream(file), parser).process();
-        contentHandler.doneThirdPhaseNodes();
+    /**
+     * One pass over the file, reading up to basmu.pbf.prefetchDepth blobs ahead of the parser, or reading and
+     * parsing one blob at a time if it is 0.
+     */
+    private void process(File file, BinaryOpenStreetMapParser parser, String pass) throws IOException {
+        if (prefetchDepth <= 0) {
+            try (var blocks = new BlockInputStream(new FileInputStream(file), parser)) {
+                blocks.process();
+            }
+            return;
+        }
+        try (var blocks = new ReadAheadBlockInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16), parser, prefetchDepth)) {
+            blocks.process();
+            runMetrics.count(RunMetrics.READ_AHEAD_STALLS_COUNTER, blocks.getStalls(), "pass", pass);
+            runMetrics.count(RunMetrics.READ_AHEAD_STALL_TIME_COUNTER, TimeUnit.NANOSECONDS.toMillis(blocks.getStallNanos()), "pass", pass);
+            logger.info("Read {} blobs in the {} pass, the parser waited {} times for {} ms", blocks.getBlobCount(), pass,
+                    blocks.getStalls(), TimeUnit.NANOSECONDS.toMillis(blocks.getStallNanos()));
+        }
+    }
+
+    private void recordStoreSizes(ProtoBufferContentHandler contentHandler) {
+        contentHandler.getStoreSizes().forEach((structure, size) ->
+                runMetrics.gauge(RunMetrics.STORE_SIZE_GAUGE, size, "structure", structure));
     }
 
-    private File getFile(InputStream poiStream) throws IOException {
-        File tmpPoiFile = File.createTempFile("tmp", "poi");
-        tmpPoiFile.deleteOnExit();
-        var out = new FileOutputStream(tmpPoiFile);
-        IOUtils.copy(poiStream, out);
-        return tmpPoiFile;
+    /**
+     * Budget for the handler's reference sets and node stores, half of the max heap unless configured,
+     * shared by the files transformed at the same time.
+     */
+    private MemoryBudget createMemoryBudget(int parallelism) {
+        long budgetBytes = (memoryBudgetMb > 0
+                ? memoryBudgetMb << 20
+                : Runtime.getRuntime().maxMemory() / 2) / parallelism;
+        logger.info("Memory budget for node and way lookups is {} MB, spilling to {}", budgetBytes >> 20, basmuWorkDir);
+        return new MemoryBudget(budgetBytes, Paths.get(basmuWorkDir, "spill"));
     }
 }
 
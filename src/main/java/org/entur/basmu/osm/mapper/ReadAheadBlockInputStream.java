@@ -0,0 +1,204 @@
+package org.entur.basmu.osm.mapper;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import crosby.binary.Fileformat;
+import crosby.binary.file.BlockReaderAdapter;
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the blobs of a PBF file like {@link crosby.binary.file.BlockInputStream}, but reads the next blobs from the
+ * input on a separate thread while the current one is inflated and parsed, so that reading and decoding overlap.
+ * <p>
+ * At most prefetchDepth blobs are read ahead, each into a buffer from a pool that is reused for the following
+ * blobs. Times the parser had to wait for the reader are counted as stalls; few stalls mean the parse is CPU bound.
+ */
+class ReadAheadBlockInputStream implements Closeable {
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private record Blob(String type, ByteString indexData, byte[] buffer, int length, IOException failure) {
+
+        static final Blob END = new Blob(null, null, null, 0, null);
+    }
+
+    /**
+     * The position of a blob, only for the type and index data that {@link BlockReaderAdapter#skipBlock} looks at.
+     */
+    private static final class BlobPosition extends FileBlockPosition {
+        private BlobPosition(String type, ByteString indexData) {
+            super(type, indexData);
+        }
+    }
+
+    private final InputStream input;
+    private final BlockReaderAdapter adaptor;
+    private final BlockingQueue<byte[]> buffers;
+    private final BlockingQueue<Blob> blobs;
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "pbf-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Inflater inflater = new Inflater();
+
+    private long blobCount;
+    private long stalls;
+    private long stallNanos;
+
+    ReadAheadBlockInputStream(InputStream input, BlockReaderAdapter adaptor, int prefetchDepth) {
+        this.input = input;
+        this.adaptor = adaptor;
+        this.buffers = new ArrayBlockingQueue<>(prefetchDepth);
+        this.blobs = new ArrayBlockingQueue<>(prefetchDepth + 1);
+        for (int i = 0; i < prefetchDepth; i++) {
+            buffers.add(new byte[0]);
+        }
+    }
+
+    public void process() throws IOException {
+        reader.execute(this::readBlobs);
+        try {
+            while (true) {
+                Blob blob = nextBlob();
+                if (blob == Blob.END) {
+                    break;
+                }
+                if (blob.failure() != null) {
+                    throw blob.failure();
+                }
+                blobCount++;
+                if (adaptor.skipBlock(new BlobPosition(blob.type(), blob.indexData()))) {
+                    buffers.add(blob.buffer());
+                    continue;
+                }
+                Fileformat.Blob content = Fileformat.Blob.parseFrom(ByteBuffer.wrap(blob.buffer(), 0, blob.length()));
+                // The content is copied out of the buffer when it is parsed
+                buffers.add(blob.buffer());
+                adaptor.handleBlock(FileBlock.newInstance(blob.type(), decode(content), blob.indexData()));
+            }
+            adaptor.complete();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private Blob nextBlob() throws InterruptedException {
+        Blob blob = blobs.poll();
+        if (blob == null) {
+            long start = System.nanoTime();
+            blob = blobs.take();
+            stalls++;
+            stallNanos += System.nanoTime() - start;
+        }
+        return blob;
+    }
+
+    private void readBlobs() {
+        var in = new DataInputStream(input);
+        try {
+            while (true) {
+                int headerLength;
+                try {
+                    headerLength = in.readInt();
+                } catch (EOFException ex) {
+                    blobs.put(Blob.END);
+                    return;
+                }
+                if (headerLength < 0 || headerLength > MAX_HEADER_SIZE) {
+                    throw new IOException("Invalid blob header size " + headerLength);
+                }
+                byte[] headerBytes = new byte[headerLength];
+                in.readFully(headerBytes);
+                var header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                if (header.getDatasize() < 0 || header.getDatasize() > MAX_BLOB_SIZE) {
+                    throw new IOException("Invalid blob size " + header.getDatasize());
+                }
+
+                byte[] buffer = buffers.take();
+                if (buffer.length < header.getDatasize()) {
+                    buffer = new byte[header.getDatasize()];
+                }
+                in.readFully(buffer, 0, header.getDatasize());
+                blobs.put(new Blob(header.getType(), header.getIndexdata(), buffer, header.getDatasize(), null));
+            }
+        } catch (InterruptedException ex) {
+            // Interrupted by close, when the parser no longer waits for blobs, so the failure is not waited on
+            blobs.offer(new Blob(null, null, null, 0, new InterruptedIOException()));
+            Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+            // Any failure ends the blobs, otherwise the parser would wait for the next one forever
+            IOException failure = ex instanceof IOException io ? io : new IOException("Failed to read ahead", ex);
+            try {
+                blobs.put(new Blob(null, null, null, 0, failure));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ByteString decode(Fileformat.Blob content) throws IOException {
+        if (content.hasRaw()) {
+            return content.getRaw();
+        }
+        if (!content.hasZlibData()) {
+            throw new IOException("Unsupported blob compression, only raw and zlib blobs are supported");
+        }
+        byte[] data = new byte[content.getRawSize()];
+        inflater.reset();
+        inflater.setInput(content.getZlibData().asReadOnlyByteBuffer());
+        try {
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != data.length) {
+                throw new IOException("Blob inflated to " + length + " bytes, expected " + data.length);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Failed to inflate blob", ex);
+        }
+        return UnsafeByteOperations.unsafeWrap(data);
+    }
+
+    /**
+     * Blobs read, including skipped ones.
+     */
+    public long getBlobCount() {
+        return blobCount;
+    }
+
+    /**
+     * Times the parser waited for the reader, including the wait for the first blob.
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.shutdownNow();
+        inflater.end();
+        input.close();
+    }
+}
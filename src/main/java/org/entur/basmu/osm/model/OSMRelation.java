@@ -15,6 +15,10 @@ public class OSMRelation extends OSMWithTags {
         members.add(member);
     }
 
+    public List<OSMRelationMember> getMembers() {
+        return members.stream().toList();
+    }
+
     public List<Long> getMemberRefsOfType(String type) {
         return members.stream()
                 .filter(member -> member.type().equals(type))
@@ -0,0 +1,69 @@
+package org.entur.basmu.osm.service;
+
+import org.entur.basmu.blobStore.KakkaBlobStoreService;
+import org.entur.basmu.osm.incremental.OsmChange;
+import org.entur.basmu.osm.incremental.OsmChangeParser;
+import org.entur.geocoder.blobStore.BlobStoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lists and loads the OSM change files in the changes folder of the kakka bucket. A bean of its own, so that the
+ * calls from BasmuService go through the proxy and are retried.
+ */
+@Service
+public class OsmChangeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OsmChangeService.class);
+
+    @Value("${blobstore.gcs.kakka.osm.changes.folder:osm/changes}")
+    private String osmChangesFolder;
+
+    private final KakkaBlobStoreService kakkaBlobStoreService;
+
+    public OsmChangeService(KakkaBlobStoreService kakkaBlobStoreService) {
+        this.kakkaBlobStoreService = kakkaBlobStoreService;
+    }
+
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${basmu.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${basmu.retry.maxDelay:5000}",
+                    multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
+    public List<BlobStoreFiles.File> findOsmChangeFiles() {
+        logger.info("List OSM change files");
+        return kakkaBlobStoreService.listBlobStoreFiles(osmChangesFolder).getFiles().stream()
+                .filter(file -> file.getName().endsWith(".osc") || file.getName().endsWith(".osc.gz"))
+                .sorted(Comparator.comparing(BlobStoreFiles.File::getName))
+                .toList();
+    }
+
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${basmu.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${basmu.retry.maxDelay:5000}",
+                    multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
+    public OsmChange loadOsmChanges(List<BlobStoreFiles.File> changeFiles) {
+        OsmChange change = new OsmChange();
+        for (BlobStoreFiles.File changeFile : changeFiles) {
+            logger.info("Loading OSM change file: " + changeFile.getName());
+            try (InputStream blob = kakkaBlobStoreService.getBlob(changeFile.getName())) {
+                OsmChangeParser.parse(blob, changeFile.getName().endsWith(".gz"), change);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        return change;
+    }
+}
@@ -0,0 +1,43 @@
+package org.entur.basmu.osm.store;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * Reference set for input in arbitrary order.
+ */
+public class HashLongRefSet implements LongRefSet {
+
+    /**
+     * HashMap entry, boxed Long and table slot.
+     */
+    private static final long BYTES_PER_REF = 64;
+
+    private final Set<Long> refs = new HashSet<>();
+
+    @Override
+    public void add(long ref) {
+        refs.add(ref);
+    }
+
+    @Override
+    public boolean contains(long ref) {
+        return refs.contains(ref);
+    }
+
+    @Override
+    public long size() {
+        return refs.size();
+    }
+
+    @Override
+    public void forEach(LongConsumer consumer) {
+        refs.forEach(consumer::accept);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return refs.size() * BYTES_PER_REF;
+    }
+}
@@ -0,0 +1,50 @@
+package org.entur.basmu.osm.store;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Node store for input in arbitrary order.
+ */
+public class HashNodeStore implements NodeStore {
+
+    /**
+     * HashMap entry, boxed Long, Coordinate and table slot.
+     */
+    private static final long BYTES_PER_NODE = 104;
+
+    private final Map<Long, Coordinate> nodes = new HashMap<>();
+
+    @Override
+    public void put(long id, double lat, double lon) {
+        nodes.put(id, new Coordinate(lon, lat));
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return nodes.containsKey(id);
+    }
+
+    @Override
+    public Coordinate get(long id) {
+        Coordinate coordinate = nodes.get(id);
+        return coordinate != null ? new Coordinate(coordinate) : null;
+    }
+
+    @Override
+    public long size() {
+        return nodes.size();
+    }
+
+    @Override
+    public void forEach(NodeConsumer consumer) {
+        nodes.forEach((id, coordinate) -> consumer.accept(id, coordinate.getY(), coordinate.getX()));
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return nodes.size() * BYTES_PER_NODE;
+    }
+}
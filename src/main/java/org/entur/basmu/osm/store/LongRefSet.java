@@ -0,0 +1,22 @@
+package org.entur.basmu.osm.store;
+
+import java.util.Collection;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of OSM ids referred to by other entities, e.g. the node ids used by the ways of a relation.
+ */
+public interface LongRefSet extends MemoryFootprint {
+
+    void add(long ref);
+
+    default void addAll(Collection<Long> refs) {
+        refs.forEach(this::add);
+    }
+
+    boolean contains(long ref);
+
+    long size();
+
+    void forEach(LongConsumer consumer);
+}
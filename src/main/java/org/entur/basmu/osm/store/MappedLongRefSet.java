@@ -0,0 +1,45 @@
+package org.entur.basmu.osm.store;
+
+import java.nio.file.Path;
+import java.util.function.LongConsumer;
+
+/**
+ * Disk backed reference set, used when the in-memory sets exceed the {@link MemoryBudget}.
+ */
+public class MappedLongRefSet implements LongRefSet {
+
+    private final MappedLongTable table;
+
+    public MappedLongRefSet(Path directory, String name, long expectedSize) {
+        this.table = new MappedLongTable(directory, name, 0, expectedSize);
+    }
+
+    @Override
+    public void add(long ref) {
+        table.insert(ref);
+    }
+
+    @Override
+    public boolean contains(long ref) {
+        return table.find(ref) >= 0;
+    }
+
+    @Override
+    public long size() {
+        return table.size();
+    }
+
+    @Override
+    public void forEach(LongConsumer consumer) {
+        for (long slot = 0; slot < table.capacity(); slot++) {
+            if (table.isOccupied(slot)) {
+                consumer.accept(table.key(slot));
+            }
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 0;
+    }
+}
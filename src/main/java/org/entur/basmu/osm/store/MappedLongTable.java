@@ -0,0 +1,206 @@
+package org.entur.basmu.osm.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Open addressing hash table of long keys with a fixed number of long values per key,
+ * kept in memory mapped files outside the heap.
+ * <p>
+ * Keys are stored xor'ed with Long.MIN_VALUE, so the zero filled slots of a new (sparse) file are empty,
+ * and Long.MIN_VALUE is the only key that can not be stored.
+ */
+class MappedLongTable {
+
+    private static final int SEGMENT_SLOT_BITS = 24;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_SLOT_BITS;
+    private static final double MAX_LOAD = 0.6;
+    private static final long MIN_CAPACITY = 1L << 16;
+
+    private final Path directory;
+    private final String name;
+    private final int slotLongs;
+
+    private Path file;
+    private LongBuffer[] segments;
+    private long capacity;
+    private long size;
+
+    MappedLongTable(Path directory, String name, int valueCount, long expectedSize) {
+        this.directory = directory;
+        this.name = name;
+        this.slotLongs = valueCount + 1;
+        allocate(capacityFor(expectedSize));
+    }
+
+    long size() {
+        return size;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Slot of key, or -1 if the key is not in the table.
+     */
+    long find(long key) {
+        if (key == Long.MIN_VALUE) {
+            return -1;
+        }
+        long stored = key ^ Long.MIN_VALUE;
+        long mask = capacity - 1;
+        for (long slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = read(slot, 0);
+            if (current == stored) {
+                return slot;
+            }
+            if (current == 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Slot for key, inserting the key if not present.
+     */
+    long insert(long key) {
+        if (key == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("Key can not be stored: " + key);
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            grow();
+        }
+        long stored = key ^ Long.MIN_VALUE;
+        long mask = capacity - 1;
+        for (long slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = read(slot, 0);
+            if (current == stored) {
+                return slot;
+            }
+            if (current == 0) {
+                write(slot, 0, stored);
+                size++;
+                return slot;
+            }
+        }
+    }
+
+    long key(long slot) {
+        return read(slot, 0) ^ Long.MIN_VALUE;
+    }
+
+    boolean isOccupied(long slot) {
+        return read(slot, 0) != 0;
+    }
+
+    long value(long slot, int valueIndex) {
+        return read(slot, valueIndex + 1);
+    }
+
+    void setValue(long slot, int valueIndex, long value) {
+        write(slot, valueIndex + 1, value);
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void grow() {
+        LongBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        Path oldFile = file;
+
+        allocate(capacity * 2);
+        size = 0;
+
+        long mask = capacity - 1;
+        for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            LongBuffer segment = oldSegments[(int) (oldSlot >>> SEGMENT_SLOT_BITS)];
+            int offset = (int) ((oldSlot & (SEGMENT_SLOTS - 1)) * slotLongs);
+            long stored = segment.get(offset);
+            if (stored == 0) {
+                continue;
+            }
+            long slot = mix(stored ^ Long.MIN_VALUE) & mask;
+            while (read(slot, 0) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            for (int i = 0; i < slotLongs; i++) {
+                write(slot, i, segment.get(offset + i));
+            }
+            size++;
+        }
+
+        try {
+            Files.deleteIfExists(oldFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void allocate(long newCapacity) {
+        try {
+            Files.createDirectories(directory);
+            file = Files.createTempFile(directory, name, ".bin");
+            file.toFile().deleteOnExit();
+
+            int segmentCount = (int) ((newCapacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS);
+            segments = new LongBuffer[segmentCount];
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long segmentBytes = SEGMENT_SLOTS * slotLongs * Long.BYTES;
+                for (int i = 0; i < segmentCount; i++) {
+                    long slots = Math.min(SEGMENT_SLOTS, newCapacity - i * SEGMENT_SLOTS);
+                    segments[i] = channel
+                            .map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, slots * slotLongs * Long.BYTES)
+                            .order(ByteOrder.nativeOrder())
+                            .asLongBuffer();
+                }
+            }
+            capacity = newCapacity;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create disk backed store in " + directory, e);
+        }
+    }
+
+    private long read(long slot, int field) {
+        return segments[(int) (slot >>> SEGMENT_SLOT_BITS)]
+                .get((int) ((slot & (SEGMENT_SLOTS - 1)) * slotLongs + field));
+    }
+
+    private void write(long slot, int field, long value) {
+        segments[(int) (slot >>> SEGMENT_SLOT_BITS)]
+                .put((int) ((slot & (SEGMENT_SLOTS - 1)) * slotLongs + field), value);
+    }
+
+    private static long capacityFor(long expectedSize) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,62 @@
+package org.entur.basmu.osm.store;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.nio.file.Path;
+
+/**
+ * Disk backed node store, used when the in-memory stores exceed the {@link MemoryBudget}.
+ */
+public class MappedNodeStore implements NodeStore {
+
+    private final MappedLongTable table;
+
+    public MappedNodeStore(Path directory, String name, long expectedSize) {
+        this.table = new MappedLongTable(directory, name, 2, expectedSize);
+    }
+
+    @Override
+    public void put(long id, double lat, double lon) {
+        long slot = table.insert(id);
+        table.setValue(slot, 0, Double.doubleToRawLongBits(lat));
+        table.setValue(slot, 1, Double.doubleToRawLongBits(lon));
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return table.find(id) >= 0;
+    }
+
+    @Override
+    public Coordinate get(long id) {
+        long slot = table.find(id);
+        if (slot < 0) {
+            return null;
+        }
+        return new Coordinate(
+                Double.longBitsToDouble(table.value(slot, 1)),
+                Double.longBitsToDouble(table.value(slot, 0)));
+    }
+
+    @Override
+    public long size() {
+        return table.size();
+    }
+
+    @Override
+    public void forEach(NodeConsumer consumer) {
+        for (long slot = 0; slot < table.capacity(); slot++) {
+            if (table.isOccupied(slot)) {
+                consumer.accept(
+                        table.key(slot),
+                        Double.longBitsToDouble(table.value(slot, 0)),
+                        Double.longBitsToDouble(table.value(slot, 1)));
+            }
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,58 @@
+package org.entur.basmu.osm.store;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Heap budget shared by the reference sets and node stores of one run.
+ * <p>
+ * The stores report their estimated footprint, and move to disk backed structures in the spill directory
+ * when the sum of the footprints exceeds the budget.
+ */
+public class MemoryBudget {
+
+    private final long budgetBytes;
+    private final Path spillDirectory;
+    private final List<MemoryFootprint> tracked = new CopyOnWriteArrayList<>();
+
+    public MemoryBudget(long budgetBytes, Path spillDirectory) {
+        this.budgetBytes = budgetBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Budget without limit, nothing is ever spilled to disk.
+     */
+    public static MemoryBudget unlimited() {
+        return new MemoryBudget(Long.MAX_VALUE, null);
+    }
+
+    public void track(MemoryFootprint footprint) {
+        tracked.add(footprint);
+    }
+
+    public void untrack(MemoryFootprint footprint) {
+        tracked.remove(footprint);
+    }
+
+    public long usedBytes() {
+        return tracked.stream().mapToLong(MemoryFootprint::estimatedBytes).sum();
+    }
+
+    public boolean isExceeded() {
+        return usedBytes() > budgetBytes;
+    }
+
+    public boolean wouldExceed(long additionalBytes) {
+        return usedBytes() + additionalBytes > budgetBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+}
@@ -0,0 +1,12 @@
+package org.entur.basmu.osm.store;
+
+/**
+ * Structures whose heap usage is tracked against the {@link MemoryBudget}.
+ */
+public interface MemoryFootprint {
+
+    /**
+     * Rough estimate of the heap held by the structure, in bytes.
+     */
+    long estimatedBytes();
+}
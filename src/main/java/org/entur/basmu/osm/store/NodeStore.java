@@ -0,0 +1,27 @@
+package org.entur.basmu.osm.store;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Coordinates of the nodes needed to build the geometry of ways and relations.
+ */
+public interface NodeStore extends MemoryFootprint {
+
+    void put(long id, double lat, double lon);
+
+    boolean contains(long id);
+
+    /**
+     * A new coordinate (x = lon, y = lat) for the node, or null if the node is not stored.
+     */
+    Coordinate get(long id);
+
+    long size();
+
+    void forEach(NodeConsumer consumer);
+
+    @FunctionalInterface
+    interface NodeConsumer {
+        void accept(long id, double lat, double lon);
+    }
+}
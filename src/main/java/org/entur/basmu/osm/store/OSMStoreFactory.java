@@ -0,0 +1,56 @@
+package org.entur.basmu.osm.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the reference sets and node stores used by the content handler.
+ * <p>
+ * When the PBF file declares Sort.Type_then_ID, sorted primitive arrays are used, otherwise hash based
+ * collections that tolerate any input order. Both are tracked against the {@link MemoryBudget}, and
+ * replaced by disk backed structures when the budget is exceeded.
+ */
+public class OSMStoreFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(OSMStoreFactory.class);
+
+    private final boolean sortedInput;
+    private final MemoryBudget memoryBudget;
+
+    public OSMStoreFactory(boolean sortedInput, MemoryBudget memoryBudget) {
+        this.sortedInput = sortedInput;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public boolean isSortedInput() {
+        return sortedInput;
+    }
+
+    public LongRefSet newRefSet(String name) {
+        return new SpillingLongRefSet(name, sortedInput ? new SortedLongRefSet() : new HashLongRefSet(), memoryBudget);
+    }
+
+    /**
+     * Node store for the nodes in refs. The ref set must be complete, no refs can be added afterwards.
+     */
+    public NodeStore newNodeStore(String name, LongRefSet refs) {
+        LongRefSet storedRefs = refs instanceof SpillingLongRefSet spillingRefs ? spillingRefs.delegate() : refs;
+
+        if (storedRefs instanceof SortedLongRefSet sortedRefs) {
+            long requiredBytes = SortedNodeStore.estimatedBytes(sortedRefs.distinctSize());
+            if (!memoryBudget.wouldExceed(requiredBytes)) {
+                logger.info("Storing {} in sorted arrays ({} MB)", name, requiredBytes >> 20);
+                var nodeStore = new SortedNodeStore(sortedRefs);
+                memoryBudget.track(nodeStore);
+                return nodeStore;
+            }
+        } else if (!(storedRefs instanceof MappedLongRefSet)) {
+            logger.info("Storing {} in hash map", name);
+            return new SpillingNodeStore(name, new HashNodeStore(), memoryBudget);
+        }
+
+        logger.info("Memory budget of {} MB does not allow {} nodes in memory, storing {} on disk in {}",
+                memoryBudget.getBudgetBytes() >> 20, refs.size(), name, memoryBudget.getSpillDirectory());
+        return new MappedNodeStore(memoryBudget.getSpillDirectory(), name, refs.size());
+    }
+}
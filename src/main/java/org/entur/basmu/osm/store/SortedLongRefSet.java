@@ -0,0 +1,107 @@
+package org.entur.basmu.osm.store;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Reference set backed by a sorted primitive array.
+ * <p>
+ * Refs are appended unsorted and sorted (and deduplicated) lazily on the first lookup after an add.
+ * Lookups use a monotone cursor, so a pass over a file sorted by id costs one linear walk over the
+ * array instead of one binary search per entity. Lookups out of order fall back to binary search.
+ */
+public class SortedLongRefSet implements LongRefSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] refs = new long[INITIAL_CAPACITY];
+    private int size;
+    private boolean sorted = true;
+    private int cursor;
+    private long lastLookup = Long.MIN_VALUE;
+
+    @Override
+    public void add(long ref) {
+        if (size == refs.length) {
+            sort();
+            if (size > refs.length * 3 / 4) {
+                refs = Arrays.copyOf(refs, refs.length * 2);
+            }
+        }
+        if (size > 0 && refs[size - 1] >= ref) {
+            sorted = false;
+        }
+        refs[size++] = ref;
+    }
+
+    @Override
+    public boolean contains(long ref) {
+        return indexOf(ref) >= 0;
+    }
+
+    @Override
+    public long size() {
+        sort();
+        return size;
+    }
+
+    @Override
+    public void forEach(LongConsumer consumer) {
+        sort();
+        for (int i = 0; i < size; i++) {
+            consumer.accept(refs[i]);
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return (long) refs.length * Long.BYTES;
+    }
+
+    /**
+     * Index of ref in the sorted array, or a negative value if not present.
+     */
+    int indexOf(long ref) {
+        sort();
+        if (ref < lastLookup) {
+            int insertionPoint = Arrays.binarySearch(refs, 0, size, ref);
+            cursor = insertionPoint >= 0 ? insertionPoint : -insertionPoint - 1;
+        } else {
+            while (cursor < size && refs[cursor] < ref) {
+                cursor++;
+            }
+        }
+        lastLookup = ref;
+        return cursor < size && refs[cursor] == ref ? cursor : -1;
+    }
+
+    /**
+     * Number of distinct refs, the valid index range for {@link #indexOf(long)}.
+     */
+    int distinctSize() {
+        sort();
+        return size;
+    }
+
+    long refAt(int index) {
+        sort();
+        return refs[index];
+    }
+
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+        Arrays.sort(refs, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || refs[distinct - 1] != refs[i]) {
+                refs[distinct++] = refs[i];
+            }
+        }
+        size = distinct;
+        sorted = true;
+        cursor = 0;
+        lastLookup = Long.MIN_VALUE;
+    }
+}
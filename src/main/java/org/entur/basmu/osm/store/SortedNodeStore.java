@@ -0,0 +1,77 @@
+package org.entur.basmu.osm.store;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.Arrays;
+
+/**
+ * Node store joined against a complete {@link SortedLongRefSet}.
+ * <p>
+ * Coordinates are kept in primitive arrays parallel to the sorted refs, so only the nodes that
+ * were referred to can be stored, and no per-node objects are allocated.
+ */
+public class SortedNodeStore implements NodeStore {
+
+    private final SortedLongRefSet refs;
+    private final double[] lats;
+    private final double[] lons;
+    private long size;
+
+    public SortedNodeStore(SortedLongRefSet refs) {
+        this.refs = refs;
+        this.lats = new double[refs.distinctSize()];
+        this.lons = new double[refs.distinctSize()];
+        Arrays.fill(lats, Double.NaN);
+    }
+
+    @Override
+    public void put(long id, double lat, double lon) {
+        int index = refs.indexOf(id);
+        if (index < 0) {
+            throw new IllegalArgumentException("Node " + id + " is not referred to, and can not be stored.");
+        }
+        if (Double.isNaN(lats[index])) {
+            size++;
+        }
+        lats[index] = lat;
+        lons[index] = lon;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        int index = refs.indexOf(id);
+        return index >= 0 && !Double.isNaN(lats[index]);
+    }
+
+    @Override
+    public Coordinate get(long id) {
+        int index = refs.indexOf(id);
+        if (index < 0 || Double.isNaN(lats[index])) {
+            return null;
+        }
+        return new Coordinate(lons[index], lats[index]);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(NodeConsumer consumer) {
+        for (int index = 0; index < lats.length; index++) {
+            if (!Double.isNaN(lats[index])) {
+                consumer.accept(refs.refAt(index), lats[index], lons[index]);
+            }
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return estimatedBytes(lats.length);
+    }
+
+    static long estimatedBytes(long refCount) {
+        return refCount * 2 * Double.BYTES;
+    }
+}
@@ -0,0 +1,80 @@
+package org.entur.basmu.osm.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Reference set that starts in memory and moves to a {@link MappedLongRefSet} once the
+ * {@link MemoryBudget} is exceeded.
+ */
+public class SpillingLongRefSet implements LongRefSet {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillingLongRefSet.class);
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    private final String name;
+    private final MemoryBudget memoryBudget;
+    private LongRefSet delegate;
+    private boolean spilled;
+    private int addsSinceCheck;
+
+    public SpillingLongRefSet(String name, LongRefSet delegate, MemoryBudget memoryBudget) {
+        this.name = name;
+        this.delegate = delegate;
+        this.memoryBudget = memoryBudget;
+        memoryBudget.track(delegate);
+    }
+
+    @Override
+    public void add(long ref) {
+        delegate.add(ref);
+        if (!spilled && ++addsSinceCheck >= CHECK_INTERVAL) {
+            addsSinceCheck = 0;
+            if (memoryBudget.isExceeded()) {
+                spill();
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(long ref) {
+        return delegate.contains(ref);
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void forEach(LongConsumer consumer) {
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return delegate.estimatedBytes();
+    }
+
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    LongRefSet delegate() {
+        return delegate;
+    }
+
+    private void spill() {
+        logger.info("Memory budget of {} MB exceeded with {} MB in use, moving {} ({} refs) to disk in {}",
+                memoryBudget.getBudgetBytes() >> 20, memoryBudget.usedBytes() >> 20,
+                name, delegate.size(), memoryBudget.getSpillDirectory());
+
+        var mapped = new MappedLongRefSet(memoryBudget.getSpillDirectory(), name, delegate.size() * 2);
+        delegate.forEach(mapped::add);
+        memoryBudget.untrack(delegate);
+        delegate = mapped;
+        spilled = true;
+    }
+}
@@ -0,0 +1,80 @@
+package org.entur.basmu.osm.store;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node store that starts in memory and moves to a {@link MappedNodeStore} once the
+ * {@link MemoryBudget} is exceeded.
+ */
+public class SpillingNodeStore implements NodeStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillingNodeStore.class);
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    private final String name;
+    private final MemoryBudget memoryBudget;
+    private NodeStore delegate;
+    private boolean spilled;
+    private int putsSinceCheck;
+
+    public SpillingNodeStore(String name, NodeStore delegate, MemoryBudget memoryBudget) {
+        this.name = name;
+        this.delegate = delegate;
+        this.memoryBudget = memoryBudget;
+        memoryBudget.track(delegate);
+    }
+
+    @Override
+    public void put(long id, double lat, double lon) {
+        delegate.put(id, lat, lon);
+        if (!spilled && ++putsSinceCheck >= CHECK_INTERVAL) {
+            putsSinceCheck = 0;
+            if (memoryBudget.isExceeded()) {
+                spill();
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return delegate.contains(id);
+    }
+
+    @Override
+    public Coordinate get(long id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void forEach(NodeConsumer consumer) {
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return delegate.estimatedBytes();
+    }
+
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    private void spill() {
+        logger.info("Memory budget of {} MB exceeded with {} MB in use, moving {} ({} nodes) to disk in {}",
+                memoryBudget.getBudgetBytes() >> 20, memoryBudget.usedBytes() >> 20,
+                name, delegate.size(), memoryBudget.getSpillDirectory());
+
+        var mapped = new MappedNodeStore(memoryBudget.getSpillDirectory(), name, delegate.size() * 2);
+        delegate.forEach(mapped::put);
+        memoryBudget.untrack(delegate);
+        delegate = mapped;
+        spilled = true;
+    }
+}
@@ -0,0 +1,28 @@
+package org.entur.basmu.profile;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+
+import java.util.List;
+
+/**
+ * A named export with its own selection of the POI filters and pelias.poi.* settings.
+ *
+ * @param filterKeys the OSM keys of the filters in the profile, all filters if empty
+ */
+public record FilterProfile(String name, List<String> filterKeys, long poiBoost, List<String> poiFilter) {
+
+    public FilterProfile {
+        if (!name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Invalid profile name, use letters, digits, - and _: " + name);
+        }
+    }
+
+    public List<PointOfInterestFilter> select(List<PointOfInterestFilter> pointOfInterestFilters) {
+        if (filterKeys.isEmpty()) {
+            return pointOfInterestFilters;
+        }
+        return pointOfInterestFilters.stream()
+                .filter(filter -> filterKeys.contains(filter.key()))
+                .toList();
+    }
+}
@@ -0,0 +1,55 @@
+package org.entur.basmu.profile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ObjectUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The filter profiles of the run, from basmu.profiles, a comma separated list of names. Each profile is read from
+ * basmu.profiles.&lt;name&gt;.filterKeys, .poiBoost and .poiFilter, defaulting to all filters and the pelias.poi.*
+ * settings. Without profiles, the run makes a single export.
+ */
+@Service
+public class FilterProfileService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilterProfileService.class);
+
+    private final List<FilterProfile> profiles;
+
+    public FilterProfileService(@Value("${basmu.profiles:}") String names,
+                                @Value("${pelias.poi.boost:1}") long poiBoost,
+                                @Value("${pelias.poi.filter:}") String poiFilter,
+                                Environment environment) {
+        this.profiles = split(names).stream()
+                .map(name -> new FilterProfile(name,
+                        split(environment.getProperty("basmu.profiles." + name + ".filterKeys", "")),
+                        environment.getProperty("basmu.profiles." + name + ".poiBoost", Long.class, poiBoost),
+                        split(environment.getProperty("basmu.profiles." + name + ".poiFilter", poiFilter))))
+                .toList();
+        if (profiles.stream().map(FilterProfile::name).distinct().count() != profiles.size()) {
+            throw new IllegalArgumentException("Duplicate profile names in basmu.profiles: " + names);
+        }
+        profiles.forEach(profile -> logger.info("Filter profile {}", profile));
+    }
+
+    public boolean isEnabled() {
+        return !profiles.isEmpty();
+    }
+
+    public List<FilterProfile> getProfiles() {
+        return profiles;
+    }
+
+    private static List<String> split(String values) {
+        return Arrays.stream(values.split(","))
+                .map(String::trim)
+                .filter(value -> !ObjectUtils.isEmpty(value))
+                .toList();
+    }
+}
@@ -0,0 +1,34 @@
+package org.entur.basmu.shard;
+
+/**
+ * One of count shards of a run. Every entity is owned by exactly one shard, chosen by a hash of its id,
+ * so that the shards map disjoint sets of POIs without knowing their geometry up front.
+ */
+public record Shard(int index, int count) {
+
+    public static final Shard SINGLE = new Shard(0, 1);
+
+    public Shard {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+        }
+    }
+
+    public boolean isSingle() {
+        return count == 1;
+    }
+
+    public boolean owns(long id) {
+        if (count == 1) {
+            return true;
+        }
+        // Fibonacci hashing spreads runs of consecutive ids evenly over the shards
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return Math.floorMod(hash ^ (hash >>> 32), count) == index;
+    }
+
+    @Override
+    public String toString() {
+        return "shard-" + index + "-of-" + count;
+    }
+}
@@ -0,0 +1,18 @@
+package org.entur.basmu.shard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ShardConfiguration {
+
+    /**
+     * The shard of this run. The index defaults to the completion index of a Kubernetes Indexed Job.
+     */
+    @Bean
+    public Shard shard(@Value("${basmu.shard.index:${JOB_COMPLETION_INDEX:0}}") int index,
+                       @Value("${basmu.shard.count:1}") int count) {
+        return new Shard(index, count);
+    }
+}
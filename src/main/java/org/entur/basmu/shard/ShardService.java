@@ -0,0 +1,173 @@
+package org.entur.basmu.shard;
+
+import org.entur.basmu.blobStore.BasmuBlobStoreService;
+import org.entur.basmu.csv.CsvMerger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Publishes the partial CSV of each shard to the basmu bucket, and merges the parts of all shards into one CSV
+ * in the first shard, which waits for the others. A part is only merged if it was created from the same run key,
+ * written by its shard after the part itself.
+ */
+@Service
+public class ShardService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardService.class);
+
+    private static final String SHARDS_FOLDER = "shards";
+
+    @Value("${basmu.shard.mergeTimeoutSeconds:14400}")
+    private long mergeTimeoutSeconds;
+
+    @Value("${basmu.shard.pollIntervalSeconds:30}")
+    private long pollIntervalSeconds;
+
+    @Value("${basmu.workdir:/tmp/basmu/geocoder}")
+    private String basmuWorkDir;
+
+    private final Shard shard;
+    private final BasmuBlobStoreService basmuBlobStoreService;
+
+    public ShardService(Shard shard, BasmuBlobStoreService basmuBlobStoreService) {
+        this.shard = shard;
+        this.basmuBlobStoreService = basmuBlobStoreService;
+    }
+
+    public boolean isSharded() {
+        return !shard.isSingle();
+    }
+
+    /**
+     * The first shard merges the parts of all shards.
+     */
+    public boolean isMerger() {
+        return shard.index() == 0;
+    }
+
+    /**
+     * Key of the local checkpoints of this shard for the run key.
+     */
+    public String getCheckpointKey(String runKey) {
+        return shard.isSingle() ? runKey : runKey + "-" + shard;
+    }
+
+    /**
+     * Save the partial CSV of this shard, gzipped, in the work directory.
+     */
+    public File savePart(InputStream csv) {
+        File partFile = Paths.get(basmuWorkDir, SHARDS_FOLDER, partName(shard.index())).toFile();
+        try (csv) {
+            Files.createDirectories(partFile.getParentFile().toPath());
+            try (var out = new GZIPOutputStream(new FileOutputStream(partFile), 1 << 16)) {
+                csv.transferTo(out);
+            }
+            return partFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save " + partFile, e);
+        }
+    }
+
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${basmu.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${basmu.retry.maxDelay:5000}",
+                    multiplierExpression = "${basmu.retry.backoff.multiplier:3}"))
+    public void uploadPart(String runKey, File partFile) {
+        logger.info("Uploading the CSV part of {}", shard);
+        try (var in = new FileInputStream(partFile)) {
+            basmuBlobStoreService.uploadBlob(blobName(partName(shard.index())), in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        basmuBlobStoreService.uploadBlob(blobName(runKeyName(shard.index())),
+                new ByteArrayInputStream(runKey.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Wait for the parts of all shards for the run key, and merge them into one CSV in the work directory,
+     * keeping the first record of each key. The merged file is deleted when the returned stream is closed.
+     * <p>
+     * A node and a way or relation of the same place can be owned by different shards, so the duplicates of
+     * pelias.poi.dedupDistanceMeters are only dropped within each shard.
+     */
+    public InputStream mergeParts(String runKey) {
+        awaitParts(runKey);
+
+        File mergedFile = Paths.get(basmuWorkDir, SHARDS_FOLDER, "merged.csv").toFile();
+        try (var merger = new CsvMerger(mergedFile)) {
+            for (int index = 0; index < shard.count(); index++) {
+                merger.add(partName(index), new GZIPInputStream(basmuBlobStoreService.getBlob(blobName(partName(index))), 1 << 16));
+            }
+            logger.info("Merged {} records from {} shards, dropped {} duplicates",
+                    merger.getRecords(), shard.count(), merger.getDuplicates());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to merge the CSV parts", e);
+        }
+        try {
+            return Files.newInputStream(mergedFile.toPath(), StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + mergedFile, e);
+        }
+    }
+
+    private void awaitParts(String runKey) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(mergeTimeoutSeconds);
+        Set<Integer> pending = new HashSet<>();
+        for (int index = 0; index < shard.count(); index++) {
+            pending.add(index);
+        }
+        while (true) {
+            pending.removeIf(index -> runKey.equals(readRunKey(index)));
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Timed out waiting for the CSV parts of shards " + pending);
+            }
+            logger.info("Waiting for the CSV parts of shards {}", pending);
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(pollIntervalSeconds));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the CSV parts", e);
+            }
+        }
+    }
+
+    private String readRunKey(int index) {
+        try (InputStream blob = basmuBlobStoreService.getBlob(blobName(runKeyName(index)))) {
+            return blob != null ? new String(blob.readAllBytes(), StandardCharsets.UTF_8) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private String partName(int index) {
+        return "part-" + index + "-of-" + shard.count() + ".csv.gz";
+    }
+
+    private String runKeyName(int index) {
+        return "part-" + index + "-of-" + shard.count() + ".runkey";
+    }
+
+    private static String blobName(String name) {
+        return SHARDS_FOLDER + "/" + name;
+    }
+}
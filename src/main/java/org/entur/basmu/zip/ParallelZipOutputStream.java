@@ -0,0 +1,295 @@
+package org.entur.basmu.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file with a single deflated entry, deflating chunks of the content on a pool of threads
+ * while the content is still being written, like pigz.
+ * <p>
+ * Each chunk is deflated independently, with the last 32 KB of the previous chunk as dictionary, and ends
+ * with a sync flush, so that the chunks concatenate into one deflate stream. The entry has the layout of
+ * entries written by {@link java.util.zip.ZipOutputStream}: a local header without sizes, followed by a
+ * data descriptor, and Zip64 records when the entry is larger than 4 GB.
+ */
+public class ParallelZipOutputStream extends FilterOutputStream {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private final byte[] name;
+    private final int level;
+    private final int window;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> chunks = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private final int dosTime;
+
+    private byte[] chunk;
+    private int chunkLength;
+    private byte[] dictionary;
+    private long size;
+    private long compressedSize;
+    private long written;
+    private boolean closed;
+
+    /**
+     * @param threads   the number of threads deflating chunks
+     * @param chunkSize the number of bytes of content in each chunk
+     * @param level     the {@link Deflater} compression level
+     */
+    public ParallelZipOutputStream(OutputStream out, String entryName, int threads, int chunkSize, int level) throws IOException {
+        super(out);
+        this.name = entryName.getBytes(StandardCharsets.UTF_8);
+        this.level = level;
+        this.window = threads * 2;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.chunk = new byte[chunkSize];
+        this.dosTime = toDosTime(LocalDateTime.now());
+        writeLocalHeader();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        crc.update(b);
+        size++;
+        chunk[chunkLength++] = (byte) b;
+        if (chunkLength == chunk.length) {
+            submitChunk(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        crc.update(bytes, offset, length);
+        size += length;
+        while (length > 0) {
+            int copied = Math.min(length, chunk.length - chunkLength);
+            System.arraycopy(bytes, offset, chunk, chunkLength, copied);
+            chunkLength += copied;
+            offset += copied;
+            length -= copied;
+            if (chunkLength == chunk.length) {
+                submitChunk(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitChunk(true);
+            while (!chunks.isEmpty()) {
+                writeChunk(chunks.removeFirst());
+            }
+            writeDataDescriptor();
+            writeCentralDirectory(written);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submitChunk(boolean last) throws IOException {
+        byte[] content = Arrays.copyOf(chunk, chunkLength);
+        byte[] previous = dictionary;
+        chunks.addLast(executor.submit(() -> deflate(content, previous, last)));
+        if (chunkLength >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(chunk, chunkLength - DICTIONARY_SIZE, chunkLength);
+        } else {
+            dictionary = content;
+        }
+        chunkLength = 0;
+        while (chunks.size() > window) {
+            writeChunk(chunks.removeFirst());
+        }
+    }
+
+    private byte[] deflate(byte[] content, byte[] previous, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null && previous.length > 0) {
+                deflater.setDictionary(previous);
+            }
+            deflater.setInput(content);
+            var deflated = new ByteArrayOutputStream(content.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflated.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    deflated.write(buffer, 0, length);
+                } while (length == buffer.length || !deflater.needsInput());
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeChunk(Future<byte[]> deflated) throws IOException {
+        try {
+            byte[] bytes = deflated.get();
+            writeBytes(bytes);
+            compressedSize += bytes.length;
+        } catch (ExecutionException ex) {
+            throw new IOException("Failed to deflate a chunk", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void writeLocalHeader() throws IOException {
+        ByteBuffer header = buffer(30 + name.length);
+        header.putInt(0x04034b50);
+        header.putShort((short) VERSION);
+        header.putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8));
+        header.putShort((short) Deflater.DEFLATED);
+        header.putInt(dosTime);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short) name.length);
+        header.putShort((short) 0);
+        header.put(name);
+        writeBytes(header.array());
+    }
+
+    private void writeDataDescriptor() throws IOException {
+        // ZipInputStream only reads 64 bit sizes from the data descriptor of entries larger than the magic value
+        boolean zip64 = size > ZIP64_MAGIC || compressedSize > ZIP64_MAGIC;
+        ByteBuffer descriptor = buffer(zip64 ? 24 : 16);
+        descriptor.putInt(0x08074b50);
+        descriptor.putInt((int) crc.getValue());
+        if (zip64) {
+            descriptor.putLong(compressedSize);
+            descriptor.putLong(size);
+        } else {
+            descriptor.putInt((int) compressedSize);
+            descriptor.putInt((int) size);
+        }
+        writeBytes(descriptor.array());
+    }
+
+    private void writeCentralDirectory(long offset) throws IOException {
+        boolean zip64 = isZip64();
+        ByteBuffer entry = buffer(46 + name.length + (zip64 ? 20 : 0));
+        entry.putInt(0x02014b50);
+        entry.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        entry.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        entry.putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8));
+        entry.putShort((short) Deflater.DEFLATED);
+        entry.putInt(dosTime);
+        entry.putInt((int) crc.getValue());
+        entry.putInt((int) (zip64 ? ZIP64_MAGIC : compressedSize));
+        entry.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+        entry.putShort((short) name.length);
+        entry.putShort((short) (zip64 ? 20 : 0));
+        entry.putShort((short) 0);
+        entry.putShort((short) 0);
+        entry.putShort((short) 0);
+        entry.putInt(0);
+        entry.putInt(0);
+        entry.put(name);
+        if (zip64) {
+            entry.putShort((short) 0x0001);
+            entry.putShort((short) 16);
+            entry.putLong(size);
+            entry.putLong(compressedSize);
+        }
+        writeBytes(entry.array());
+        long length = written - offset;
+
+        if (offset >= ZIP64_MAGIC) {
+            long zip64EndOffset = written;
+            ByteBuffer end = buffer(56 + 20);
+            end.putInt(0x06064b50);
+            end.putLong(44);
+            end.putShort((short) VERSION_ZIP64);
+            end.putShort((short) VERSION_ZIP64);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(1);
+            end.putLong(1);
+            end.putLong(length);
+            end.putLong(offset);
+            end.putInt(0x07064b50);
+            end.putInt(0);
+            end.putLong(zip64EndOffset);
+            end.putInt(1);
+            writeBytes(end.array());
+        }
+
+        ByteBuffer end = buffer(22);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) 1);
+        end.putShort((short) 1);
+        end.putInt((int) length);
+        end.putInt((int) Math.min(offset, ZIP64_MAGIC));
+        end.putShort((short) 0);
+        writeBytes(end.array());
+    }
+
+    /**
+     * The sizes of the central directory are in a Zip64 extra field if either equals or exceeds the magic value.
+     */
+    private boolean isZip64() {
+        return size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        written += bytes.length;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int toDosTime(LocalDateTime time) {
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+}
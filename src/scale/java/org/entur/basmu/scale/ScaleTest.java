@@ -0,0 +1,285 @@
+package org.entur.basmu.scale;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import com.sun.net.httpserver.HttpServer;
+import org.entur.basmu.BasmuApplication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipInputStream;
+
+/**
+ * End-to-end scale test: runs {@link BasmuApplication} with the in-memory-blobstore profile on a synthetic
+ * PBF file, with a local stub of the POI filter service, and reports documents per second, wall time per
+ * phase and peak heap. Fails if the run regressed beyond the threshold compared to a baseline.
+ * <p>
+ * System properties: scale.factor (1), scale.nodes, scale.ways, scale.relations, scale.fragmentsPerRing,
+ * scale.seed, scale.baseline (file, written if missing), scale.threshold (0.2), scale.workdir.
+ */
+public class ScaleTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScaleTest.class);
+
+    static final String FILTERS_JSON = """
+            [{"id": 1, "key": "amenity", "tags": [{"name": "cafe", "priority": 2}, {"name": "restaurant", "priority": 2},
+                                                  {"name": "school", "priority": 3}, {"name": "bank", "priority": 1}]},
+             {"id": 2, "key": "leisure", "tags": [{"name": "park", "priority": 1}]}]
+            """;
+
+    private static final String KAKKA_BUCKET = "kakka-scale";
+    private static final String BASMU_BUCKET = "basmu-scale";
+    private static final String HAYA_BUCKET = "haya-scale";
+    private static final String PBF_BLOB_NAME = "osm/synthetic.pbf";
+
+    /**
+     * Log messages of the application that start a phase, in order.
+     */
+    private static final Map<String, String> PHASES = new LinkedHashMap<>();
+
+    static {
+        PHASES.put("Loading the POI filters", "filters");
+        PHASES.put("List pbf POI file", "download");
+        PHASES.put("Converting", "convert");
+        PHASES.put("Creating CSV file", "csv");
+        PHASES.put("Zipping the created csv file", "zip");
+        PHASES.put("Uploading the CSV file", "upload");
+        PHASES.put("Coping latest file", "copy");
+    }
+
+    public static void main(String[] args) throws Exception {
+        long factor = Long.getLong("scale.factor", 1);
+        var generator = new SyntheticPbfGenerator()
+                .nodes(Long.getLong("scale.nodes", 2_000_000L * factor))
+                .ways(Long.getLong("scale.ways", 200_000L * factor))
+                .relations(Long.getLong("scale.relations", 5_000L * factor))
+                .fragmentsPerRing(Integer.getInteger("scale.fragmentsPerRing", 8))
+                .seed(Long.getLong("scale.seed", 1));
+
+        Path workDir = Path.of(System.getProperty("scale.workdir",
+                Files.createTempDirectory("basmu-scale").toString()));
+        Files.createDirectories(workDir);
+        File pbfFile = workDir.resolve("synthetic.pbf").toFile();
+        long generateStart = System.nanoTime();
+        generator.write(pbfFile);
+        logger.info("Generated {} nodes, {} ways and {} relations, {} MB, in {} ms",
+                generator.getNodeCount(), generator.getWayCount(), generator.getRelationCount(),
+                pbfFile.length() >> 20, (System.nanoTime() - generateStart) / 1_000_000);
+
+        HttpServer filterService = startFilterService();
+        try {
+            Report report = run(pbfFile, workDir, "http://127.0.0.1:" + filterService.getAddress().getPort() + "/");
+            report.log();
+            String baseline = System.getProperty("scale.baseline");
+            if (baseline != null && !report.checkAgainst(new File(baseline), Double.parseDouble(System.getProperty("scale.threshold", "0.2")))) {
+                System.exit(1);
+            }
+        } finally {
+            filterService.stop(0);
+        }
+    }
+
+    private static Report run(File pbfFile, Path workDir, String filterServiceUrl) throws IOException {
+        byte[] pbf = Files.readAllBytes(pbfFile.toPath());
+        var phaseStarts = new LinkedHashMap<String, Long>();
+        var appender = new PhaseAppender(phaseStarts);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.main.web-application-type", "none");
+        properties.put("osmpoifilters.service.url", filterServiceUrl);
+        properties.put("blobstore.gcs.kakka.bucket.name", KAKKA_BUCKET);
+        properties.put("blobstore.gcs.basmu.bucket.name", BASMU_BUCKET);
+        properties.put("blobstore.gcs.haya.bucket.name", HAYA_BUCKET);
+        properties.put("blobstore.gcs.kakka.osm.poi.folder", "osm");
+        properties.put("basmu.workdir", workDir.resolve("work").toString());
+        properties.put("basmu.retry.maxAttempts", 1);
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long start = System.nanoTime();
+        Map<String, Map<String, byte[]>> blobs;
+        try (var context = new SpringApplicationBuilder(BasmuApplication.class)
+                .profiles("in-memory-blobstore")
+                .properties(properties)
+                .listeners(event -> {
+                    if (event instanceof ApplicationStartedEvent started) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Map<String, byte[]>> containers =
+                                started.getApplicationContext().getBean("blobsInContainers", Map.class);
+                        containers.computeIfAbsent(KAKKA_BUCKET, bucket -> Collections.synchronizedMap(new HashMap<>()))
+                                .put(PBF_BLOB_NAME, pbf);
+                        appender.attach();
+                    }
+                })
+                .run()) {
+            @SuppressWarnings("unchecked")
+            Map<String, Map<String, byte[]>> containers = context.getBean("blobsInContainers", Map.class);
+            blobs = containers;
+        } finally {
+            appender.detach();
+        }
+        long wallTimeMs = (System.nanoTime() - start) / 1_000_000;
+
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        Map<String, Long> phaseTimes = new LinkedHashMap<>();
+        List<Map.Entry<String, Long>> starts = new ArrayList<>(phaseStarts.entrySet());
+        long end = start + wallTimeMs * 1_000_000;
+        for (int i = 0; i < starts.size(); i++) {
+            long phaseEnd = i + 1 < starts.size() ? starts.get(i + 1).getValue() : end;
+            phaseTimes.put(starts.get(i).getKey(), (phaseEnd - starts.get(i).getValue()) / 1_000_000);
+        }
+        return new Report(countDocuments(blobs.get(BASMU_BUCKET)), wallTimeMs, phaseTimes, peakHeap);
+    }
+
+    private static long countDocuments(Map<String, byte[]> basmuBlobs) throws IOException {
+        if (basmuBlobs == null) {
+            throw new IllegalStateException("Nothing was uploaded to the basmu bucket");
+        }
+        byte[] export = basmuBlobs.entrySet().stream()
+                .filter(blob -> blob.getKey().startsWith("basmu_export_geocoder_") && blob.getKey().endsWith(".zip"))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No export found in the basmu bucket"));
+
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(export))) {
+            zip.getNextEntry();
+            var reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+            long lines = reader.lines().count();
+            return Math.max(lines - 1, 0);
+        }
+    }
+
+    private static HttpServer startFilterService() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        byte[] body = FILTERS_JSON.getBytes(StandardCharsets.UTF_8);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Records the time of the first log message of each phase.
+     */
+    private static class PhaseAppender extends AppenderBase<ILoggingEvent> {
+
+        private final Map<String, Long> phaseStarts;
+
+        PhaseAppender(Map<String, Long> phaseStarts) {
+            this.phaseStarts = phaseStarts;
+        }
+
+        void attach() {
+            var loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+            setContext(loggerContext);
+            start();
+            loggerContext.getLogger("org.entur.basmu").addAppender(this);
+        }
+
+        void detach() {
+            var loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+            loggerContext.getLogger("org.entur.basmu").detachAppender(this);
+            stop();
+        }
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            if (!event.getLevel().isGreaterOrEqual(Level.INFO)) {
+                return;
+            }
+            long now = System.nanoTime();
+            PHASES.forEach((message, phase) -> {
+                if (event.getFormattedMessage().startsWith(message)) {
+                    synchronized (phaseStarts) {
+                        phaseStarts.putIfAbsent(phase, now);
+                    }
+                }
+            });
+        }
+    }
+
+    record Report(long documents, long wallTimeMs, Map<String, Long> phaseTimesMs, long peakHeapBytes) {
+
+        double documentsPerSecond() {
+            long convertMs = phaseTimesMs.getOrDefault("convert", wallTimeMs);
+            return documents * 1000.0 / Math.max(convertMs, 1);
+        }
+
+        void log() {
+            logger.info("Scale test: {} documents, {} documents/s, wall time {} ms, peak heap {} MB",
+                    documents, Math.round(documentsPerSecond()), wallTimeMs, peakHeapBytes >> 20);
+            phaseTimesMs.forEach((phase, ms) -> logger.info("  {}: {} ms", phase, ms));
+        }
+
+        /**
+         * Compare with the baseline, or write the baseline if it does not exist.
+         *
+         * @return false if documents/s dropped, or wall time or peak heap grew, by more than the threshold
+         */
+        boolean checkAgainst(File baselineFile, double threshold) throws IOException {
+            if (!baselineFile.exists()) {
+                Properties baseline = new Properties();
+                baseline.setProperty("documents", Long.toString(documents));
+                baseline.setProperty("documentsPerSecond", Double.toString(documentsPerSecond()));
+                baseline.setProperty("wallTimeMs", Long.toString(wallTimeMs));
+                baseline.setProperty("peakHeapBytes", Long.toString(peakHeapBytes));
+                phaseTimesMs.forEach((phase, ms) -> baseline.setProperty("phase." + phase + ".ms", Long.toString(ms)));
+                try (var out = new FileOutputStream(baselineFile)) {
+                    baseline.store(out, "basmu scale test baseline");
+                }
+                logger.info("Wrote baseline {}", baselineFile);
+                return true;
+            }
+
+            Properties baseline = new Properties();
+            try (var in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+            boolean passed = true;
+            if (documents != Long.parseLong(baseline.getProperty("documents"))) {
+                logger.error("Document count changed from {} to {}", baseline.getProperty("documents"), documents);
+                passed = false;
+            }
+            passed &= check("documents/s", documentsPerSecond(), Double.parseDouble(baseline.getProperty("documentsPerSecond")), -threshold);
+            passed &= check("wall time ms", wallTimeMs, Double.parseDouble(baseline.getProperty("wallTimeMs")), threshold);
+            passed &= check("peak heap bytes", peakHeapBytes, Double.parseDouble(baseline.getProperty("peakHeapBytes")), threshold);
+            return passed;
+        }
+
+        /**
+         * @param threshold allowed relative change, negative if lower values are regressions
+         */
+        private static boolean check(String metric, double value, double baseline, double threshold) {
+            double change = (value - baseline) / baseline;
+            boolean regressed = threshold < 0 ? change < threshold : change > threshold;
+            if (regressed) {
+                logger.error("Regression in {}: {} against baseline {} ({}%)", metric, Math.round(value), Math.round(baseline), Math.round(change * 100));
+            } else {
+                logger.info("{}: {} against baseline {} ({}%)", metric, Math.round(value), Math.round(baseline), Math.round(change * 100));
+            }
+            return !regressed;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package org.entur.basmu.scale;
+
+import com.google.protobuf.ByteString;
+import crosby.binary.Osmformat;
+import crosby.binary.file.BlockOutputStream;
+import crosby.binary.file.FileBlock;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a deterministic PBF file, sorted by type and id, with configurable counts of tagged and untagged
+ * nodes, ways and multipolygon relations whose outer rings are split into fragments.
+ * <p>
+ * Nodes 1..nodes are laid out on a grid. Ways are closed squares on the grid, every third an open fragment.
+ * Each relation has its own ring nodes after the grid nodes, and its own fragment ways after the plain ways.
+ * Every entity gets its tags from a hash of the seed and its id, so the output does not depend on the
+ * block size or the order of generation.
+ */
+public class SyntheticPbfGenerator {
+
+    private static final int GRANULARITY = 100;
+    private static final int ENTITIES_PER_BLOCK = 8000;
+    private static final int GRID_WIDTH = 1000;
+    private static final double ORIGIN_LAT = 58.0;
+    private static final double ORIGIN_LON = 5.0;
+    private static final double GRID_STEP = 0.0005;
+
+    private static final String[] AMENITIES = {"cafe", "restaurant", "school", "bank", "toilets", "bench", "parking"};
+    private static final String[] LEISURE = {"park", "pitch", "playground"};
+
+    private long nodes = 1_000_000;
+    private long ways = 100_000;
+    private long relations = 2_000;
+    private int fragmentsPerRing = 8;
+    private int nodesPerFragment = 10;
+    private double poiRatio = 0.03;
+    private double namedRatio = 0.07;
+    private double otherTaggedRatio = 0.10;
+    private long seed = 1;
+
+    public SyntheticPbfGenerator nodes(long nodes) {
+        this.nodes = Math.max(nodes, 3L * GRID_WIDTH);
+        return this;
+    }
+
+    public SyntheticPbfGenerator ways(long ways) {
+        this.ways = ways;
+        return this;
+    }
+
+    public SyntheticPbfGenerator relations(long relations) {
+        this.relations = relations;
+        return this;
+    }
+
+    public SyntheticPbfGenerator fragmentsPerRing(int fragmentsPerRing) {
+        this.fragmentsPerRing = Math.max(fragmentsPerRing, 1);
+        return this;
+    }
+
+    public SyntheticPbfGenerator nodesPerFragment(int nodesPerFragment) {
+        this.nodesPerFragment = Math.max(nodesPerFragment, 3);
+        return this;
+    }
+
+    /**
+     * Share of nodes and ways that are named and match the filters of {@link ScaleTest#FILTERS_JSON}.
+     */
+    public SyntheticPbfGenerator poiRatio(double poiRatio) {
+        this.poiRatio = poiRatio;
+        return this;
+    }
+
+    /**
+     * Share of nodes and ways that are named without matching the filters.
+     */
+    public SyntheticPbfGenerator namedRatio(double namedRatio) {
+        this.namedRatio = namedRatio;
+        return this;
+    }
+
+    /**
+     * Share of nodes and ways with tags other than a name.
+     */
+    public SyntheticPbfGenerator otherTaggedRatio(double otherTaggedRatio) {
+        this.otherTaggedRatio = otherTaggedRatio;
+        return this;
+    }
+
+    public SyntheticPbfGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public long getNodeCount() {
+        return nodes + relations * ringNodes();
+    }
+
+    public long getWayCount() {
+        return ways + relations * fragmentsPerRing;
+    }
+
+    public long getRelationCount() {
+        return relations;
+    }
+
+    public void write(File file) throws IOException {
+        try (var out = new BlockOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20))) {
+            var header = Osmformat.HeaderBlock.newBuilder()
+                    .addRequiredFeatures("OsmSchema-V0.6")
+                    .addRequiredFeatures("DenseNodes")
+                    .addOptionalFeatures("Sort.Type_then_ID")
+                    .setWritingprogram("basmu-synthetic");
+            out.write(FileBlock.newInstance("OSMHeader", header.build().toByteString(), null));
+
+            writeNodes(out);
+            writeWays(out);
+            writeRelations(out);
+        }
+    }
+
+    private void writeNodes(BlockOutputStream out) throws IOException {
+        long lastNode = getNodeCount();
+        for (long first = 1; first <= lastNode; first += ENTITIES_PER_BLOCK) {
+            var strings = new StringTable();
+            var dense = Osmformat.DenseNodes.newBuilder();
+            long previousId = 0;
+            long previousLat = 0;
+            long previousLon = 0;
+            for (long id = first; id < first + ENTITIES_PER_BLOCK && id <= lastNode; id++) {
+                double[] coordinate = coordinate(id);
+                long lat = Math.round(coordinate[0] * 1e9 / GRANULARITY);
+                long lon = Math.round(coordinate[1] * 1e9 / GRANULARITY);
+                dense.addId(id - previousId).addLat(lat - previousLat).addLon(lon - previousLon);
+                previousId = id;
+                previousLat = lat;
+                previousLon = lon;
+                if (id <= nodes) {
+                    tags('n', id).forEach((key, value) -> dense.addKeysVals(strings.id(key)).addKeysVals(strings.id(value)));
+                }
+                dense.addKeysVals(0);
+            }
+            writeBlock(out, strings, Osmformat.PrimitiveGroup.newBuilder().setDense(dense));
+        }
+    }
+
+    private void writeWays(BlockOutputStream out) throws IOException {
+        long lastWay = getWayCount();
+        for (long first = 1; first <= lastWay; first += ENTITIES_PER_BLOCK) {
+            var strings = new StringTable();
+            var group = Osmformat.PrimitiveGroup.newBuilder();
+            for (long id = first; id < first + ENTITIES_PER_BLOCK && id <= lastWay; id++) {
+                var way = Osmformat.Way.newBuilder().setId(id);
+                long previousRef = 0;
+                for (long ref : id <= ways ? plainWayRefs(id) : fragmentRefs(id - ways - 1)) {
+                    way.addRefs(ref - previousRef);
+                    previousRef = ref;
+                }
+                if (id <= ways) {
+                    tags('w', id).forEach((key, value) -> way.addKeys(strings.id(key)).addVals(strings.id(value)));
+                }
+                group.addWays(way);
+            }
+            writeBlock(out, strings, group);
+        }
+    }
+
+    private void writeRelations(BlockOutputStream out) throws IOException {
+        for (long first = 1; first <= relations; first += ENTITIES_PER_BLOCK) {
+            var strings = new StringTable();
+            var group = Osmformat.PrimitiveGroup.newBuilder();
+            for (long id = first; id < first + ENTITIES_PER_BLOCK && id <= relations; id++) {
+                long hash = mix('r', id);
+                var relation = Osmformat.Relation.newBuilder().setId(id);
+                relation.addKeys(strings.id("type")).addVals(strings.id("multipolygon"));
+                relation.addKeys(strings.id("name")).addVals(strings.id("Område " + id));
+                if ((hash & 1) == 0) {
+                    relation.addKeys(strings.id("leisure")).addVals(strings.id("park"));
+                } else {
+                    relation.addKeys(strings.id("amenity")).addVals(strings.id("school"));
+                }
+
+                long previousMember = 0;
+                long firstWay = ways + 1 + (id - 1) * fragmentsPerRing;
+                for (long wayId = firstWay; wayId < firstWay + fragmentsPerRing; wayId++) {
+                    relation.addMemids(wayId - previousMember)
+                            .addTypes(Osmformat.Relation.MemberType.WAY)
+                            .addRolesSid(strings.id("outer"));
+                    previousMember = wayId;
+                }
+                group.addRelations(relation);
+            }
+            writeBlock(out, strings, group);
+        }
+    }
+
+    private long[] plainWayRefs(long id) {
+        long base = 1 + Long.remainderUnsigned(mix('p', id), nodes - 2L * GRID_WIDTH - 2);
+        return id % 3 == 0
+                ? new long[]{base, base + 1, base + 1 + GRID_WIDTH}
+                : new long[]{base, base + 1, base + 1 + GRID_WIDTH, base + GRID_WIDTH, base};
+    }
+
+    /**
+     * Fragment {@code index} over all relations, every other fragment reversed.
+     */
+    private long[] fragmentRefs(long index) {
+        long relationIndex = index / fragmentsPerRing;
+        int fragment = (int) (index % fragmentsPerRing);
+        long firstNode = nodes + 1 + relationIndex * ringNodes();
+        long[] refs = new long[nodesPerFragment];
+        for (int i = 0; i < nodesPerFragment; i++) {
+            refs[i] = firstNode + (fragment * (nodesPerFragment - 1L) + i) % ringNodes();
+        }
+        if (fragment % 2 == 1) {
+            for (int i = 0; i < refs.length / 2; i++) {
+                long ref = refs[i];
+                refs[i] = refs[refs.length - 1 - i];
+                refs[refs.length - 1 - i] = ref;
+            }
+        }
+        return refs;
+    }
+
+    private int ringNodes() {
+        return fragmentsPerRing * (nodesPerFragment - 1);
+    }
+
+    private double[] coordinate(long id) {
+        if (id <= nodes) {
+            return new double[]{ORIGIN_LAT + (id % GRID_WIDTH) * GRID_STEP, ORIGIN_LON + (id / GRID_WIDTH) * GRID_STEP};
+        }
+        long relationIndex = (id - nodes - 1) / ringNodes();
+        int index = (int) ((id - nodes - 1) % ringNodes());
+        long hash = mix('c', relationIndex);
+        double centerLat = ORIGIN_LAT + (hash >>> 40) % GRID_WIDTH * GRID_STEP;
+        double centerLon = ORIGIN_LON + (hash >>> 8) % Math.max(1, nodes / GRID_WIDTH) * GRID_STEP;
+        double radius = 0.002 + (hash & 0xff) * 0.00002;
+        double angle = 2 * Math.PI * index / ringNodes();
+        return new double[]{centerLat + radius * Math.sin(angle), centerLon + 2 * radius * Math.cos(angle)};
+    }
+
+    private Map<String, String> tags(char type, long id) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        long hash = mix(type, id);
+        double kind = (hash >>> 11) * 0x1.0p-53;
+        int choice = (int) (hash & 0xff);
+        if (kind < poiRatio) {
+            tags.put("name", (type == 'n' ? "Sted " : "Bygg ") + id);
+            if (choice % 3 == 0) {
+                tags.put("leisure", LEISURE[choice % LEISURE.length]);
+            } else {
+                tags.put("amenity", AMENITIES[choice % AMENITIES.length]);
+            }
+            if (choice % 4 == 0) {
+                tags.put("name:en", "Place " + id);
+            }
+        } else if (kind < poiRatio + namedRatio) {
+            tags.put("name", "Vei " + id);
+            tags.put("highway", "residential");
+        } else if (kind < poiRatio + namedRatio + otherTaggedRatio) {
+            tags.put("building", "yes");
+        }
+        return tags;
+    }
+
+    private long mix(char type, long id) {
+        long h = seed * 0x9E3779B97F4A7C15L + type * 0xC2B2AE3D27D4EB4FL + id;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static void writeBlock(BlockOutputStream out, StringTable strings, Osmformat.PrimitiveGroup.Builder group) throws IOException {
+        var block = Osmformat.PrimitiveBlock.newBuilder()
+                .setStringtable(strings.build())
+                .setGranularity(GRANULARITY)
+                .addPrimitivegroup(group);
+        out.write(FileBlock.newInstance("OSMData", block.build().toByteString(), null));
+    }
+
+    private static class StringTable {
+        private final Map<String, Integer> ids = new LinkedHashMap<>();
+
+        StringTable() {
+            ids.put("", 0);
+        }
+
+        int id(String string) {
+            return ids.computeIfAbsent(string, s -> ids.size());
+        }
+
+        Osmformat.StringTable build() {
+            var table = Osmformat.StringTable.newBuilder();
+            ids.keySet().forEach(string -> table.addS(ByteString.copyFromUtf8(string)));
+            return table.build();
+        }
+    }
+
+    /**
+     * Usage: SyntheticPbfGenerator file [nodes ways relations fragmentsPerRing seed]
+     */
+    public static void main(String[] args) throws IOException {
+        var generator = new SyntheticPbfGenerator();
+        if (args.length > 1) {
+            generator.nodes(Long.parseLong(args[1]))
+                    .ways(Long.parseLong(args[2]))
+                    .relations(Long.parseLong(args[3]))
+                    .fragmentsPerRing(Integer.parseInt(args[4]))
+                    .seed(Long.parseLong(args[5]));
+        }
+        generator.write(new File(args[0]));
+    }
+}
@@ -0,0 +1,130 @@
+package org.entur.basmu.csv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvSorterTest {
+
+    private static final String HEADER = "id,source,layer,name,lat,lon";
+
+    @TempDir
+    Path workDir;
+
+    private record Record(String raw, double lat, double lon) {
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SpatialOrder.class, names = {"HILBERT", "GEOHASH"})
+    void externalMergeKeepsTheOrderOfEqualKeysForAnyChunkSize(SpatialOrder order) throws IOException {
+        List<Record> records = records();
+        String expected = expected(order, records);
+
+        for (int chunkRecords : new int[]{1, 2, 3, records.size() - 1, records.size(), records.size() + 1}) {
+            var out = new ByteArrayOutputStream();
+            long count = new CsvSorter(order, chunkRecords, workDir).sort(csv(records), out);
+
+            assertEquals(records.size(), count, "records with chunks of " + chunkRecords);
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8), "records with chunks of " + chunkRecords);
+            try (Stream<Path> files = Files.list(workDir)) {
+                assertEquals(0, files.count(), "runs left with chunks of " + chunkRecords);
+            }
+        }
+    }
+
+    @Test
+    void recordsWithoutCenterPointGoLastInTheirOrder() throws IOException {
+        String csv = HEADER + "\n"
+                + "1,osm,poi,No lat,,10.7\n"
+                + "2,osm,poi,North,69.6,18.9\n"
+                + "3,osm,poi,No columns\n"
+                + "4,osm,poi,South,58.1,8.0\n"
+                + "5,osm,poi,Not a number,x,y\n";
+
+        for (int chunkRecords : new int[]{1, 2, 5}) {
+            var out = new ByteArrayOutputStream();
+            new CsvSorter(SpatialOrder.GEOHASH, chunkRecords, workDir)
+                    .sort(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), out);
+
+            assertEquals(HEADER + "\n"
+                    + "4,osm,poi,South,58.1,8.0\n"
+                    + "2,osm,poi,North,69.6,18.9\n"
+                    + "1,osm,poi,No lat,,10.7\n"
+                    + "3,osm,poi,No columns\n"
+                    + "5,osm,poi,Not a number,x,y\n", out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void emptyFilesAndFilesWithoutCoordinates() throws IOException {
+        var sorter = new CsvSorter(SpatialOrder.HILBERT, 2, workDir);
+
+        var out = new ByteArrayOutputStream();
+        assertEquals(0, sorter.sort(new ByteArrayInputStream(new byte[0]), out));
+        assertEquals("", out.toString(StandardCharsets.UTF_8));
+
+        out = new ByteArrayOutputStream();
+        assertEquals(0, sorter.sort(new ByteArrayInputStream((HEADER + "\n").getBytes(StandardCharsets.UTF_8)), out));
+        assertEquals(HEADER + "\n", out.toString(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class, () -> sorter.sort(
+                new ByteArrayInputStream("id,name\n1,a\n".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+    }
+
+    /**
+     * Records with the same center point several times, with quoted fields, and without center point.
+     */
+    private static List<Record> records() {
+        double[][] points = {{59.91, 10.75}, {60.39, 5.32}, {63.43, 10.39}, {69.65, 18.96}, {58.97, 5.73}};
+        var records = new ArrayList<Record>();
+        for (int i = 0; i < 40; i++) {
+            double[] point = points[(i * 7) % points.length];
+            String name = switch (i % 4) {
+                case 0 -> "\"Kafé, bar\"";
+                case 1 -> "\"Line one\nline two\"";
+                case 2 -> "\"Quoted \"\"name\"\"\"";
+                default -> "Plain " + i;
+            };
+            if (i % 9 == 4) {
+                records.add(new Record(i + ",osm,poi," + name + ",,", Double.NaN, Double.NaN));
+            } else {
+                records.add(new Record(i + ",osm,poi," + name + "," + point[0] + "," + point[1], point[0], point[1]));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * The records in a stable sort by key, records without center point last.
+     */
+    private static String expected(SpatialOrder order, List<Record> records) {
+        var sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparingLong(record -> Double.isNaN(record.lat())
+                ? Long.MAX_VALUE
+                : order.key(record.lat(), record.lon())));
+        var expected = new StringBuilder(HEADER).append('\n');
+        sorted.forEach(record -> expected.append(record.raw()).append('\n'));
+        return expected.toString();
+    }
+
+    private static ByteArrayInputStream csv(List<Record> records) {
+        var csv = new StringBuilder(HEADER).append('\n');
+        records.forEach(record -> csv.append(record.raw()).append('\n'));
+        return new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,86 @@
+package org.entur.basmu.csv;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.domain.Tag;
+import org.entur.basmu.osm.mapper.PeliasDocumentMapper;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.geocoder.csv.CSVCreator;
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.geocoder.model.PeliasDocument;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PeliasCsvWriterTest {
+
+    private static final List<PointOfInterestFilter> FILTERS = List.of(
+            new PointOfInterestFilter(1L, "amenity", List.of(new Tag("cafe", 2), new Tag("restaurant", 1))));
+
+    @Test
+    void writesTheSameBytesAsCSVCreatorForAnyBatchSize() throws IOException {
+        List<PeliasDocument> documents = documents();
+        byte[] expected = toBytes(CSVCreator.create(documents.stream()));
+
+        for (int batchSize : new int[]{1, 2, 7, documents.size(), documents.size() + 1}) {
+            var out = new ByteArrayOutputStream();
+            var writer = new PeliasCsvWriter(out, batchSize);
+            documents.forEach(writer);
+            assertEquals(documents.size(), writer.finish(), "documents written with batch size " + batchSize);
+            assertArrayEquals(expected, out.toByteArray(), "CSV written with batch size " + batchSize);
+        }
+    }
+
+    @Test
+    void writesOnlyTheHeaderWithoutDocuments() throws IOException {
+        byte[] expected = toBytes(CSVCreator.create(List.<PeliasDocument>of().stream()));
+
+        var out = new ByteArrayOutputStream();
+        var writer = new PeliasCsvWriter(out, 3);
+        assertEquals(0, writer.finish());
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    /**
+     * Documents of the mapper, with names needing quotes in CSV and names in several languages.
+     */
+    private static List<PeliasDocument> documents() {
+        var mapper = new PeliasDocumentMapper(1, List.of(), FILTERS);
+        String[] names = {
+                "Kafé \"Hjørnet\"",
+                "Bar, bistro og bakeri",
+                "Line one\nline two",
+                "Carriage\r\nreturn",
+                "Ærlig Øl & Ål",
+                "Plain",
+                "Trailing \"",
+                "\"Quoted\", with comma",
+                "Sámi giella",
+                "Name; with semicolon"};
+        List<PeliasDocument> documents = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            var node = new OSMNode(1000 + i, 59.9 + i * 0.001, 10.7 + i * 0.001);
+            node.addTag("name", names[i]);
+            node.addTag("amenity", i % 2 == 0 ? "cafe" : "restaurant");
+            node.addTag("name:en", names[(i + 1) % names.length]);
+            node.addTag("name:se", names[(i + 2) % names.length]);
+            if (i % 3 == 0) {
+                node.addTag("name:de", names[(i + 3) % names.length]);
+            }
+            documents.addAll(mapper.map(node, new GeoPoint(node.getLat(), node.getLon())));
+        }
+        return documents;
+    }
+
+    private static byte[] toBytes(InputStream csv) throws IOException {
+        try (csv) {
+            return csv.readAllBytes();
+        }
+    }
+}
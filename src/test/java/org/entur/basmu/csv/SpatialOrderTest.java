@@ -0,0 +1,106 @@
+package org.entur.basmu.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialOrderTest {
+
+    private static final long MAX_KEY = (1L << 62) - 1;
+
+    /**
+     * Hilbert index of the cells (x, y) of a 4 x 4 grid, x = lon and y = lat, both from the south-west corner.
+     */
+    private static final int[][] HILBERT_4X4 = {
+            {0, 3, 4, 5},
+            {1, 2, 7, 6},
+            {14, 13, 8, 9},
+            {15, 12, 11, 10}};
+
+    @Test
+    void hilbertKeysOfA4x4Grid() {
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                assertEquals(HILBERT_4X4[x][y], gridIndex(SpatialOrder.HILBERT, 4, x, y), "cell " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void geohashKeysOfA4x4Grid() {
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                // Longitude bit first, as in geohash strings
+                int expected = (x >> 1) << 3 | (y >> 1) << 2 | (x & 1) << 1 | (y & 1);
+                assertEquals(expected, gridIndex(SpatialOrder.GEOHASH, 4, x, y), "cell " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void cornersAndPointsOutsideTheRange() {
+        for (SpatialOrder order : new SpatialOrder[]{SpatialOrder.HILBERT, SpatialOrder.GEOHASH}) {
+            assertEquals(0, order.key(-90, -180), order.name());
+            assertEquals(order.key(90, 180), order.key(91, 181), order.name());
+            assertEquals(order.key(-90, -180), order.key(-91, -181), order.name());
+        }
+        assertEquals(MAX_KEY, SpatialOrder.GEOHASH.key(90, 180));
+        // The Hilbert curve ends in the south-east corner
+        assertEquals(MAX_KEY, SpatialOrder.HILBERT.key(-90, 180));
+        assertEquals(0, SpatialOrder.PARSE.key(59.9, 10.7));
+    }
+
+    @Test
+    void consecutiveHilbertCellsAreNeighbours() {
+        int size = 64;
+        int[][] cells = new int[size * size][];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int index = (int) gridIndex(SpatialOrder.HILBERT, size, x, y);
+                assertNull(cells[index], "index " + index + " of two cells");
+                cells[index] = new int[]{x, y};
+            }
+        }
+        for (int i = 1; i < cells.length; i++) {
+            int distance = Math.abs(cells[i][0] - cells[i - 1][0]) + Math.abs(cells[i][1] - cells[i - 1][1]);
+            assertEquals(1, distance, "cells " + (i - 1) + " and " + i);
+        }
+    }
+
+    @Test
+    void geohashKeysIncreaseWithLatitudeAndLongitude() {
+        var keys = new HashSet<Long>();
+        for (double lat = -89.5; lat < 90; lat += 7.3) {
+            long previous = -1;
+            for (double lon = -179.5; lon < 180; lon += 11.1) {
+                long key = SpatialOrder.GEOHASH.key(lat, lon);
+                assertTrue(key > previous, "key of " + lat + "," + lon);
+                assertTrue(key > SpatialOrder.GEOHASH.key(lat - 7.3, lon), "key of " + lat + "," + lon);
+                assertTrue(key <= MAX_KEY);
+                keys.add(key);
+                previous = key;
+            }
+        }
+        assertTrue(keys.size() > 1);
+    }
+
+    @Test
+    void parsesTheOrderName() {
+        assertEquals(SpatialOrder.HILBERT, SpatialOrder.of(" hilbert "));
+        assertEquals(SpatialOrder.GEOHASH, SpatialOrder.of("GeoHash"));
+    }
+
+    /**
+     * Index along the curve of the cell (x, y) of a size x size grid, from the key of the center of the cell.
+     */
+    private static long gridIndex(SpatialOrder order, int size, int x, int y) {
+        double lon = -180 + (x + 0.5) * 360 / size;
+        double lat = -90 + (y + 0.5) * 180 / size;
+        int bits = Integer.numberOfTrailingZeros(size) * 2;
+        return order.key(lat, lon) >>> (62 - bits);
+    }
+}
@@ -0,0 +1,128 @@
+package org.entur.basmu.delta;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeltaExportServiceTest {
+
+    private static final String HEADER = "id,source,layer,name";
+
+    @TempDir
+    Path workDir;
+
+    private DeltaExportService deltaExportService;
+
+    @BeforeEach
+    void setUp() {
+        deltaExportService = new DeltaExportService(null);
+        ReflectionTestUtils.setField(deltaExportService, "basmuWorkDir", workDir.toString());
+    }
+
+    @Test
+    void writesAddedChangedAndRemovedRecords() throws IOException {
+        var previous = createDelta(Map.of(),
+                "osm:1,osm,poi,Kafé",
+                "osm:2,osm,poi,Bakeri",
+                "osm:3,osm,poi,\"Bar, pub\"");
+
+        var delta = createDelta(previous.manifest(),
+                "osm:1,osm,poi,Kafé",
+                "osm:2,osm,poi,Bakeri og kafé",
+                "osm:4,osm,poi,Skole");
+
+        assertEquals(List.of(HEADER, "osm:4,osm,poi,Skole"), lines(delta.added()));
+        assertEquals(List.of(HEADER, "osm:2,osm,poi,Bakeri og kafé"), lines(delta.changed()));
+        assertEquals(List.of("id,source,layer", "osm:3,osm,poi"), lines(delta.removed()));
+        assertEquals(1, delta.addedCount());
+        assertEquals(1, delta.changedCount());
+        assertEquals(1, delta.removedCount());
+        assertEquals(0, delta.duplicateCount());
+    }
+
+    @Test
+    void keepsTheManifestKeysWithQuotes() throws IOException {
+        var previous = createDelta(Map.of(), "\"osm:1,a\",osm,poi,Kafé");
+
+        var delta = createDelta(previous.manifest());
+
+        assertEquals(List.of("id,source,layer", "\"osm:1,a\",osm,poi"), lines(delta.removed()));
+    }
+
+    @Test
+    void unchangedRecordsWithTheSameKeyAreNotChanged() throws IOException {
+        var previous = createDelta(Map.of(),
+                "osm:1,osm,poi,Node",
+                "osm:2,osm,poi,Other",
+                "osm:1,osm,poi,Way");
+        assertEquals(1, previous.duplicateCount());
+        assertEquals(2, previous.manifest().size());
+
+        // The records of a key are compared whatever their order
+        var delta = createDelta(previous.manifest(),
+                "osm:1,osm,poi,Way",
+                "osm:2,osm,poi,Other",
+                "osm:1,osm,poi,Node");
+
+        assertEquals(List.of(HEADER), lines(delta.added()));
+        assertEquals(List.of(HEADER), lines(delta.changed()));
+        assertEquals(List.of("id,source,layer"), lines(delta.removed()));
+        assertEquals(1, delta.duplicateCount());
+    }
+
+    @Test
+    void changesOfRecordsWithTheSameKeyAreExportedTogether() throws IOException {
+        var previous = createDelta(Map.of(),
+                "osm:1,osm,poi,Node",
+                "osm:1,osm,poi,Way");
+
+        var changed = createDelta(previous.manifest(),
+                "osm:1,osm,poi,Node",
+                "osm:1,osm,poi,Changed way");
+        assertEquals(List.of(HEADER, "osm:1,osm,poi,Node", "osm:1,osm,poi,Changed way"), lines(changed.changed()));
+
+        // The key is still exported, so the removal of one of its records changes it
+        var oneRemoved = createDelta(previous.manifest(), "osm:1,osm,poi,Node");
+        assertEquals(List.of(HEADER, "osm:1,osm,poi,Node"), lines(oneRemoved.changed()));
+        assertEquals(List.of("id,source,layer"), lines(oneRemoved.removed()));
+
+        var allRemoved = createDelta(previous.manifest(), "osm:2,osm,poi,Other");
+        assertEquals(List.of("id,source,layer", "osm:1,osm,poi"), lines(allRemoved.removed()));
+        assertEquals(List.of(HEADER, "osm:2,osm,poi,Other"), lines(allRemoved.added()));
+    }
+
+    @Test
+    void aSecondRecordWithAKeyIsAChange() throws IOException {
+        var previous = createDelta(Map.of(), "osm:1,osm,poi,Node");
+
+        var delta = createDelta(previous.manifest(),
+                "osm:1,osm,poi,Node",
+                "osm:1,osm,poi,Way");
+
+        assertEquals(List.of(HEADER), lines(delta.added()));
+        assertEquals(List.of(HEADER, "osm:1,osm,poi,Node", "osm:1,osm,poi,Way"), lines(delta.changed()));
+        assertEquals(2, delta.changedCount());
+    }
+
+    private ExportDelta createDelta(Map<String, String> previousManifest, String... records) throws IOException {
+        File csvFile = Files.createTempFile(workDir, "export", ".csv").toFile();
+        Files.writeString(csvFile.toPath(), HEADER + "\n" + String.join("\n", records) + (records.length > 0 ? "\n" : ""),
+                StandardCharsets.UTF_8);
+        return deltaExportService.createDelta(csvFile, previousManifest, csvFile.getName().replace(".csv", ""));
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,194 @@
+package org.entur.basmu.osm.mapper;
+
+import org.entur.basmu.osm.domain.PointOfInterestFilter;
+import org.entur.basmu.osm.domain.Tag;
+import org.entur.basmu.osm.model.OSMNode;
+import org.entur.basmu.osm.model.OSMRelation;
+import org.entur.basmu.osm.model.OSMWay;
+import org.entur.basmu.osm.model.OSMWithTags;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.geocoder.model.PeliasId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PointOfInterestDeduplicatorTest {
+
+    private static final double DISTANCE_METERS = 50;
+    private static final double LAT = 59.91;
+    private static final double LON = 10.75;
+    /**
+     * About 11 meters north.
+     */
+    private static final double NEAR = 0.0001;
+    /**
+     * About 111 meters north.
+     */
+    private static final double FAR = 0.001;
+
+    private static final List<PointOfInterestFilter> FILTERS = List.of(
+            new PointOfInterestFilter(1L, "amenity", List.of(new Tag("cafe", 1), new Tag("cinema", 1))));
+
+    private final List<PeliasDocument> sink = new ArrayList<>();
+    private PointOfInterestDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        deduplicator = new PointOfInterestDeduplicator(DISTANCE_METERS, FILTERS, sink::add);
+    }
+
+    @Test
+    void nodeAndWayWithTheSameKeyWithinTheDistanceAreDuplicates() {
+        add(node(1, "Kafé Hjørnet", "cafe"), LAT, LON);
+        var way = add(way(2, "KAFE-Hjørnet!", "cafe", "building", "yes"), LAT + NEAR, LON);
+
+        deduplicator.flush();
+
+        assertEquals(way, sink);
+        assertEquals(Map.of("node", 1L), deduplicator.getDuplicates());
+    }
+
+    @Test
+    void nodeAndWayWithTheSameKeyBeyondTheDistanceAreKept() {
+        var node = add(node(1, "Kafé Hjørnet", "cafe"), LAT, LON);
+        var way = add(way(2, "Kafé Hjørnet", "cafe", "building", "yes"), LAT + FAR, LON);
+
+        deduplicator.flush();
+
+        assertEquals(concat(node, way), sink);
+        assertEquals(Map.of(), deduplicator.getDuplicates());
+    }
+
+    @Test
+    void entitiesWithAnotherKeyOrOfTheSameTypeAreKept() {
+        var cafe = add(node(1, "Hjørnet", "cafe"), LAT, LON);
+        var cinema = add(way(2, "Hjørnet", "cinema"), LAT, LON);
+        var otherName = add(way(3, "Hjørnet 2", "cafe"), LAT, LON);
+        var sameType = add(node(4, "Hjørnet", "cafe"), LAT, LON);
+
+        deduplicator.flush();
+
+        assertEquals(concat(cafe, cinema, otherName, sameType), sink);
+    }
+
+    @Test
+    void entityWithMoreTagsReplacesTheOneAddedFirst() {
+        add(way(1, "Kafé Hjørnet", "cafe"), LAT, LON);
+        var relation = add(relation(2, "Kafé Hjørnet", "cafe", "building", "yes"), LAT, LON + NEAR);
+        add(node(3, "Kafé Hjørnet", "cafe", "opening_hours", "24/7"), LAT + NEAR, LON);
+
+        deduplicator.flush();
+
+        // The node has as many tags as the relation, so the relation added first is kept
+        assertEquals(relation, sink);
+        assertEquals(Map.of("way", 1L, "node", 1L), deduplicator.getDuplicates());
+    }
+
+    @Test
+    void entitiesWithoutNameAreNotKeptBack() {
+        var unnamed = new OSMNode(1, LAT, LON);
+        unnamed.addTag("amenity", "cafe");
+
+        var documents = add(unnamed, LAT, LON);
+
+        assertEquals(documents, sink);
+        assertEquals(0, deduplicator.getKeptBack());
+    }
+
+    @Test
+    void entitiesAreEmittedOnceNoOtherTypeWithTheKeyIsExpected() {
+        var expectedWay = way(10, "Kafé Hjørnet", "cafe");
+        deduplicator.expect(expectedWay);
+        deduplicator.expectedAll("way");
+        deduplicator.expectedAll("relation");
+
+        var unique = add(node(1, "Bakeriet", "cafe"), LAT, LON);
+        assertEquals(unique, sink, "no way or relation with the key is expected");
+
+        var kept = add(node(2, "Kafé Hjørnet", "cafe"), LAT, LON);
+        assertEquals(unique, sink, "a way with the key is expected");
+
+        add(expectedWay, LAT + NEAR, LON);
+        deduplicator.flush();
+
+        assertEquals(concat(unique, kept), sink);
+        assertEquals(1, deduplicator.getKeptBack());
+    }
+
+    @Test
+    void entitiesAreEmittedOnceTheOtherTypesAreAddedAll() {
+        deduplicator.addedAll("node");
+
+        var beforeRelations = add(way(1, "Kafé Hjørnet", "cafe"), LAT, LON);
+        assertEquals(List.of(), sink, "relations may still be added");
+
+        deduplicator.addedAll("relation");
+        var afterRelations = add(way(2, "Hjørnet", "cafe"), LAT, LON);
+        assertEquals(afterRelations, sink);
+
+        deduplicator.flush();
+
+        assertEquals(concat(afterRelations, beforeRelations), sink);
+    }
+
+    @Test
+    void flushKeepsTheOrderOfTheEntitiesAdded() {
+        add(node(1, "Kafé Hjørnet", "cafe"), LAT, LON);
+        var second = add(node(2, "Bakeriet", "cafe"), LAT, LON);
+        var replacement = add(way(3, "Kafé Hjørnet", "cafe", "building", "yes"), LAT, LON);
+        var third = add(relation(4, "Kino", "cinema"), LAT, LON);
+
+        deduplicator.flush();
+
+        assertEquals(concat(second, replacement, third), sink);
+        assertEquals(4, deduplicator.getKeptBack());
+
+        deduplicator.flush();
+        assertEquals(concat(second, replacement, third), sink, "flush passes on each entity once");
+    }
+
+    private List<PeliasDocument> add(OSMWithTags entity, double lat, double lon) {
+        List<PeliasDocument> documents = List.of(document(entity, "0"), document(entity, "1"));
+        deduplicator.add(entity, lat, lon, documents);
+        return documents;
+    }
+
+    private static PeliasDocument document(OSMWithTags entity, String suffix) {
+        return new PeliasDocument(new PeliasId("OSM", "poi", entity.getId() + "-" + suffix));
+    }
+
+    private static OSMNode node(long id, String name, String amenity, String... tags) {
+        return withTags(new OSMNode(id, LAT, LON), name, amenity, tags);
+    }
+
+    private static OSMWay way(long id, String name, String amenity, String... tags) {
+        return withTags(new OSMWay(id), name, amenity, tags);
+    }
+
+    private static OSMRelation relation(long id, String name, String amenity, String... tags) {
+        return withTags(new OSMRelation(id), name, amenity, tags);
+    }
+
+    private static <T extends OSMWithTags> T withTags(T entity, String name, String amenity, String... tags) {
+        entity.addTag("name", name);
+        entity.addTag("amenity", amenity);
+        for (int i = 0; i < tags.length; i += 2) {
+            entity.addTag(tags[i], tags[i + 1]);
+        }
+        return entity;
+    }
+
+    @SafeVarargs
+    private static List<PeliasDocument> concat(List<PeliasDocument>... documents) {
+        var all = new ArrayList<PeliasDocument>();
+        for (List<PeliasDocument> list : documents) {
+            all.addAll(list);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,149 @@
+package org.entur.basmu.osm.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedLongTableTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void keepsKeysAndValuesAcrossResize() {
+        var table = new MappedLongTable(spillDirectory, "nodes", 2, 0);
+        long initialCapacity = table.capacity();
+        Path initialFile = table.file();
+
+        int count = (int) initialCapacity;
+        for (int i = 0; i < count; i++) {
+            long slot = table.insert(id(i));
+            table.setValue(slot, 0, i);
+            table.setValue(slot, 1, -i);
+        }
+
+        assertTrue(table.capacity() > initialCapacity);
+        assertFalse(Files.exists(initialFile), "the file of the old capacity is deleted");
+        assertEquals(count, table.size());
+        for (int i = 0; i < count; i++) {
+            long slot = table.find(id(i));
+            assertTrue(slot >= 0, "key " + id(i));
+            assertEquals(id(i), table.key(slot));
+            assertEquals(i, table.value(slot, 0));
+            assertEquals(-i, table.value(slot, 1));
+        }
+    }
+
+    @Test
+    void insertOfAStoredKeyReturnsItsSlot() {
+        var table = new MappedLongTable(spillDirectory, "refs", 1, 10);
+
+        long slot = table.insert(42);
+        table.setValue(slot, 0, 7);
+
+        assertEquals(slot, table.insert(42));
+        assertEquals(7, table.value(slot, 0));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void storesZeroAndNegativeKeys() {
+        var table = new MappedLongTable(spillDirectory, "refs", 0, 10);
+
+        assertEquals(-1, table.find(0));
+        table.insert(0);
+        table.insert(-1);
+        table.insert(Long.MAX_VALUE);
+        table.insert(Long.MIN_VALUE + 1);
+
+        assertEquals(4, table.size());
+        for (long key : new long[]{0, -1, Long.MAX_VALUE, Long.MIN_VALUE + 1}) {
+            long slot = table.find(key);
+            assertTrue(slot >= 0, "key " + key);
+            assertTrue(table.isOccupied(slot));
+            assertEquals(key, table.key(slot));
+        }
+        assertEquals(-1, table.find(1));
+    }
+
+    @Test
+    void longMinValueCanNotBeStored() {
+        var table = new MappedLongTable(spillDirectory, "refs", 0, 10);
+
+        assertThrows(IllegalArgumentException.class, () -> table.insert(Long.MIN_VALUE));
+        assertEquals(-1, table.find(Long.MIN_VALUE));
+    }
+
+    @Test
+    void probesPastCollidingKeys() {
+        var table = new MappedLongTable(spillDirectory, "refs", 1, 10);
+        List<Long> colliding = collidingKeys(table.capacity(), 0, 4);
+
+        for (int i = 0; i < colliding.size(); i++) {
+            table.setValue(table.insert(colliding.get(i)), 0, i);
+        }
+
+        var slots = new ArrayList<Long>();
+        for (int i = 0; i < colliding.size(); i++) {
+            long slot = table.find(colliding.get(i));
+            assertTrue(slot >= 0, "key " + colliding.get(i));
+            assertEquals(i, table.value(slot, 0));
+            slots.add(slot);
+        }
+        assertEquals(slots.stream().distinct().count(), slots.size());
+
+        // A missing key with the same home slot walks the whole probe chain
+        long missing = collidingKeys(table.capacity(), colliding.get(colliding.size() - 1) + 1, 1).get(0);
+        assertEquals(-1, table.find(missing));
+    }
+
+    @Test
+    void missingKeysAreNotFound() {
+        var table = new MappedLongTable(spillDirectory, "refs", 0, 1000);
+        for (int i = 0; i < 1000; i++) {
+            table.insert(id(i) * 2);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(-1, table.find(id(i) * 2 + 1));
+        }
+    }
+
+    @Test
+    void deleteRemovesTheFile() {
+        var table = new MappedLongTable(spillDirectory, "refs", 0, 10);
+        assertTrue(Files.exists(table.file()));
+
+        table.delete();
+
+        assertFalse(Files.exists(table.file()));
+    }
+
+    /**
+     * Spread out ids, as in an OSM extract.
+     */
+    private static long id(int i) {
+        return 1_000_000L + i * 7919L;
+    }
+
+    private static List<Long> collidingKeys(long capacity, long start, int count) {
+        long mask = capacity - 1;
+        long home = MappedLongTable.mix(0) & mask;
+        var keys = new ArrayList<Long>();
+        for (long key = start; keys.size() < count; key++) {
+            if ((MappedLongTable.mix(key) & mask) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,138 @@
+package org.entur.basmu.osm.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SortedLongRefSetTest {
+
+    @Test
+    void findsRefsInOrder() {
+        var refs = refs(10, 20, 30, 40);
+
+        assertEquals(0, refs.indexOf(10));
+        assertEquals(1, refs.indexOf(20));
+        assertEquals(1, refs.indexOf(20));
+        assertEquals(3, refs.indexOf(40));
+    }
+
+    @Test
+    void findsRefsBackwards() {
+        var refs = refs(10, 20, 30, 40);
+
+        assertEquals(3, refs.indexOf(40));
+        assertEquals(2, refs.indexOf(30));
+        assertEquals(0, refs.indexOf(10));
+        // The cursor continues forwards from the binary search
+        assertEquals(1, refs.indexOf(20));
+        assertEquals(3, refs.indexOf(40));
+    }
+
+    @Test
+    void missingRefsAreNotFound() {
+        var refs = refs(10, 20, 30, 40);
+
+        assertTrue(refs.indexOf(5) < 0);
+        assertTrue(refs.indexOf(25) < 0);
+        assertEquals(2, refs.indexOf(30));
+        assertTrue(refs.indexOf(45) < 0);
+        // Backwards to a missing ref, then forwards past the end
+        assertTrue(refs.indexOf(15) < 0);
+        assertEquals(1, refs.indexOf(20));
+        assertTrue(refs.indexOf(Long.MAX_VALUE) < 0);
+        assertTrue(refs.indexOf(Long.MIN_VALUE) < 0);
+        assertEquals(0, refs.indexOf(10));
+
+        assertTrue(new SortedLongRefSet().indexOf(0) < 0);
+    }
+
+    @Test
+    void sortsAndDeduplicatesUnsortedRefs() {
+        var refs = refs(30, 10, 0, 40, 10, -5, 30);
+
+        assertEquals(5, refs.size());
+        assertEquals(5, refs.distinctSize());
+        assertEquals(List.of(-5L, 0L, 10L, 30L, 40L), values(refs));
+        assertEquals(0, refs.indexOf(-5));
+        assertEquals(1, refs.indexOf(0));
+        assertEquals(4, refs.indexOf(40));
+        assertTrue(refs.indexOf(20) < 0);
+    }
+
+    @Test
+    void addAfterALookupSortsAgain() {
+        var refs = refs(10, 30);
+        assertEquals(1, refs.indexOf(30));
+
+        refs.add(20);
+
+        assertEquals(0, refs.indexOf(10));
+        assertEquals(1, refs.indexOf(20));
+        assertEquals(2, refs.indexOf(30));
+    }
+
+    @Test
+    void growsPastTheInitialCapacityWithDuplicates() {
+        var refs = new SortedLongRefSet();
+        for (int round = 0; round < 3; round++) {
+            for (long ref = 5000; ref > 0; ref--) {
+                refs.add(ref);
+            }
+        }
+
+        assertEquals(5000, refs.size());
+        for (long ref = 1; ref <= 5000; ref++) {
+            assertEquals(ref - 1, refs.indexOf(ref));
+            assertEquals(ref, refs.refAt((int) ref - 1));
+        }
+        assertFalse(refs.contains(0));
+        assertFalse(refs.contains(5001));
+    }
+
+    @Test
+    void unsortedInputUsesHashBasedStores() {
+        var storeFactory = new OSMStoreFactory(false, MemoryBudget.unlimited());
+
+        var refs = storeFactory.newRefSet("nodes");
+        var nodes = storeFactory.newNodeStore("nodes", refs);
+
+        assertInstanceOf(HashLongRefSet.class, ((SpillingLongRefSet) refs).delegate());
+        assertInstanceOf(SpillingNodeStore.class, nodes);
+    }
+
+    @Test
+    void sortedInputUsesSortedArrays() {
+        var storeFactory = new OSMStoreFactory(true, MemoryBudget.unlimited());
+
+        var refs = storeFactory.newRefSet("nodes");
+        refs.add(20);
+        refs.add(10);
+        var nodes = storeFactory.newNodeStore("nodes", refs);
+        nodes.put(10, 59.9, 10.7);
+
+        assertInstanceOf(SortedLongRefSet.class, ((SpillingLongRefSet) refs).delegate());
+        assertInstanceOf(SortedNodeStore.class, nodes);
+        assertTrue(nodes.contains(10));
+        assertFalse(nodes.contains(20));
+    }
+
+    private static SortedLongRefSet refs(long... values) {
+        var refs = new SortedLongRefSet();
+        for (long value : values) {
+            refs.add(value);
+        }
+        return refs;
+    }
+
+    private static List<Long> values(SortedLongRefSet refs) {
+        var values = new ArrayList<Long>();
+        refs.forEach(values::add);
+        return values;
+    }
+}
@@ -0,0 +1,117 @@
+package org.entur.basmu.osm.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillingLongRefSetTest {
+
+    /**
+     * More adds than the interval between two budget checks.
+     */
+    private static final int REF_COUNT = 100_000;
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void staysInMemoryWithinTheBudget() {
+        var budget = MemoryBudget.unlimited();
+        var refs = new SpillingLongRefSet("refs", new HashLongRefSet(), budget);
+
+        refs(REF_COUNT).forEach(refs::add);
+
+        assertFalse(refs.isSpilled());
+        assertInstanceOf(HashLongRefSet.class, refs.delegate());
+        assertEquals(REF_COUNT, refs.size());
+        assertTrue(budget.usedBytes() > 0);
+    }
+
+    @Test
+    void spillsToDiskWhenTheBudgetIsExceeded() {
+        var budget = new MemoryBudget(1024, spillDirectory);
+        var refs = new SpillingLongRefSet("refs", new HashLongRefSet(), budget);
+
+        List<Long> added = refs(REF_COUNT);
+        added.forEach(refs::add);
+
+        assertTrue(refs.isSpilled());
+        assertInstanceOf(MappedLongRefSet.class, refs.delegate());
+        assertEquals(0, budget.usedBytes(), "the in-memory set is no longer tracked");
+        assertEquals(REF_COUNT, refs.size());
+        added.forEach(ref -> assertTrue(refs.contains(ref), "ref " + ref));
+        assertFalse(refs.contains(-2));
+    }
+
+    @Test
+    void keepsAddingAfterTheSpill() {
+        var refs = new SpillingLongRefSet("refs", new SortedLongRefSet(), new MemoryBudget(0, spillDirectory));
+        refs(REF_COUNT).forEach(refs::add);
+        assertTrue(refs.isSpilled());
+
+        refs.add(0);
+        refs.add(-1);
+        refs.add(0);
+
+        assertTrue(refs.contains(0));
+        assertTrue(refs.contains(-1));
+        assertEquals(REF_COUNT + 2, refs.size());
+    }
+
+    @Test
+    void allImplementationsHoldTheSameRefs() {
+        List<Long> input = refs(REF_COUNT);
+        // Duplicates and a 0 id, in the order of the input
+        input.add(input.get(10));
+        input.add(input.get(REF_COUNT - 1));
+        input.add(0L);
+        var expected = new TreeSet<>(input);
+
+        List<LongRefSet> sets = List.of(
+                new HashLongRefSet(),
+                new SortedLongRefSet(),
+                new MappedLongRefSet(spillDirectory, "mapped", 10),
+                new SpillingLongRefSet("spilling", new HashLongRefSet(), new MemoryBudget(0, spillDirectory)));
+        for (LongRefSet set : sets) {
+            input.forEach(set::add);
+        }
+
+        var missing = new Random(7).longs(1000, 0, 20_000_000).filter(ref -> !expected.contains(ref)).toArray();
+        for (LongRefSet set : sets) {
+            String name = set.getClass().getSimpleName();
+            assertEquals(expected.size(), set.size(), name);
+            var actual = new TreeSet<Long>();
+            set.forEach(actual::add);
+            assertEquals(expected, actual, name);
+            // Lookups out of order
+            input.forEach(ref -> assertTrue(set.contains(ref), name + " ref " + ref));
+            for (long ref : missing) {
+                assertFalse(set.contains(ref), name + " ref " + ref);
+            }
+        }
+    }
+
+    /**
+     * Distinct ids in random order.
+     */
+    private static List<Long> refs(int count) {
+        var random = new Random(count);
+        var refs = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            refs.add(1 + i * 100L + random.nextInt(100));
+        }
+        Collections.shuffle(refs, random);
+        return refs;
+    }
+}
@@ -0,0 +1,137 @@
+package org.entur.basmu.osm.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillingNodeStoreTest {
+
+    /**
+     * More puts than the interval between two budget checks.
+     */
+    private static final int NODE_COUNT = 100_000;
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void staysInMemoryWithinTheBudget() {
+        var nodes = new SpillingNodeStore("nodes", new HashNodeStore(), MemoryBudget.unlimited());
+
+        ids(NODE_COUNT).forEach(id -> nodes.put(id, lat(id), lon(id)));
+
+        assertFalse(nodes.isSpilled());
+        assertEquals(NODE_COUNT, nodes.size());
+    }
+
+    @Test
+    void spillsToDiskWhenTheBudgetIsExceeded() {
+        var budget = new MemoryBudget(1024, spillDirectory);
+        var nodes = new SpillingNodeStore("nodes", new HashNodeStore(), budget);
+
+        List<Long> ids = ids(NODE_COUNT);
+        ids.forEach(id -> nodes.put(id, lat(id), lon(id)));
+
+        assertTrue(nodes.isSpilled());
+        assertEquals(0, budget.usedBytes(), "the in-memory store is no longer tracked");
+        assertEquals(NODE_COUNT, nodes.size());
+        for (long id : ids) {
+            assertTrue(nodes.contains(id), "node " + id);
+            assertEquals(new Coordinate(lon(id), lat(id)), nodes.get(id));
+        }
+        assertFalse(nodes.contains(-2));
+        assertNull(nodes.get(-2));
+    }
+
+    @Test
+    void replacesCoordinatesBeforeAndAfterTheSpill() {
+        var nodes = new SpillingNodeStore("nodes", new HashNodeStore(), new MemoryBudget(0, spillDirectory));
+        nodes.put(0, 59.9, 10.7);
+        nodes.put(0, 60.4, 5.3);
+
+        ids(NODE_COUNT).forEach(id -> nodes.put(id, lat(id), lon(id)));
+        assertTrue(nodes.isSpilled());
+        assertEquals(new Coordinate(5.3, 60.4), nodes.get(0));
+
+        nodes.put(0, 63.4, 10.4);
+        nodes.put(-1, 69.6, 18.9);
+
+        assertEquals(new Coordinate(10.4, 63.4), nodes.get(0));
+        assertEquals(new Coordinate(18.9, 69.6), nodes.get(-1));
+        assertEquals(NODE_COUNT + 2, nodes.size());
+    }
+
+    @Test
+    void allImplementationsHoldTheSameNodes() {
+        List<Long> ids = ids(NODE_COUNT);
+        ids.add(0L);
+        var sortedRefs = new SortedLongRefSet();
+        ids.forEach(sortedRefs::add);
+        // A referred node that is missing from the file
+        sortedRefs.add(-5);
+
+        List<NodeStore> stores = List.of(
+                new HashNodeStore(),
+                new SortedNodeStore(sortedRefs),
+                new MappedNodeStore(spillDirectory, "mapped", 10),
+                new SpillingNodeStore("spilling", new HashNodeStore(), new MemoryBudget(0, spillDirectory)));
+        var expected = new TreeMap<Long, Coordinate>();
+        for (long id : ids) {
+            expected.put(id, new Coordinate(lon(id), lat(id)));
+            stores.forEach(store -> store.put(id, lat(id), lon(id)));
+        }
+        // The second put of a node replaces its coordinate
+        long moved = ids.get(NODE_COUNT / 2);
+        expected.put(moved, new Coordinate(11.0, 61.0));
+        stores.forEach(store -> store.put(moved, 61.0, 11.0));
+
+        for (NodeStore store : stores) {
+            String name = store.getClass().getSimpleName();
+            assertEquals(expected.size(), store.size(), name);
+            var actual = new TreeMap<Long, Coordinate>();
+            store.forEach((id, lat, lon) -> actual.put(id, new Coordinate(lon, lat)));
+            assertEquals(expected, actual, name);
+            // Lookups out of order
+            for (long id : ids) {
+                assertEquals(expected.get(id), store.get(id), name + " node " + id);
+            }
+            for (long id : new long[]{-5, 1_000_000_000L, 3}) {
+                assertFalse(store.contains(id), name + " node " + id);
+                assertNull(store.get(id), name + " node " + id);
+            }
+        }
+    }
+
+    /**
+     * Distinct ids in random order, none of them 3.
+     */
+    private static List<Long> ids(int count) {
+        var random = new Random(count);
+        var ids = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(10 + i * 100L + random.nextInt(100));
+        }
+        Collections.shuffle(ids, random);
+        return ids;
+    }
+
+    private static double lat(long id) {
+        return 58 + (id % 1000) / 100.0;
+    }
+
+    private static double lon(long id) {
+        return 5 + (id % 777) / 50.0;
+    }
+}
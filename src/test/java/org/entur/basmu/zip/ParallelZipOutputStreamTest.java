@@ -0,0 +1,205 @@
+package org.entur.basmu.zip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trip of {@link ParallelZipOutputStream}: zips generated content with several chunk sizes and thread counts,
+ * and reads it back with both {@link ZipInputStream}, which checks the data descriptor, and {@link ZipFile}, which
+ * reads the central directory. Covers chunks smaller than the 32 KB dictionary, a last chunk of exactly the chunk
+ * size, and entries on both sides of the 4 GB Zip64 boundary. An entry whose compressed data is larger than 4 GB
+ * writes more than 4 GB to the temporary directory, and is only checked with -Dzipcheck.large=true.
+ */
+class ParallelZipOutputStreamTest {
+
+    private static final long ZIP64_BOUNDARY = 0xFFFFFFFFL;
+    private static final int DICTIONARY = 32 * 1024;
+
+    @TempDir
+    Path workDir;
+
+    /**
+     * @param period the content repeats after this many bytes, small periods deflate fast
+     */
+    record Case(String name, long size, int chunkSize, int threads, int level, int period) {
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static List<Case> cases() {
+        return List.of(
+                new Case("empty", 0, 64 * 1024, 2, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("one byte", 1, 64 * 1024, 2, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("chunks of 1000 bytes", 50_000, 1000, 3, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("chunks of 16 KB", (1 << 20) + 123, 16 * 1024, 4, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("chunks below the dictionary", 10 * DICTIONARY + 17, DICTIONARY - 1, 4, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("chunks of the dictionary", 10 * DICTIONARY + 17, DICTIONARY, 4, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("chunks above the dictionary", 10 * DICTIONARY + 17, DICTIONARY + 1, 4, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("single full chunk", 64 * 1024, 64 * 1024, 2, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("last chunk full", 10 * 64 * 1024, 64 * 1024, 4, Deflater.DEFAULT_COMPRESSION, 1 << 20),
+                new Case("one thread", (3 << 20) + 5, 256 * 1024, 1, Deflater.BEST_COMPRESSION, 1 << 20),
+                new Case("stored blocks", (3 << 20) + 5, 256 * 1024, 4, Deflater.NO_COMPRESSION, 1 << 20),
+                new Case("below the Zip64 boundary", ZIP64_BOUNDARY - 1, 1 << 20, 4, Deflater.BEST_SPEED, 4096),
+                new Case("at the Zip64 boundary", ZIP64_BOUNDARY, 1 << 20, 4, Deflater.BEST_SPEED, 4096));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("cases")
+    void roundTrip(Case check) throws IOException {
+        Path zipFile = workDir.resolve("check.zip");
+        write(check, zipFile);
+        verify(check, zipFile);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "zipcheck.large", matches = "true")
+    void roundTripCompressedAboveTheZip64Boundary() throws IOException {
+        roundTrip(new Case("compressed above the Zip64 boundary", ZIP64_BOUNDARY + (1 << 20), 1 << 20, 4,
+                Deflater.NO_COMPRESSION, 1 << 20));
+    }
+
+    @Test
+    void roundTripOfSingleBytes() throws IOException {
+        var check = new Case("single bytes", 10 * 1000 + 7, 1000, 3, Deflater.DEFAULT_COMPRESSION, 1 << 20);
+        var content = new Content(check.period());
+        Path zipFile = workDir.resolve("check.zip");
+        try (var zip = new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile)),
+                "check.csv", check.threads(), check.chunkSize(), check.level())) {
+            for (long position = 0; position < check.size(); position++) {
+                zip.write(content.byteAt(position));
+            }
+        }
+        verify(check, zipFile);
+    }
+
+    private static void write(Case check, Path zipFile) throws IOException {
+        var content = new Content(check.period());
+        var random = new Random(check.size());
+        byte[] buffer = new byte[256 * 1024];
+        try (var zip = new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile), 1 << 16),
+                "check.csv", check.threads(), check.chunkSize(), check.level())) {
+            long position = 0;
+            while (position < check.size()) {
+                // Writes of varying length, so that they end both inside and on chunk boundaries
+                int length = (int) Math.min(check.size() - position, 1 + random.nextInt(buffer.length));
+                if (length == 1) {
+                    zip.write(content.byteAt(position));
+                } else {
+                    content.fill(position, buffer, length);
+                    zip.write(buffer, 0, length);
+                }
+                position += length;
+            }
+        }
+    }
+
+    private static void verify(Case check, Path zipFile) throws IOException {
+        var content = new Content(check.period());
+        long crc = content.crc(check.size());
+
+        try (var zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(zipFile), 1 << 16))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertNotNull(entry, "ZipInputStream entry");
+            assertEquals("check.csv", entry.getName());
+            compare(zip, content, check.size(), "ZipInputStream");
+            // Reading to the end of the entry has checked the size and CRC of the data descriptor
+            assertNull(zip.getNextEntry(), "ZipInputStream found a second entry");
+        }
+
+        try (var zip = new ZipFile(zipFile.toFile())) {
+            assertEquals(1, zip.size(), "ZipFile entries");
+            ZipEntry entry = zip.getEntry("check.csv");
+            assertNotNull(entry, "ZipFile entry check.csv");
+            assertEquals(check.size(), entry.getSize(), "ZipFile size");
+            assertEquals(crc, entry.getCrc(), "ZipFile CRC");
+            try (InputStream in = zip.getInputStream(entry)) {
+                compare(in, content, check.size(), "ZipFile");
+            }
+        }
+    }
+
+    private static void compare(InputStream in, Content content, long size, String reader) throws IOException {
+        byte[] actual = new byte[256 * 1024];
+        byte[] expected = new byte[actual.length];
+        long position = 0;
+        int read;
+        while ((read = in.readNBytes(actual, 0, actual.length)) > 0) {
+            assertTrue(position + read <= size, reader + " read more than " + size + " bytes");
+            content.fill(position, expected, read);
+            if (!Arrays.equals(actual, 0, read, expected, 0, read)) {
+                throw new AssertionError(reader + " content differs in the " + read + " bytes at " + position);
+            }
+            position += read;
+        }
+        assertEquals(size, position, reader + " bytes read");
+    }
+
+    /**
+     * Deterministic CSV-like content repeating after period bytes.
+     */
+    private static final class Content {
+
+        private final byte[] block;
+
+        Content(int period) {
+            var random = new Random(period);
+            var text = new StringBuilder(period + 64);
+            while (text.length() < period) {
+                text.append(random.nextLong()).append(",osm:venue:").append(random.nextInt(1000))
+                        .append(",openstreetmap,venue,").append(59 + random.nextDouble())
+                        .append(',').append(10 + random.nextDouble()).append('\n');
+            }
+            this.block = Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), period);
+        }
+
+        byte byteAt(long position) {
+            return block[(int) (position % block.length)];
+        }
+
+        void fill(long position, byte[] buffer, int length) {
+            int offset = 0;
+            while (offset < length) {
+                int start = (int) ((position + offset) % block.length);
+                int copied = Math.min(length - offset, block.length - start);
+                System.arraycopy(block, start, buffer, offset, copied);
+                offset += copied;
+            }
+        }
+
+        long crc(long size) {
+            var crc = new CRC32();
+            long position = 0;
+            while (position < size) {
+                int start = (int) (position % block.length);
+                int length = (int) Math.min(size - position, block.length - start);
+                crc.update(block, start, length);
+                position += length;
+            }
+            return crc.getValue();
+        }
+    }
+}